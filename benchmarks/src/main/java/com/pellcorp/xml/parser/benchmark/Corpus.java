@@ -0,0 +1,152 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generated documents for the benchmarks. The same seed is always used, so
+ * every run tokenises exactly the same input.
+ */
+public enum Corpus {
+	/**
+	 * Wide tags with lots of quoted and unquoted attributes.
+	 */
+	ATTRIBUTES {
+		@Override
+		void append(StringBuilder out, Random random) {
+			out.append("<input type=\"text\" name=\"field").append(random.nextInt(1000))
+					.append("\" value=\"").append(word(random)).append(' ').append(word(random))
+					.append("\" class='form-control input-").append(random.nextInt(10))
+					.append("' size=").append(random.nextInt(80))
+					.append(" maxlength=").append(random.nextInt(200))
+					.append(" data-id=\"").append(random.nextInt()).append("\"")
+					.append(" data-label=\"").append(word(random)).append("\"")
+					.append(" title=\"").append(word(random)).append(' ').append(word(random))
+					.append("\"/>\n");
+			out.append("<option value=\"").append(random.nextInt(100)).append("\" selected=selected>")
+					.append(word(random)).append("</option>\n");
+		}
+	},
+
+	/**
+	 * Long runs of text, with the odd inline tag.
+	 */
+	HTML_TEXT {
+		@Override
+		void append(StringBuilder out, Random random) {
+			out.append("<p>");
+			for (int i = 0; i < 80; i++) {
+				if (random.nextInt(20) == 0) {
+					out.append("<b>").append(word(random)).append("</b> ");
+				} else if (random.nextInt(40) == 0) {
+					out.append("<a href=\"#").append(word(random)).append("\">").append(word(random))
+							.append("</a> ");
+				} else {
+					out.append(word(random)).append(random.nextInt(15) == 0 ? ". " : " ");
+				}
+			}
+			out.append("</p>\n");
+		}
+	},
+
+	/**
+	 * Comments, CDATA sections and processing instructions, which all go
+	 * through parseUntil(String).
+	 */
+	COMMENT_CDATA {
+		@Override
+		void append(StringBuilder out, Random random) {
+			out.append("<?process ").append(word(random)).append(" ?>\n");
+			out.append("<!-- ").append(sentence(random, 20)).append(" - ").append(sentence(random, 10))
+					.append(" -->\n");
+			out.append("<data><![CDATA[").append(sentence(random, 30)).append(" ]] ")
+					.append(sentence(random, 10)).append("]]></data>\n");
+		}
+	},
+
+	/**
+	 * Deeply nested templates like the &lt;*Date ...&gt; ones in the tests.
+	 */
+	TEMPLATES {
+		@Override
+		void append(StringBuilder out, Random random) {
+			int depth = 5 + random.nextInt(20);
+			for (int i = 0; i < depth; i++) {
+				out.append("<*Date Year=\"${year}\" Month=\"${month}\" Day=\"${day}\" InvalidValue=\"\">");
+				out.append("<year-to-date>*</year-to-date><month>*</month><day>*</day>\n");
+			}
+			for (int i = 0; i < depth; i++) {
+				out.append("</*Date>");
+			}
+			out.append('\n');
+		}
+	},
+
+	/**
+	 * A few very long text runs, comments, CDATA sections and attribute
+	 * values.
+	 */
+	LONG_TOKENS {
+		@Override
+		void append(StringBuilder out, Random random) {
+			out.append(sentence(random, 10000));
+			out.append("<!--").append(sentence(random, 10000)).append("-->");
+			out.append("<![CDATA[").append(sentence(random, 10000)).append("]]>");
+			out.append("<img alt=\"").append(sentence(random, 10000)).append("\"/>\n");
+		}
+	};
+
+	private static final String[] WORDS = { "lorem", "ipsum", "dolor", "sit", "amet",
+			"consectetur", "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt",
+			"ut", "labore", "et", "dolore", "magna", "aliqua" };
+
+	/**
+	 * Generate a document of at least size characters.
+	 */
+	public String generate(int size) {
+		Random random = new Random(42);
+		StringBuilder out = new StringBuilder(size + 65536);
+		out.append("<document>\n");
+		while (out.length() < size) {
+			append(out, random);
+		}
+		out.append("</document>\n");
+		return out.toString();
+	}
+
+	abstract void append(StringBuilder out, Random random);
+
+	private static String word(Random random) {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	private static String sentence(Random random, int words) {
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				out.append(' ');
+			}
+			out.append(word(random));
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,162 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.pellcorp.xml.parser.Attribute;
+import com.pellcorp.xml.parser.HxmlByteTokeniser;
+import com.pellcorp.xml.parser.HxmlTokeniser;
+
+/**
+ * Tokenises a whole generated document per operation.
+ * 
+ * <P>
+ * As well as operations per second, the characters and tokens counters are
+ * reported per second. The documents are ASCII, so characters/s divided by
+ * 1,000,000 is MB/s. Run with -prof gc (BenchmarkMain does this by default)
+ * to get the allocation rate.
+ * </P>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokeniserBenchmark {
+	@Param({ "ATTRIBUTES", "HTML_TEXT", "COMMENT_CDATA", "TEMPLATES", "LONG_TOKENS" })
+	public Corpus corpus;
+
+	/**
+	 * Size of the document in characters.
+	 */
+	@Param({ "1000000" })
+	public int size;
+
+	private String document;
+	private ByteBuffer bytes;
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public long characters;
+		public long tokens;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			characters = 0;
+			tokens = 0;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		document = corpus.generate(size);
+		bytes = ByteBuffer.wrap(document.getBytes(Charset.forName("UTF-8")));
+	}
+
+	/**
+	 * Just the token types, so this is mostly the cost of scanning.
+	 */
+	@Benchmark
+	public int scan(Counters counters) throws IOException {
+		HxmlTokeniser parse = new HxmlTokeniser(new StringReader(document));
+		int count = 0;
+		int types = 0;
+		while (parse.nextToken()) {
+			types += parse.getTokenType();
+			count++;
+		}
+		counters.tokens += count;
+		counters.characters += document.length();
+		return types;
+	}
+
+	/**
+	 * Everything as Strings, the way most existing callers use the tokeniser.
+	 */
+	@Benchmark
+	public void strings(Counters counters, Blackhole blackhole) throws IOException {
+		HxmlTokeniser parse = new HxmlTokeniser(new StringReader(document));
+		int count = 0;
+		while (parse.nextToken()) {
+			blackhole.consume(parse.getTokenName());
+			blackhole.consume(parse.getText());
+			for (Attribute attribute : parse.getAttributes()) {
+				blackhole.consume(attribute.getValue());
+			}
+			count++;
+		}
+		counters.tokens += count;
+		counters.characters += document.length();
+	}
+
+	/**
+	 * Names and text through the zero copy views.
+	 */
+	@Benchmark
+	public void ranges(Counters counters, Blackhole blackhole) throws IOException {
+		HxmlTokeniser parse = new HxmlTokeniser(new StringReader(document));
+		int count = 0;
+		while (parse.nextToken()) {
+			blackhole.consume(parse.getTokenNameId());
+			blackhole.consume(parse.getTextRange());
+			count++;
+		}
+		counters.tokens += count;
+		counters.characters += document.length();
+	}
+
+	/**
+	 * The UTF-8 byte tokeniser, with the names only.
+	 */
+	@Benchmark
+	public void bytes(Counters counters, Blackhole blackhole) throws IOException {
+		HxmlByteTokeniser parse = new HxmlByteTokeniser(bytes.duplicate());
+		int count = 0;
+		while (parse.nextToken()) {
+			blackhole.consume(parse.getTokenNameId());
+			count++;
+		}
+		counters.tokens += count;
+		counters.characters += document.length();
+	}
+}
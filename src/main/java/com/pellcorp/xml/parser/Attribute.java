@@ -35,4 +35,28 @@ public class Attribute {
 		this.name = name;
 		this.value = value;
 	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Attribute)) {
+			return false;
+		}
+		Attribute other = (Attribute) o;
+		return equals(name, other.name) && equals(value, other.value);
+	}
+
+	@Override
+	public int hashCode() {
+		return (name != null ? name.hashCode() * 31 : 0)
+				+ (value != null ? value.hashCode() : 0);
+	}
+
+	@Override
+	public String toString() {
+		return name + "=" + value;
+	}
+
+	private static boolean equals(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
 }
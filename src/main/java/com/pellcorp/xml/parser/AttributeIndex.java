@@ -0,0 +1,215 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table from attribute name to attribute index, for
+ * the attributes of one tag at a time.
+ * 
+ * <P>
+ * The attribute names are not copied, the table is given the buffer and
+ * offsets they are stored in (nameStart and nameEnd at index * 4 and
+ * index * 4 + 1). clear() just starts a new generation, so nothing is
+ * reallocated between tags unless a tag has more attributes than any before.
+ * If a name is repeated, the first attribute with that name is found.
+ * </P>
+ */
+final class AttributeIndex {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final boolean ignoreCase;
+
+	/**
+	 * The attribute index in each slot, which is only in use if its stamp is
+	 * the current generation.
+	 */
+	private int[] slots = new int[INITIAL_CAPACITY];
+	private int[] stamps = new int[INITIAL_CAPACITY];
+	private int generation = 1;
+
+	/**
+	 * The hash of each attribute name, and the number added.
+	 */
+	private int[] hashes = new int[INITIAL_CAPACITY / 2];
+	private int size = 0;
+
+	/**
+	 * @param ignoreCase
+	 *            Whether names are compared the same way as
+	 *            String.equalsIgnoreCase.
+	 */
+	AttributeIndex(boolean ignoreCase) {
+		this.ignoreCase = ignoreCase;
+	}
+
+	/**
+	 * Number of attributes added since clear().
+	 */
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		size = 0;
+		if (++generation == 0) {
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+	}
+
+	/**
+	 * Go back to the initial capacity, if the table has grown bigger than
+	 * maxSize.
+	 */
+	void trim(int maxSize) {
+		if (slots.length > maxSize) {
+			slots = new int[INITIAL_CAPACITY];
+			stamps = new int[INITIAL_CAPACITY];
+			hashes = new int[INITIAL_CAPACITY / 2];
+		}
+		clear();
+	}
+
+	/**
+	 * Add the attribute with the next index, which is size().
+	 */
+	void add(char[] buf, int[] offsets) {
+		int start = offsets[size * 4];
+		int end = offsets[size * 4 + 1];
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, size * 2);
+			slots = new int[size * 4];
+			stamps = new int[size * 4];
+			clear();
+			int count = hashes.length / 2;
+			for (int i = 0; i < count; i++) {
+				insert(buf, offsets, i);
+			}
+		}
+		hashes[size] = hash(buf, start, end);
+		insert(buf, offsets, size);
+	}
+
+	/**
+	 * Returns the index of the attribute called name, or -1 if there is none.
+	 */
+	int find(char[] buf, int[] offsets, String name) {
+		int hash = ignoreCase ? hash(name) : name.hashCode();
+		int mask = slots.length - 1;
+		for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+			if (stamps[slot] != generation) {
+				return -1;
+			}
+			int index = slots[slot];
+			if (hashes[index] == hash
+					&& matches(buf, offsets[index * 4], offsets[index * 4 + 1],
+							name)) {
+				return index;
+			}
+		}
+	}
+
+	private void insert(char[] buf, int[] offsets, int index) {
+		int hash = hashes[index];
+		int start = offsets[index * 4];
+		int end = offsets[index * 4 + 1];
+		int mask = slots.length - 1;
+		size = index + 1;
+		for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+			if (stamps[slot] != generation) {
+				stamps[slot] = generation;
+				slots[slot] = index;
+				return;
+			}
+			int other = slots[slot];
+			if (hashes[other] == hash
+					&& matches(buf, start, end, buf, offsets[other * 4],
+							offsets[other * 4 + 1])) {
+				// Keep the first one.
+				return;
+			}
+		}
+	}
+
+	private int hash(char[] buf, int start, int end) {
+		if (!ignoreCase) {
+			return SymbolTable.hash(buf, start, end - start);
+		}
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + fold(buf[i]);
+		}
+		return h;
+	}
+
+	private int hash(String name) {
+		int h = 0;
+		for (int i = 0; i < name.length(); i++) {
+			h = 31 * h + fold(name.charAt(i));
+		}
+		return h;
+	}
+
+	private boolean matches(char[] buf, int start, int end, String name) {
+		if (end - start != name.length()) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (!same(buf[i], name.charAt(i - start))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean matches(char[] buf, int start, int end, char[] buf2,
+			int start2, int end2) {
+		if (end - start != end2 - start2) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (!same(buf[i], buf2[i - start + start2])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean same(char c1, char c2) {
+		return c1 == c2 || ignoreCase && fold(c1) == fold(c2);
+	}
+
+	/**
+	 * The same comparison that String.equalsIgnoreCase uses.
+	 */
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/**
+	 * Spread the hash over the low bits used to pick a slot.
+	 */
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,180 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+/**
+ * Decides which characters can start a name, be part of a name, are
+ * whitespace, or end an unquoted attribute value, so the rules can be chosen
+ * per tokeniser.
+ * 
+ * <P>
+ * The flags of the ASCII characters are worked out once, when the classifier
+ * is created, and kept in a table, so for nearly all markup checking a
+ * character is a single array lookup. classify(char) is only called for the
+ * rest.
+ * </P>
+ * 
+ * @see HxmlTokeniser#setCharClassifier(CharClassifier)
+ */
+public abstract class CharClassifier {
+	/**
+	 * The first character of a tag, attribute or PI name.
+	 */
+	public static final int NAME_START = 1;
+
+	/**
+	 * Any other character of a name.
+	 */
+	public static final int NAME_CHAR = 2;
+
+	public static final int WHITESPACE = 4;
+
+	/**
+	 * Ends an unquoted attribute value, as whitespace does.
+	 */
+	public static final int DELIMITER = 8;
+
+	/**
+	 * The rules the tokeniser has always used: a name starts with a letter,
+	 * '_', ':' or '*', and carries on with letters, digits, '_', '.', '*' and
+	 * '-'. Whitespace is anything Character.isWhitespace(char) is true for.
+	 * This is the default.
+	 */
+	public static final CharClassifier PERMISSIVE = new CharClassifier() {
+		public int classify(char c) {
+			int flags = 0;
+			if (c == '*' || c == '_' || c == ':' || Character.isLetter(c)) {
+				flags |= NAME_START;
+			}
+			if (Character.isLetterOrDigit(c) || c == '_' || c == '.'
+					|| c == '*' || c == '-') {
+				flags |= NAME_CHAR;
+			}
+			if (Character.isWhitespace(c)) {
+				flags |= WHITESPACE;
+			}
+			if (c == '/' || c == '>') {
+				flags |= DELIMITER;
+			}
+			return flags;
+		}
+	};
+
+	/**
+	 * The NameStartChar, NameChar and S productions of XML 1.0. A surrogate is
+	 * taken to be part of a name, as the supplementary characters allowed in
+	 * names are not checked.
+	 */
+	public static final CharClassifier XML = new CharClassifier() {
+		public int classify(char c) {
+			int flags = 0;
+			if (isXmlNameStart(c)) {
+				flags |= NAME_START | NAME_CHAR;
+			} else if (c == '-' || c == '.' || (c >= '0' && c <= '9')
+					|| c == 0xB7 || (c >= 0x300 && c <= 0x36F)
+					|| c == 0x203F || c == 0x2040) {
+				flags |= NAME_CHAR;
+			}
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				flags |= WHITESPACE;
+			}
+			if (c == '/' || c == '>') {
+				flags |= DELIMITER;
+			}
+			return flags;
+		}
+	};
+
+	/**
+	 * The way HTML5 reads tags: a name starts with a letter, '_' or ':', and
+	 * carries on up to whitespace or one of / &gt; = &lt; " ' ?. Whitespace is
+	 * only space, tab, newline, form feed and carriage return, and only a
+	 * '&gt;' or whitespace ends an unquoted attribute value, so it can contain
+	 * a '/', as in href=/index.html.
+	 */
+	public static final CharClassifier HTML = new CharClassifier() {
+		public int classify(char c) {
+			int flags = 0;
+			boolean whitespace = c == ' ' || c == '\t' || c == '\n'
+					|| c == '\f' || c == '\r';
+			if (c == '_' || c == ':' || Character.isLetter(c)) {
+				flags |= NAME_START;
+			}
+			if (!whitespace && c != '/' && c != '>' && c != '=' && c != '<'
+					&& c != '"' && c != '\'' && c != '?' && c != '\0') {
+				flags |= NAME_CHAR;
+			}
+			if (whitespace) {
+				flags |= WHITESPACE;
+			}
+			if (c == '>') {
+				flags |= DELIMITER;
+			}
+			return flags;
+		}
+	};
+
+	/**
+	 * Flags of each ASCII character.
+	 */
+	final byte[] ascii = new byte[128];
+
+	/**
+	 * Builds the table of ASCII characters, by calling classify(char), so it
+	 * must not depend on anything set in a subclass constructor.
+	 */
+	protected CharClassifier() {
+		for (char c = 0; c < ascii.length; c++) {
+			ascii[c] = (byte) classify(c);
+		}
+	}
+
+	/**
+	 * Returns the flags for c: any of NAME_START, NAME_CHAR, WHITESPACE and
+	 * DELIMITER.
+	 */
+	public abstract int classify(char c);
+
+	/**
+	 * Same as classify(char), using the table for ASCII characters.
+	 */
+	public final int classOf(char c) {
+		return c < 128 ? ascii[c] : classifyNonAscii(c);
+	}
+
+	/**
+	 * For the tokenisers, once they have looked in the table. U+FFFF is what
+	 * they read at the end of input, so it is never anything.
+	 */
+	final int classifyNonAscii(char c) {
+		return c != '\uFFFF' ? classify(c) : 0;
+	}
+
+	private static boolean isXmlNameStart(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == ':'
+				|| c == '_' || (c >= 0xC0 && c <= 0xD6)
+				|| (c >= 0xD8 && c <= 0xF6) || (c >= 0xF8 && c <= 0x2FF)
+				|| (c >= 0x370 && c <= 0x37D) || (c >= 0x37F && c <= 0x1FFF)
+				|| c == 0x200C || c == 0x200D || (c >= 0x2070 && c <= 0x218F)
+				|| (c >= 0x2C00 && c <= 0x2FEF) || (c >= 0x3001 && c <= 0xD7FF)
+				|| Character.isSurrogate(c) || (c >= 0xF900 && c <= 0xFDCF)
+				|| (c >= 0xFDF0 && c <= 0xFFFD);
+	}
+}
@@ -0,0 +1,153 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A CharSequence view over part of a character buffer, used to get at the
+ * text of a token without copying it into a String.
+ * 
+ * <P>
+ * The views returned by HxmlTokeniser are reused, and are only valid until the
+ * next call to nextToken(). Use toString() to keep a copy.
+ * </P>
+ */
+public final class CharRange implements CharSequence {
+	private char[] buffer;
+	private int offset;
+	private int length;
+
+	CharRange() {
+	}
+
+	public CharRange(final char[] buffer, final int offset, final int length) {
+		set(buffer, offset, length);
+	}
+
+	/**
+	 * Point this view at a new range, returns this.
+	 */
+	CharRange set(final char[] buffer, final int offset, final int length) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		return this;
+	}
+
+	/**
+	 * The buffer the view is over, the characters are at getOffset() to
+	 * getOffset() + length().
+	 */
+	public char[] getBuffer() {
+		return buffer;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index: " + index
+					+ ", Length: " + length);
+		}
+		return buffer[offset + index];
+	}
+
+	/**
+	 * Returns a String, as the view itself will not stay valid.
+	 */
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("Start: " + start + ", End: "
+					+ end + ", Length: " + length);
+		}
+		return new String(buffer, offset + start, end - start);
+	}
+
+	/**
+	 * Copy the characters into dst, starting at dstOffset.
+	 */
+	public void getChars(char[] dst, int dstOffset) {
+		System.arraycopy(buffer, offset, dst, dstOffset, length);
+	}
+
+	/**
+	 * Append the characters to out, without creating a String where out is a
+	 * StringBuilder, StringBuffer or Writer.
+	 */
+	public void appendTo(Appendable out) throws IOException {
+		if (out instanceof StringBuilder) {
+			((StringBuilder) out).append(buffer, offset, length);
+		} else if (out instanceof StringBuffer) {
+			((StringBuffer) out).append(buffer, offset, length);
+		} else if (out instanceof Writer) {
+			((Writer) out).write(buffer, offset, length);
+		} else {
+			out.append(this);
+		}
+	}
+
+	/**
+	 * Compare the characters with s, without creating a String.
+	 */
+	public boolean contentEquals(CharSequence s) {
+		if (s.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (buffer[offset + i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Same as contentEquals, but ignoring case.
+	 */
+	public boolean contentEqualsIgnoreCase(CharSequence s) {
+		if (s.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char c1 = buffer[offset + i];
+			char c2 = s.charAt(i);
+			if (c1 != c2
+					&& Character.toUpperCase(c1) != Character.toUpperCase(c2)
+					&& Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return new String(buffer, offset, length);
+	}
+}
@@ -0,0 +1,79 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * A Reader over part of a CharSequence, which copies blocks straight out of a
+ * String, StringBuilder or CharBuffer.
+ */
+final class CharSequenceReader extends Reader {
+	private CharSequence input;
+	private int end;
+	private int position;
+
+	CharSequenceReader(CharSequence input) {
+		this(input, 0, input.length());
+	}
+
+	CharSequenceReader(CharSequence input, int start, int end) {
+		reset(input, start, end);
+	}
+
+	/**
+	 * Read input[start..end) instead, so the reader can be reused.
+	 */
+	void reset(CharSequence input, int start, int end) {
+		this.input = input;
+		this.position = start;
+		this.end = end;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) {
+		if (position >= end) {
+			return -1;
+		}
+		int count = Math.min(len, end - position);
+		if (input instanceof String) {
+			((String) input).getChars(position, position + count, cbuf, off);
+		} else if (input instanceof StringBuilder) {
+			((StringBuilder) input).getChars(position, position + count, cbuf,
+					off);
+		} else if (input instanceof CharBuffer) {
+			CharBuffer buffer = ((CharBuffer) input).duplicate();
+			buffer.position(buffer.position() + position);
+			buffer.get(cbuf, off, count);
+		} else {
+			for (int i = 0; i < count; i++) {
+				cbuf[off + i] = input.charAt(position + i);
+			}
+		}
+		position += count;
+		return count;
+	}
+
+	@Override
+	public void close() {
+	}
+}
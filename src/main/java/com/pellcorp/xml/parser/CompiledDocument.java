@@ -0,0 +1,313 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The tokens of a whole document, recorded by HxmlTokeniser.compile(), so
+ * they can be replayed with HxmlTokeniser.reset(CompiledDocument) as many
+ * times as needed, without tokenising it again.
+ * 
+ * <P>
+ * Everything is kept in a few arrays: the type of each token in a byte[],
+ * where its text, content, name and attributes are in an int[], and the
+ * characters of all the tokens one after the other in a char[]. Tag and
+ * attribute names are also kept as ids in the SymbolTable of the tokeniser
+ * that compiled it. A CompiledDocument never changes once it has been
+ * created, so it can be replayed on any number of threads at once.
+ * </P>
+ * 
+ * @see TemplateCache
+ */
+public final class CompiledDocument {
+	/**
+	 * The ints kept for each token, in tokens.
+	 */
+	static final int DATA = 0;
+	static final int LENGTH = 1;
+	static final int END_OF_TEXT = 2;
+	static final int NAME_START = 3;
+	static final int NAME_END = 4;
+	static final int NAME_ID = 5;
+	static final int LINE = 6;
+	static final int FIRST_ATTRIBUTE = 7;
+	static final int ATTRIBUTE_COUNT = 8;
+	static final int VALUE_LENGTH = 9;
+	static final int TEXT_OFFSET = 10;
+	static final int START_OFFSET = 11;
+	static final int END_OFFSET = 12;
+	static final int START_LINE = 13;
+	static final int START_COLUMN = 14;
+	static final int TOKEN_FIELDS = 15;
+
+	/**
+	 * The ints kept for each attribute: name start, name end, value start,
+	 * value end and name id, in the chars of the token, then where the name
+	 * and value are in the input.
+	 */
+	static final int NAME_OFFSET = 5;
+	static final int VALUE_OFFSET = 6;
+	static final int VALUE_END_OFFSET = 7;
+	static final int VALUE_LINE = 8;
+	static final int VALUE_COLUMN = 9;
+	static final int ATTRIBUTE_FIELDS = 10;
+
+	private final byte[] types;
+	private final int[] tokens;
+	private final int[] attributes;
+
+	/**
+	 * The data of each token, as in the dataBuffer when it was returned,
+	 * followed by the value of an ENTITY.
+	 */
+	private final char[] chars;
+
+	private final SymbolTable symbolTable;
+
+	/**
+	 * The line number once all the tokens have been read.
+	 */
+	private final int endLineNumber;
+
+	/**
+	 * The message of the IOException that stopped tokenising, or null if the
+	 * end of the document was reached.
+	 */
+	private final String error;
+
+	/**
+	 * The details of the error, if it was a HxmlParseException, so it can be
+	 * thrown again the same way, otherwise errorCode is 0.
+	 */
+	private final int errorCode;
+	private final int errorLine;
+	private final long errorOffset;
+	private final int errorExpected;
+	private final int errorFound;
+
+	private CompiledDocument(Recorder recorder, int endLineNumber,
+			IOException error) {
+		this.types = Arrays.copyOf(recorder.types, recorder.count);
+		this.tokens = Arrays.copyOf(recorder.tokens, recorder.count
+				* TOKEN_FIELDS);
+		this.attributes = Arrays.copyOf(recorder.attributes,
+				recorder.attributeCount * ATTRIBUTE_FIELDS);
+		this.chars = Arrays.copyOf(recorder.chars, recorder.length);
+		this.symbolTable = recorder.symbolTable;
+		this.endLineNumber = endLineNumber;
+		this.error = error != null ? error.getMessage() : null;
+		if (error instanceof HxmlParseException) {
+			HxmlParseException e = (HxmlParseException) error;
+			this.errorCode = e.getCode();
+			this.errorLine = e.getLineNumber();
+			this.errorOffset = e.getOffset();
+			this.errorExpected = e.getExpected();
+			this.errorFound = e.getFound();
+		} else {
+			this.errorCode = 0;
+			this.errorLine = 0;
+			this.errorOffset = 0;
+			this.errorExpected = 0;
+			this.errorFound = 0;
+		}
+	}
+
+	/**
+	 * Number of tokens.
+	 */
+	public int getTokenCount() {
+		return types.length;
+	}
+
+	/**
+	 * Type of the token at index, one of the HxmlTokeniser token types.
+	 */
+	public int getTokenType(int index) {
+		return types[index];
+	}
+
+	/**
+	 * The message of the IOException thrown after the last token, if the
+	 * document could not be tokenised to the end, otherwise null.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * The code of the error, if it was a HxmlParseException, otherwise 0.
+	 */
+	public int getErrorCode() {
+		return errorCode;
+	}
+
+	int getErrorLine() {
+		return errorLine;
+	}
+
+	long getErrorOffset() {
+		return errorOffset;
+	}
+
+	int getErrorExpected() {
+		return errorExpected;
+	}
+
+	int getErrorFound() {
+		return errorFound;
+	}
+
+	/**
+	 * Roughly how many bytes the arrays take up.
+	 */
+	public long getSize() {
+		return types.length + 4L * (tokens.length + attributes.length) + 2L
+				* chars.length;
+	}
+
+	byte[] getTypes() {
+		return types;
+	}
+
+	int[] getTokens() {
+		return tokens;
+	}
+
+	int[] getAttributes() {
+		return attributes;
+	}
+
+	char[] getChars() {
+		return chars;
+	}
+
+	SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	int getEndLineNumber() {
+		return endLineNumber;
+	}
+
+	/**
+	 * Used by HxmlTokeniser.compile() to add the tokens one at a time, in
+	 * arrays that grow as required.
+	 */
+	static final class Recorder {
+		private final SymbolTable symbolTable;
+		private byte[] types = new byte[64];
+		private int[] tokens = new int[64 * TOKEN_FIELDS];
+		private int count = 0;
+		private int[] attributes = new int[64 * ATTRIBUTE_FIELDS];
+		private int attributeCount = 0;
+		private char[] chars = new char[1024];
+		private int length = 0;
+
+		Recorder(SymbolTable symbolTable) {
+			this.symbolTable = symbolTable;
+		}
+
+		/**
+		 * Add a token, whose data is data[0..dataLength), followed by
+		 * value[0..valueLength) if it is an ENTITY.
+		 */
+		void addToken(int type, char[] data, int dataLength, int endOfText,
+				int nameStart, int nameEnd, int nameId, int lineNumber,
+				char[] value, int valueLength) {
+			if (count == types.length) {
+				types = Arrays.copyOf(types, count * 2);
+				tokens = Arrays.copyOf(tokens, count * 2 * TOKEN_FIELDS);
+			}
+			if (length + dataLength + valueLength > chars.length) {
+				chars = Arrays.copyOf(chars, Math.max(chars.length * 2,
+						length + dataLength + valueLength));
+			}
+			types[count] = (byte) type;
+			int k = count * TOKEN_FIELDS;
+			tokens[k + DATA] = length;
+			tokens[k + LENGTH] = dataLength;
+			tokens[k + END_OF_TEXT] = endOfText;
+			tokens[k + NAME_START] = nameStart;
+			tokens[k + NAME_END] = nameEnd;
+			tokens[k + NAME_ID] = nameId;
+			tokens[k + LINE] = lineNumber;
+			tokens[k + FIRST_ATTRIBUTE] = attributeCount;
+			tokens[k + ATTRIBUTE_COUNT] = 0;
+			tokens[k + VALUE_LENGTH] = valueLength;
+			count++;
+
+			System.arraycopy(data, 0, chars, length, dataLength);
+			length += dataLength;
+			System.arraycopy(value, 0, chars, length, valueLength);
+			length += valueLength;
+		}
+
+		/**
+		 * Set where the last token added is in the input. Offsets are kept as
+		 * ints, as the whole document is held in memory anyway.
+		 */
+		void setLocation(long textOffset, long startOffset, long endOffset,
+				int startLine, int startColumn) {
+			int k = (count - 1) * TOKEN_FIELDS;
+			tokens[k + TEXT_OFFSET] = (int) textOffset;
+			tokens[k + START_OFFSET] = (int) startOffset;
+			tokens[k + END_OFFSET] = (int) endOffset;
+			tokens[k + START_LINE] = startLine;
+			tokens[k + START_COLUMN] = startColumn;
+		}
+
+		/**
+		 * Add an attribute to the last token added.
+		 */
+		void addAttribute(int nameStart, int nameEnd, int valueStart,
+				int valueEnd, int nameId) {
+			int i = attributeCount * ATTRIBUTE_FIELDS;
+			if (i == attributes.length) {
+				attributes = Arrays.copyOf(attributes, i * 2);
+			}
+			attributes[i] = nameStart;
+			attributes[i + 1] = nameEnd;
+			attributes[i + 2] = valueStart;
+			attributes[i + 3] = valueEnd;
+			attributes[i + 4] = nameId;
+			attributeCount++;
+			tokens[(count - 1) * TOKEN_FIELDS + ATTRIBUTE_COUNT]++;
+		}
+
+		/**
+		 * Set where the last attribute added is in the input.
+		 */
+		void setAttributeLocation(long nameOffset, long valueOffset,
+				long valueEndOffset, int valueLine, int valueColumn) {
+			int i = (attributeCount - 1) * ATTRIBUTE_FIELDS;
+			attributes[i + NAME_OFFSET] = (int) nameOffset;
+			attributes[i + VALUE_OFFSET] = (int) valueOffset;
+			attributes[i + VALUE_END_OFFSET] = (int) valueEndOffset;
+			attributes[i + VALUE_LINE] = valueLine;
+			attributes[i + VALUE_COLUMN] = valueColumn;
+		}
+
+		CompiledDocument build(int endLineNumber, IOException error) {
+			return new CompiledDocument(this, endLineNumber, error);
+		}
+	}
+}
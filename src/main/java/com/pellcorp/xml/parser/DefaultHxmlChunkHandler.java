@@ -0,0 +1,45 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+
+/**
+ * A HxmlChunkHandler that ignores everything, so only the methods that are
+ * needed have to be overridden.
+ */
+public class DefaultHxmlChunkHandler extends DefaultHxmlHandler implements
+		HxmlChunkHandler {
+	public void textChunk(char[] buf, int off, int len, boolean last)
+			throws IOException {
+	}
+
+	public void commentChunk(char[] buf, int off, int len, boolean last)
+			throws IOException {
+	}
+
+	public void cdataChunk(char[] buf, int off, int len, boolean last)
+			throws IOException {
+	}
+
+	public void piChunk(char[] buf, int targetOff, int targetLen,
+			int dataOff, int dataLen, boolean last) throws IOException {
+	}
+}
@@ -0,0 +1,209 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A trie of the HTML5 named character references, so an entity can be
+ * recognised one character at a time as it is read, without collecting the
+ * name first or creating a String.
+ * 
+ * <P>
+ * The nodes are numbered in breadth first order, so the children of a node
+ * are next to each other, sorted by the character that leads to them, and
+ * are found with a binary search. It is built once, from entities.txt, the
+ * first time it is used.
+ * </P>
+ */
+final class EntityTable {
+	static final int ROOT = 0;
+
+	static final int NO_NODE = -1;
+
+	static final EntityTable HTML5 = load("entities.txt");
+
+	/**
+	 * The character that leads to each node.
+	 */
+	private final char[] labels;
+
+	/**
+	 * The children of node n are firstChild[n]..childEnd[n].
+	 */
+	private final int[] firstChild;
+	private final int[] childEnd;
+
+	/**
+	 * Where the value of each node is in valueChars, as offset &lt;&lt; 3 |
+	 * length, or 0 if no name ends at the node.
+	 */
+	private final int[] values;
+	private final char[] valueChars;
+
+	/**
+	 * @param names
+	 *            The entity names, sorted.
+	 * @param values
+	 *            What each name stands for.
+	 */
+	EntityTable(String[] names, String[] values) {
+		int max = 1;
+		for (String name : names) {
+			max += name.length();
+		}
+		char[] labels = new char[max];
+		int[] firstChild = new int[max];
+		int[] childEnd = new int[max];
+		int[] nodeValues = new int[max];
+		StringBuilder chars = new StringBuilder();
+
+		// The names starting with the prefix a node stands for are
+		// names[from[n]..to[n]), and the prefix is depth[n] long.
+		int[] from = new int[max];
+		int[] to = new int[max];
+		int[] depth = new int[max];
+		to[ROOT] = names.length;
+		int count = 1;
+		for (int node = 0; node < count; node++) {
+			int i = from[node];
+			int end = to[node];
+			int d = depth[node];
+			// As they are sorted, a name that is just the prefix comes first.
+			if (i < end && names[i].length() == d) {
+				nodeValues[node] = chars.length() << 3 | values[i].length();
+				chars.append(values[i]);
+				i++;
+			}
+
+			firstChild[node] = count;
+			while (i < end) {
+				char c = names[i].charAt(d);
+				int j = i + 1;
+				while (j < end && names[j].charAt(d) == c) {
+					j++;
+				}
+				labels[count] = c;
+				from[count] = i;
+				to[count] = j;
+				depth[count] = d + 1;
+				count++;
+				i = j;
+			}
+			childEnd[node] = count;
+		}
+
+		this.labels = Arrays.copyOf(labels, count);
+		this.firstChild = Arrays.copyOf(firstChild, count);
+		this.childEnd = Arrays.copyOf(childEnd, count);
+		this.values = Arrays.copyOf(nodeValues, count);
+		this.valueChars = chars.toString().toCharArray();
+	}
+
+	/**
+	 * Returns the node reached from node with c, or NO_NODE if no name
+	 * carries on with c.
+	 */
+	int getChild(int node, char c) {
+		int low = firstChild[node];
+		int high = childEnd[node] - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			char label = labels[mid];
+			if (label < c) {
+				low = mid + 1;
+			} else if (label > c) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return NO_NODE;
+	}
+
+	/**
+	 * Does a name end at node?
+	 */
+	boolean hasValue(int node) {
+		return values[node] != 0;
+	}
+
+	/**
+	 * Copy the value of the name that ends at node into dest, which needs room
+	 * for 4 characters.
+	 * 
+	 * @return The number of characters copied.
+	 */
+	int getValue(int node, char[] dest, int offset) {
+		int value = values[node];
+		int length = value & 7;
+		System.arraycopy(valueChars, value >>> 3, dest, offset, length);
+		return length;
+	}
+
+	/**
+	 * Number of nodes, including the root.
+	 */
+	int size() {
+		return labels.length;
+	}
+
+	private static EntityTable load(String resource) {
+		List<String> names = new ArrayList<String>();
+		List<String> values = new ArrayList<String>();
+		InputStream in = EntityTable.class.getResourceAsStream(resource);
+		if (in == null) {
+			throw new IllegalStateException("Resource not found: " + resource);
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					in, "US-ASCII"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() == 0 || line.charAt(0) == '#') {
+					continue;
+				}
+				String[] fields = line.split(" ");
+				StringBuilder value = new StringBuilder(2);
+				for (int i = 1; i < fields.length; i++) {
+					value.appendCodePoint(Integer.parseInt(fields[i], 16));
+				}
+				names.add(fields[0]);
+				values.add(value.toString());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read: " + resource, e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// Nothing more to read anyway.
+			}
+		}
+		return new EntityTable(names.toArray(new String[names.size()]),
+				values.toArray(new String[values.size()]));
+	}
+}
@@ -0,0 +1,62 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+/**
+ * The attributes of a start or empty tag, as offsets into the buffer passed
+ * to HxmlHandler.startTag(...) or emptyTag(...). Only valid during that call.
+ */
+public interface HxmlAttributes {
+	/**
+	 * Number of attributes.
+	 */
+	int getLength();
+
+	int getNameOffset(int index);
+
+	int getNameLength(int index);
+
+	int getValueOffset(int index);
+
+	int getValueLength(int index);
+
+	/**
+	 * The name of the attribute at index, from the SymbolTable if there is
+	 * one.
+	 */
+	String getName(int index);
+
+	/**
+	 * The value of the attribute at index, without the delimiters.
+	 */
+	String getValue(int index);
+
+	/**
+	 * The index of the first attribute called name, or -1 if there is none.
+	 */
+	int getIndex(String name);
+
+	/**
+	 * The SymbolTable id of the name of the attribute at index, or
+	 * SymbolTable.NO_ID.
+	 */
+	int getNameId(int index);
+}
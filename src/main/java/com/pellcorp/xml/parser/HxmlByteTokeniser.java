@@ -0,0 +1,820 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A version of HxmlTokeniser that works directly on UTF-8 encoded bytes in a
+ * ByteBuffer, such as a MappedByteBuffer from FileChannel.map, so large files
+ * do not need to be decoded or copied into the Java heap first.
+ * 
+ * <P>
+ * The markup is recognised from the ASCII bytes, which never occur inside a
+ * multi-byte UTF-8 sequence. Only the names, attribute values and text that
+ * are actually asked for are decoded. The token types are the same as those
+ * returned by HxmlTokeniser.
+ * </P>
+ * 
+ * <P>
+ * Unlike HxmlTokeniser, getTokenContent() returns the source of the token
+ * exactly as it appears in the input, including any whitespace, quotes and
+ * '=' inside a tag, and line endings are not normalised. The byte offsets of
+ * the text and token are available, so the caller can use the buffer directly.
+ * </P>
+ */
+public class HxmlByteTokeniser {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Returned by readChar() for characters outside the BMP, which are never
+	 * letters or whitespace as far as HxmlTokeniser is concerned, as it only
+	 * sees the surrogates.
+	 */
+	private static final int SURROGATE = 0xD800;
+
+	/**
+	 * Tokenise from the position to the limit of buffer. The buffer itself is
+	 * not modified, the position is only used to find out where to start.
+	 */
+	public HxmlByteTokeniser(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.start = buffer.position();
+		this.limit = buffer.limit();
+		this.position = start;
+		this.readAhead = start;
+		this.lineScanIndex = start;
+	}
+
+	/**
+	 * Map the whole of file into memory, read only. The mapping stays valid
+	 * after the file is closed.
+	 * 
+	 * @exception IOException
+	 *                If file is over Integer.MAX_VALUE bytes (2GB), which is
+	 *                the most a ByteBuffer can hold. Read a bigger file with
+	 *                HxmlTokeniser instead.
+	 */
+	public static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("File is too big to map, it is " + size
+						+ " bytes and the most is " + Integer.MAX_VALUE + ": "
+						+ file);
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Return type of last token found with nextToken.
+	 */
+	public int getTokenType() {
+		return tokenType;
+	}
+
+	/**
+	 * Debug method.
+	 */
+	public String getTypeAsString() {
+		return HxmlTokeniser.typeAsString(tokenType);
+	}
+
+	/**
+	 * Return name of last token found with nextToken, or null if it has none.
+	 * 
+	 * @see HxmlTokeniser#getTokenName()
+	 */
+	public String getTokenName() {
+		if (tokenName == null && tokenNameStart != -1) {
+			tokenName = getName(tokenNameStart, tokenNameEnd);
+		}
+		return tokenName;
+	}
+
+	/**
+	 * Returns the SymbolTable id of the token name.
+	 * 
+	 * @see HxmlTokeniser#getTokenNameId()
+	 */
+	public int getTokenNameId() {
+		if (tokenNameStart != -1 && symbolTable != null) {
+			int length = decodeName(tokenNameStart, tokenNameEnd);
+			return symbolTable.getId(nameBuffer, 0, length);
+		} else {
+			return SymbolTable.NO_ID;
+		}
+	}
+
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	/**
+	 * @see HxmlTokeniser#setSymbolTable(SymbolTable)
+	 */
+	public void setSymbolTable(SymbolTable symbolTable) {
+		this.symbolTable = symbolTable;
+	}
+
+	/**
+	 * @see HxmlTokeniser#getAttributeCount()
+	 */
+	public int getAttributeCount() {
+		return attributeCount;
+	}
+
+	/**
+	 * @see HxmlTokeniser#getAttributeName(int)
+	 */
+	public String getAttributeName(int index) {
+		int i = checkAttribute(index);
+		return getName(attributes[i], attributes[i + 1]);
+	}
+
+	/**
+	 * @see HxmlTokeniser#getAttributeValue(int)
+	 */
+	public String getAttributeValue(int index) {
+		int i = checkAttribute(index);
+		return decode(attributes[i + 2], attributes[i + 3]);
+	}
+
+	/**
+	 * Will return attributes if getTokenType()==START_TAG or EMPTY_TAG,
+	 * otherwise an empty list. The attributes are only decoded when this is
+	 * called.
+	 */
+	public List<Attribute> getAttributes() {
+		if (tokenType != HxmlTokeniser.START_TAG
+				&& tokenType != HxmlTokeniser.EMPTY_TAG) {
+			return Collections.emptyList();
+		}
+		if (attributeList == null) {
+			List<Attribute> list = new ArrayList<Attribute>(attributeCount);
+			for (int i = 0; i < attributeCount; i++) {
+				list.add(new Attribute(getName(attributes[i * 4],
+						attributes[i * 4 + 1]), decode(attributes[i * 4 + 2],
+						attributes[i * 4 + 3])));
+			}
+			attributeList = Collections.unmodifiableList(list);
+		}
+		return attributeList;
+	}
+
+	/**
+	 * Get the source of the last token, or null if there is none.
+	 */
+	public String getTokenContent() {
+		if (tokenStart != -1 && tokenEnd > textStart) {
+			return decode(tokenStart, tokenEnd);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * The text before the last token, or null if there is no token.
+	 */
+	public String getText() {
+		if (tokenStart != -1 && tokenEnd > textStart) {
+			return decode(textStart, tokenStart);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Offset in the buffer of the start of the text before the last token.
+	 */
+	public int getTextStart() {
+		return textStart;
+	}
+
+	/**
+	 * Offset in the buffer of the start of the last token, which is also the
+	 * end of the text, or -1 if there is no token.
+	 */
+	public int getTokenStart() {
+		return tokenStart;
+	}
+
+	/**
+	 * Offset in the buffer after the end of the last token.
+	 */
+	public int getTokenEnd() {
+		return tokenEnd;
+	}
+
+	/**
+	 * Returns the current line number.
+	 * 
+	 * @see HxmlTokeniser#getLineNumber()
+	 */
+	public int getLineNumber() {
+		int end = Math.min(Math.max(position, readAhead), limit);
+		for (int i = lineScanIndex; i < end; i++) {
+			byte b = buffer.get(i);
+			// "\r\n" is counted once, at the '\r'.
+			if (b == '\r'
+					|| (b == '\n' && (i == start || buffer.get(i - 1) != '\r'))) {
+				lineNumber++;
+			}
+		}
+		if (end > lineScanIndex) {
+			lineScanIndex = end;
+		}
+		return lineNumber + 1;
+	}
+
+	public boolean isIgnoreCData() {
+		return ignoreCData;
+	}
+
+	public boolean isIgnorePI() {
+		return ignorePI;
+	}
+
+	public boolean isIgnoreComments() {
+		return ignoreComments;
+	}
+
+	public void ignoreComments(boolean b) {
+		this.ignoreComments = b;
+	}
+
+	public void ignoreCData(boolean b) {
+		this.ignoreCData = b;
+	}
+
+	public void ignorePI(boolean b) {
+		this.ignorePI = b;
+	}
+
+	/**
+	 * @see HxmlTokeniser#setCharClassifier(CharClassifier)
+	 */
+	public void setCharClassifier(CharClassifier charClassifier) {
+		if (charClassifier == null) {
+			throw new IllegalArgumentException("charClassifier must not be null");
+		}
+		this.charClassifier = charClassifier;
+		this.asciiClasses = charClassifier.ascii;
+	}
+
+	public CharClassifier getCharClassifier() {
+		return charClassifier;
+	}
+
+	/**
+	 * @see HxmlTokeniser#nextToken()
+	 */
+	public boolean nextToken() throws IOException {
+		reset();
+
+		int b;
+		while (true) {
+			tokenStart = position;
+			b = read();
+
+			switch (b) {
+			case '<':
+				b = read();
+				switch (b) {
+				case '!': // Comment or CDATA...
+					b = read();
+					switch (b) {
+					case '-':
+						require('-');
+						parseComment();
+						break;
+					case '[':
+						require("CDATA[");
+						parseCData();
+						break;
+					default:
+						unread();
+						tokenStart = -1;
+					}
+					break; // case '!'
+				case '?': // Processing Instructions
+					parsePI();
+					break;
+				case '/': // End Tag.
+					parseEndTag();
+					break;
+				default: // Normal Element.
+					unread();
+					parseStartTag();
+					break;
+				}
+				break; // case '<'
+
+			case -1: // End Of File
+				tokenStart = -1;
+				return false;
+
+			default: // Normal text, skip straight to the next '<'.
+				tokenStart = -1;
+				position = indexOf('<', position, limit);
+			}
+
+			if (tokenStart != -1) {
+				tokenEnd = position;
+				return true;
+			}
+		}
+	}
+
+	private int read() {
+		lastLength = 1;
+		if (position < limit) {
+			return buffer.get(position++) & 0xFF;
+		}
+		// Step past the end, so that unread() stays symmetrical at EOF.
+		position++;
+		return -1;
+	}
+
+	/**
+	 * Move back over the last byte or character read.
+	 */
+	private void unread() {
+		if (position > readAhead) {
+			readAhead = position;
+		}
+		position -= lastLength;
+		lastLength = 1;
+	}
+
+	/**
+	 * Read a whole UTF-8 encoded character, for the places where
+	 * HxmlTokeniser uses the Character class on it.
+	 */
+	private int readChar() {
+		int b = read();
+		if (b < 0x80) {
+			lastLength = 1;
+			return b;
+		}
+		int length;
+		int c;
+		if (b >= 0xF0) {
+			length = 4;
+			c = b & 0x07;
+		} else if (b >= 0xE0) {
+			length = 3;
+			c = b & 0x0F;
+		} else if (b >= 0xC0) {
+			length = 2;
+			c = b & 0x1F;
+		} else {
+			// Stray continuation byte.
+			lastLength = 1;
+			return 0xFFFD;
+		}
+		for (int i = 1; i < length; i++) {
+			if (position >= limit) {
+				lastLength = i;
+				return 0xFFFD;
+			}
+			int next = buffer.get(position);
+			if ((next & 0xC0) != 0x80) {
+				lastLength = i;
+				return 0xFFFD;
+			}
+			position++;
+			c = (c << 6) | (next & 0x3F);
+		}
+		lastLength = length;
+		return c > 0xFFFF ? SURROGATE : c;
+	}
+
+	private boolean isWhitespace(int c) {
+		return (classOf(c) & CharClassifier.WHITESPACE) != 0;
+	}
+
+	/**
+	 * The CharClassifier flags of c, which is -1 at the end of input.
+	 */
+	private int classOf(int c) {
+		if (c >= 0 && c < 128) {
+			return asciiClasses[c];
+		} else if (c == -1) {
+			return 0;
+		} else {
+			return charClassifier.classifyNonAscii((char) c);
+		}
+	}
+
+	private void skipWhitespace() {
+		while (isWhitespace(readChar())) {
+			// do nothing
+		}
+		unread();
+	}
+
+	private void require(char required) throws IOException {
+		int c = read();
+		if (c != required) {
+			unread();
+			throw new IOException("Line:" + getLineNumber() + "; Character '"
+					+ required + "' not found: " + (char) c);
+		}
+	}
+
+	private void require(String s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			require(s.charAt(i));
+		}
+	}
+
+	private void requireWhitespace() throws IOException {
+		int c = readChar();
+		if (isWhitespace(c)) {
+			skipWhitespace();
+		} else {
+			throw new IOException("Line:" + getLineNumber()
+					+ "; Whitespace required: " + (char) c);
+		}
+	}
+
+	/**
+	 * Same rules as HxmlTokeniser.getNmToken(), leaves the name in
+	 * nameStart..position.
+	 * 
+	 * @return The offset of the start of the name.
+	 */
+	private int getNmToken() throws IOException {
+		int nameStart = position;
+		int c = readChar();
+		if ((classOf(c) & CharClassifier.NAME_START) == 0) {
+			throw new IOException("Line:" + getLineNumber()
+					+ "; Invalid initial name char: " + (char) c);
+		}
+		while (isLegalNameChar(readChar())) {
+			// keep going
+		}
+		unread();
+		return nameStart;
+	}
+
+	private boolean isLegalNameChar(int c) {
+		return (classOf(c) & CharClassifier.NAME_CHAR) != 0;
+	}
+
+	private void parseComment() throws IOException {
+		parseUntil("-->");
+		if (!ignoreComments) {
+			tokenType = HxmlTokeniser.COMMENT;
+		} else {
+			tokenStart = -1;
+		}
+	}
+
+	private void parseCData() throws IOException {
+		if (!ignoreCData) {
+			parseUntil("]]>");
+			tokenType = HxmlTokeniser.CDATA;
+		} else {
+			tokenStart = -1;
+		}
+	}
+
+	private void parsePI() throws IOException {
+		int nameStart = getNmToken();
+		int nameEnd = position;
+		if (!ignorePI) {
+			if (!tryRead("?>")) {
+				requireWhitespace();
+				parseUntil("?>");
+			}
+			tokenNameStart = nameStart;
+			tokenNameEnd = nameEnd;
+			tokenType = HxmlTokeniser.PI;
+		} else {
+			tokenStart = -1;
+		}
+	}
+
+	private void parseStartTag() throws IOException {
+		int nameStart = getNmToken();
+		int nameEnd = position;
+		skipWhitespace();
+		int c = read();
+		while (c != '/' && c != '>') {
+			unread();
+			parseAttribute();
+			skipWhitespace();
+			c = read();
+		}
+
+		tokenNameStart = nameStart;
+		tokenNameEnd = nameEnd;
+		if (c == '>') {
+			tokenType = HxmlTokeniser.START_TAG;
+		} else {
+			require('>');
+			tokenType = HxmlTokeniser.EMPTY_TAG;
+		}
+	}
+
+	private void parseEndTag() throws IOException {
+		int nameStart = getNmToken();
+		int nameEnd = position;
+		skipWhitespace();
+		parseUntil('>');
+		tokenNameStart = nameStart;
+		tokenNameEnd = nameEnd;
+		tokenType = HxmlTokeniser.END_TAG;
+	}
+
+	/**
+	 * Same rules as HxmlTokeniser.parseAttribute(), but only records where the
+	 * name and value are.
+	 */
+	private void parseAttribute() throws IOException {
+		int nameStart = getNmToken();
+		int nameEnd = position;
+		skipWhitespace();
+		require('=');
+		skipWhitespace();
+
+		int delim = read();
+		if (delim != '\"' && delim != '\'') {
+			unread();
+			delim = 0;
+		}
+
+		int valueStart = position;
+		while (true) {
+			int c = delim == 0 ? readChar() : read();
+			if (c == -1) {
+				throw new IOException("Line:" + getLineNumber()
+						+ "; Unexpected end of input in attribute value.");
+			}
+			if (delim == 0) {
+				if ((classOf(c) & (CharClassifier.WHITESPACE
+						| CharClassifier.DELIMITER)) != 0) {
+					unread();
+					break;
+				}
+			} else {
+				// Ensure previous was not an escape character.
+				if (c == delim
+						&& (position - 1 == valueStart || buffer
+								.get(position - 2) != '\\')) {
+					break;
+				} else if (c == '\n' || c == '\r') {
+					throw new IOException("Line:" + getLineNumber()
+							+ "; Newline in attribute value.");
+				} else if (c == '/' || c == '>') {
+					throw new IOException("Line:" + getLineNumber()
+							+ "; Attribute value was not closed correctly: "
+							+ (char) c);
+				}
+			}
+		}
+		int valueEnd = delim == 0 ? position : position - 1;
+
+		if (attributeCount * 4 == attributes.length) {
+			attributes = Arrays.copyOf(attributes, attributes.length * 2);
+		}
+		int i = attributeCount++ * 4;
+		attributes[i] = nameStart;
+		attributes[i + 1] = nameEnd;
+		attributes[i + 2] = valueStart;
+		attributes[i + 3] = valueEnd;
+	}
+
+	/**
+	 * Move past the next chr, ASCII only.
+	 */
+	private void parseUntil(char chr) throws IOException {
+		int i = indexOf(chr, position, limit);
+		if (i == limit) {
+			position = limit;
+			throw new IOException("Line:" + getLineNumber()
+					+ "; Unexpected end of input, looking for: " + chr);
+		}
+		position = i + 1;
+	}
+
+	/**
+	 * Move past the next occurrence of the ASCII pattern. As the pattern is
+	 * ASCII, there is no need to worry about where characters start.
+	 */
+	private void parseUntil(String pattern) throws IOException {
+		char first = pattern.charAt(0);
+		int length = pattern.length();
+		int end = limit - length + 1;
+		for (int i = indexOf(first, position, end); i < end; i = indexOf(
+				first, i + 1, end)) {
+			if (matches(i, pattern)) {
+				position = i + length;
+				return;
+			}
+		}
+		position = limit;
+		throw new IOException("Line:" + getLineNumber()
+				+ "; Unexpected end of input, looking for: " + pattern);
+	}
+
+	/**
+	 * Returns the index of the first b in buffer[from..to), or to if there is
+	 * none. b must be ASCII. Eight bytes at a time are read as a long, and
+	 * are only looked at one by one if one of them is b (SWAR).
+	 */
+	private int indexOf(int b, int from, int to) {
+		long pattern = b * 0x0101010101010101L;
+		int i = from;
+		for (; i <= to - 8; i += 8) {
+			// Any byte equal to b is now zero.
+			long x = buffer.getLong(i) ^ pattern;
+			if (((x - 0x0101010101010101L) & ~x & 0x8080808080808080L) != 0) {
+				break;
+			}
+		}
+		for (; i < to; i++) {
+			if (buffer.get(i) == b) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	private boolean tryRead(String s) {
+		if (position <= limit - s.length() && matches(position, s)) {
+			position += s.length();
+			return true;
+		}
+		return false;
+	}
+
+	private boolean matches(int offset, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (buffer.get(offset + i) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns where the offsets for the attribute at index start.
+	 */
+	private int checkAttribute(int index) {
+		if (index < 0 || index >= attributeCount) {
+			throw new IndexOutOfBoundsException("Attribute: " + index);
+		}
+		return index * 4;
+	}
+
+	/**
+	 * Decode buffer[from..to) into a String.
+	 */
+	private String decode(int from, int to) {
+		int length = to - from;
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + from,
+					length, UTF8);
+		}
+		if (byteBuffer.length < length) {
+			byteBuffer = new byte[Math.max(length, byteBuffer.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			byteBuffer[i] = buffer.get(from + i);
+		}
+		return new String(byteBuffer, 0, length, UTF8);
+	}
+
+	/**
+	 * Decode the name in buffer[from..to) into the nameBuffer.
+	 * 
+	 * @return the number of characters in the nameBuffer.
+	 */
+	private int decodeName(int from, int to) {
+		int length = to - from;
+		if (nameBuffer.length < length) {
+			nameBuffer = new char[Math.max(length, nameBuffer.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			byte b = buffer.get(from + i);
+			if (b < 0) {
+				// Not ASCII, so do it properly.
+				String name = decode(from, to);
+				name.getChars(0, name.length(), nameBuffer, 0);
+				return name.length();
+			}
+			nameBuffer[i] = (char) b;
+		}
+		return length;
+	}
+
+	private String getName(int from, int to) {
+		if (symbolTable != null) {
+			return symbolTable.intern(nameBuffer, 0, decodeName(from, to));
+		} else {
+			return decode(from, to);
+		}
+	}
+
+	private void reset() {
+		textStart = position;
+		tokenStart = -1;
+		tokenEnd = -1;
+		tokenType = -1;
+		tokenName = null;
+		tokenNameStart = -1;
+		tokenNameEnd = -1;
+		attributeCount = 0;
+		attributeList = null;
+	}
+
+	private final ByteBuffer buffer;
+	private final int start;
+	private final int limit;
+
+	/**
+	 * Offset of the next byte to read.
+	 */
+	private int position;
+
+	/**
+	 * Number of bytes read by the last read() or readChar(), so unread() can
+	 * move back over it.
+	 */
+	private int lastLength = 1;
+
+	/**
+	 * The furthest position reached before the last unread.
+	 */
+	private int readAhead;
+
+	private int lineNumber = 0;
+	private int lineScanIndex;
+
+	private boolean ignoreComments = false;
+	private boolean ignoreCData = false;
+	private boolean ignorePI = false;
+
+	private CharClassifier charClassifier = CharClassifier.PERMISSIVE;
+	private byte[] asciiClasses = charClassifier.ascii;
+
+	private int tokenType = -1;
+	private String tokenName = null;
+	private int tokenNameStart = -1;
+	private int tokenNameEnd = -1;
+
+	private int textStart;
+	private int tokenStart = -1;
+	private int tokenEnd = -1;
+
+	/**
+	 * Name start, name end, value start and value end of each attribute.
+	 */
+	private int[] attributes = new int[32];
+	private int attributeCount = 0;
+	private List<Attribute> attributeList = null;
+
+	private SymbolTable symbolTable = new SymbolTable();
+
+	/**
+	 * Scratch space for decoding.
+	 */
+	private char[] nameBuffer = new char[64];
+	private byte[] byteBuffer = new byte[256];
+}
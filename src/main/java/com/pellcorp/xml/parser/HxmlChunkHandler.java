@@ -0,0 +1,67 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+
+/**
+ * A HxmlHandler that is passed text, and the content of comments, CDATA and
+ * PIs, in pieces of at most HxmlTokeniser.getChunkSize() characters, so the
+ * tokeniser never has to hold all of it at once. However big the document
+ * is, the tokeniser only needs about the chunk size plus the size of its
+ * input window.
+ * 
+ * <P>
+ * When tokenise(HxmlHandler) is passed one of these, text(...), comment(...),
+ * cdata(...) and pi(...) are never called. Instead the methods below are
+ * called one or more times for each run of text or each token, with last set
+ * on the final piece. A piece may be empty. The text of the document after
+ * the last token is passed on as well.
+ * </P>
+ * 
+ * @see DefaultHxmlChunkHandler
+ */
+public interface HxmlChunkHandler extends HxmlHandler {
+	/**
+	 * Part of the text before a token, or an entity's value with
+	 * RETURN_ENTITIES.
+	 */
+	void textChunk(char[] buf, int off, int len, boolean last)
+			throws IOException;
+
+	/**
+	 * Part of the text between &lt;!-- and --&gt;
+	 */
+	void commentChunk(char[] buf, int off, int len, boolean last)
+			throws IOException;
+
+	/**
+	 * Part of the text between &lt;![CDATA[ and ]]&gt;
+	 */
+	void cdataChunk(char[] buf, int off, int len, boolean last)
+			throws IOException;
+
+	/**
+	 * Part of the data of &lt;?target data?&gt;, the target is passed with
+	 * every piece.
+	 */
+	void piChunk(char[] buf, int targetOff, int targetLen, int dataOff,
+			int dataLen, boolean last) throws IOException;
+}
@@ -0,0 +1,82 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.util.Arrays;
+
+/**
+ * A HxmlErrorSink that keeps each error, in arrays that grow as required,
+ * so no object is created for each one. Not thread safe.
+ */
+public class HxmlErrorList implements HxmlErrorSink {
+	private int[] codes = new int[16];
+	private long[] offsets = new long[16];
+	private int[] lineNumbers = new int[16];
+	private int count = 0;
+
+	public void error(int code, long offset, int lineNumber) {
+		if (count == codes.length) {
+			codes = Arrays.copyOf(codes, count * 2);
+			offsets = Arrays.copyOf(offsets, count * 2);
+			lineNumbers = Arrays.copyOf(lineNumbers, count * 2);
+		}
+		codes[count] = code;
+		offsets[count] = offset;
+		lineNumbers[count] = lineNumber;
+		count++;
+	}
+
+	/**
+	 * Number of errors so far.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Code of the error at index, one of the HxmlParseException codes.
+	 */
+	public int getCode(int index) {
+		return codes[check(index)];
+	}
+
+	public long getOffset(int index) {
+		return offsets[check(index)];
+	}
+
+	public int getLineNumber(int index) {
+		return lineNumbers[check(index)];
+	}
+
+	/**
+	 * Forget all the errors.
+	 */
+	public void clear() {
+		count = 0;
+	}
+
+	private int check(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Error: " + index);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,43 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+/**
+ * Told about each error in malformed markup, when HxmlTokeniser is
+ * recovering from them rather than throwing a HxmlParseException. It is
+ * called while the token is being parsed, so it should be quick.
+ * 
+ * @see HxmlTokeniser#setErrorSink(HxmlErrorSink)
+ * @see HxmlErrorList
+ */
+public interface HxmlErrorSink {
+	/**
+	 * An error has been found, and recovered from.
+	 * 
+	 * @param code
+	 *            One of the HxmlParseException error codes.
+	 * @param offset
+	 *            Offset in the input it was found at.
+	 * @param lineNumber
+	 *            Line it was found on.
+	 */
+	void error(int code, long offset, int lineNumber);
+}
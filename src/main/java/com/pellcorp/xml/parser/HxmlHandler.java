@@ -0,0 +1,78 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+
+/**
+ * Receives the tokens from HxmlTokeniser.tokenise(HxmlHandler) as ranges of a
+ * char[] buffer, so nothing is copied unless the handler wants it to be.
+ * 
+ * <P>
+ * The buffer belongs to the tokeniser, and is only valid until the method
+ * returns.
+ * </P>
+ * 
+ * @see DefaultHxmlHandler
+ */
+public interface HxmlHandler {
+	/**
+	 * Text before a token.
+	 */
+	void text(char[] buf, int off, int len) throws IOException;
+
+	/**
+	 * &lt;name ...&gt;
+	 * 
+	 * @return false to skip everything up to and including the matching end
+	 *         tag. Tags are matched by counting, so the names of the end tags
+	 *         are not checked.
+	 */
+	boolean startTag(char[] buf, int nameOff, int nameLen,
+			HxmlAttributes attributes) throws IOException;
+
+	/**
+	 * &lt;name .../&gt;
+	 */
+	void emptyTag(char[] buf, int nameOff, int nameLen,
+			HxmlAttributes attributes) throws IOException;
+
+	/**
+	 * &lt;/name&gt;
+	 */
+	void endTag(char[] buf, int nameOff, int nameLen) throws IOException;
+
+	/**
+	 * The text between &lt;!-- and --&gt;
+	 */
+	void comment(char[] buf, int off, int len) throws IOException;
+
+	/**
+	 * The text between &lt;![CDATA[ and ]]&gt;
+	 */
+	void cdata(char[] buf, int off, int len) throws IOException;
+
+	/**
+	 * &lt;?target data?&gt;, the data is empty if there is none.
+	 */
+	void pi(char[] buf, int targetOff, int targetLen, int dataOff, int dataLen)
+			throws IOException;
+}
@@ -0,0 +1,79 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+/**
+ * Hard limits on what a tokeniser will accept, so a hostile or broken
+ * document fails straight away with an IOException, rather than using up
+ * memory.
+ * 
+ * @see HxmlTokeniser#setLimits(HxmlLimits)
+ */
+public final class HxmlLimits {
+	/**
+	 * No limits, the default.
+	 */
+	public static final HxmlLimits NONE = new HxmlLimits(Integer.MAX_VALUE,
+			Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+	private final int maxNameLength;
+	private final int maxAttributes;
+	private final int maxTokenSize;
+
+	/**
+	 * @param maxNameLength
+	 *            Maximum length of a tag, attribute or PI name.
+	 * @param maxAttributes
+	 *            Maximum number of attributes in one tag.
+	 * @param maxTokenSize
+	 *            Maximum number of characters of a token and the text before
+	 *            it. When they are passed to a HxmlChunkHandler in pieces,
+	 *            only the characters that have not been passed on yet count.
+	 */
+	public HxmlLimits(int maxNameLength, int maxAttributes, int maxTokenSize) {
+		if (maxNameLength <= 0) {
+			throw new IllegalArgumentException("Invalid maximum name length: "
+					+ maxNameLength);
+		}
+		if (maxAttributes < 0) {
+			throw new IllegalArgumentException(
+					"Invalid maximum number of attributes: " + maxAttributes);
+		}
+		if (maxTokenSize <= 0) {
+			throw new IllegalArgumentException("Invalid maximum token size: "
+					+ maxTokenSize);
+		}
+		this.maxNameLength = maxNameLength;
+		this.maxAttributes = maxAttributes;
+		this.maxTokenSize = maxTokenSize;
+	}
+
+	public int getMaxNameLength() {
+		return maxNameLength;
+	}
+
+	public int getMaxAttributes() {
+		return maxAttributes;
+	}
+
+	public int getMaxTokenSize() {
+		return maxTokenSize;
+	}
+}
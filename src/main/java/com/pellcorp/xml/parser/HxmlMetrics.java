@@ -0,0 +1,74 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+
+/**
+ * Told by HxmlTokeniser.setMetrics(HxmlMetrics) what the tokeniser is doing,
+ * so it can be measured. Nothing is called for each character, only for each
+ * block of input, token, or other event, so the methods should be quick.
+ * 
+ * <P>
+ * By default a tokeniser uses NONE, which does nothing, so the calls cost
+ * next to nothing. HxmlStatistics keeps count of everything, and can be
+ * shared between tokenisers.
+ * </P>
+ * 
+ * @see DefaultHxmlMetrics
+ */
+public interface HxmlMetrics {
+	/**
+	 * Does nothing.
+	 */
+	HxmlMetrics NONE = new DefaultHxmlMetrics();
+
+	/**
+	 * count more characters have been read from the input, or fed in.
+	 */
+	void charactersRead(int count);
+
+	/**
+	 * A token has been returned, and length characters of text and token were
+	 * in the dataBuffer.
+	 */
+	void token(int type, int length);
+
+	/**
+	 * The dataBuffer had to grow, to capacity characters.
+	 */
+	void dataBufferGrown(int capacity);
+
+	/**
+	 * The tokeniser has moved back, and is now distance characters before the
+	 * furthest it has read.
+	 */
+	void unread(int distance);
+
+	/**
+	 * length characters were searched for the end of a COMMENT, CDATA or PI.
+	 */
+	void searched(int type, int length);
+
+	/**
+	 * e was thrown, as the input was not what was expected.
+	 */
+	void error(IOException e);
+}
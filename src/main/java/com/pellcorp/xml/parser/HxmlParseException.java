@@ -0,0 +1,198 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+
+/**
+ * Thrown by HxmlTokeniser for malformed markup, or input over its
+ * HxmlLimits. Each tokeniser has just one, which is filled in and thrown
+ * again for each error, and it has no stack trace, so an error costs next to
+ * nothing. The message is only created when getMessage() is called. As the
+ * same instance is thrown every time, copy anything needed from it before
+ * using the tokeniser again. Once suppressed exceptions have been added to
+ * it, the tokeniser creates a new one for the next error.
+ * 
+ * <P>
+ * The codes are also the ones passed to a HxmlErrorSink, when the tokeniser
+ * recovers from the error rather than throwing this.
+ * </P>
+ * 
+ * @see HxmlTokeniser#setErrorSink(HxmlErrorSink)
+ */
+public class HxmlParseException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * A character that must be there is not, such as the '=' after an
+	 * attribute name.
+	 */
+	public static final int MISSING_CHARACTER = 1;
+
+	/**
+	 * A tag, attribute or PI name starts with a character that cannot start
+	 * a name.
+	 */
+	public static final int INVALID_NAME = 2;
+
+	/**
+	 * There is no whitespace after a PI name.
+	 */
+	public static final int MISSING_WHITESPACE = 3;
+
+	/**
+	 * A quoted attribute value has a line terminator in it.
+	 */
+	public static final int NEWLINE_IN_VALUE = 4;
+
+	/**
+	 * A quoted attribute value has a '/' or '&gt;' in it. When recovering,
+	 * these are just part of the value, so this is never passed to a
+	 * HxmlErrorSink.
+	 */
+	public static final int UNCLOSED_VALUE = 5;
+
+	/**
+	 * The input ends in an attribute value.
+	 */
+	public static final int END_OF_INPUT_IN_VALUE = 6;
+
+	/**
+	 * The input ends in a tag, comment, CDATA or PI.
+	 */
+	public static final int END_OF_INPUT = 7;
+
+	/**
+	 * A name is longer than HxmlLimits.getMaxNameLength().
+	 */
+	public static final int NAME_TOO_LONG = 8;
+
+	/**
+	 * A tag has more than HxmlLimits.getMaxAttributes() attributes.
+	 */
+	public static final int TOO_MANY_ATTRIBUTES = 9;
+
+	/**
+	 * A token is longer than HxmlLimits.getMaxTokenSize().
+	 */
+	public static final int TOKEN_TOO_LONG = 10;
+
+	private int code;
+	private int lineNumber;
+	private long offset;
+
+	/**
+	 * The character that was expected, or the limit that was passed, and the
+	 * character that was found instead.
+	 */
+	private int expected;
+	private int found;
+
+	HxmlParseException() {
+		// A null cause, so initCause() cannot change an instance that is
+		// used again.
+		super(null, null);
+	}
+
+	/**
+	 * Fill in the details of the next error.
+	 */
+	HxmlParseException set(int code, int lineNumber, long offset,
+			int expected, int found) {
+		this.code = code;
+		this.lineNumber = lineNumber;
+		this.offset = offset;
+		this.expected = expected;
+		this.found = found;
+		return this;
+	}
+
+	/**
+	 * One of the error codes.
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * Line the error was found on.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Offset in the input the error was found at, see
+	 * HxmlTokeniser.getTokenStartOffset().
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	int getExpected() {
+		return expected;
+	}
+
+	int getFound() {
+		return found;
+	}
+
+	@Override
+	public String getMessage() {
+		return "Line:" + lineNumber + "; " + describe();
+	}
+
+	private String describe() {
+		switch (code) {
+		case MISSING_CHARACTER:
+			return "Character '" + (char) expected + "' not found: "
+					+ (char) found;
+		case INVALID_NAME:
+			return "Invalid initial name char: " + (char) found;
+		case MISSING_WHITESPACE:
+			return "Whitespace required: " + (char) found;
+		case NEWLINE_IN_VALUE:
+			return "Newline in attribute value.";
+		case UNCLOSED_VALUE:
+			return "Attribute value was not closed correctly: " + (char) found;
+		case END_OF_INPUT_IN_VALUE:
+			return "Unexpected end of input in attribute value.";
+		case END_OF_INPUT:
+			return "Unexpected end of input, looking for: " + (char) expected;
+		case NAME_TOO_LONG:
+			return "Name is longer than " + expected + " characters";
+		case TOO_MANY_ATTRIBUTES:
+			return "More than " + expected + " attributes";
+		case TOKEN_TOO_LONG:
+			return "Token is longer than " + expected + " characters";
+		default:
+			return "Error " + code;
+		}
+	}
+
+	/**
+	 * There is no stack trace, the line and offset say where the error is.
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the tokenisers it is passed to are doing: how many characters
+ * they read, the tokens of each type they return, how big their dataBuffers
+ * get, how far they move back, how much they search for the end of comments,
+ * CDATA and PIs, and how many errors they find.
+ * 
+ * <P>
+ * A HxmlStatistics can be given to one tokeniser, or shared by any number of
+ * them, on different threads. The counts are kept in LongAdders, so
+ * tokenisers on different threads do not contend for them. The counts can be
+ * read at any time, with register(String) through JMX, or by calling the
+ * getters.
+ * </P>
+ * 
+ * <PRE>
+ * HxmlStatistics statistics = new HxmlStatistics();
+ * statistics.register("parser");
+ * tokeniser.setMetrics(statistics);
+ * </PRE>
+ */
+public class HxmlStatistics implements HxmlMetrics, HxmlStatisticsMXBean {
+	/**
+	 * Enough for all the token types, which are used as the index.
+	 */
+	private static final int TYPES = HxmlTokeniser.TEXT + 1;
+
+	private final LongAdder charactersRead = new LongAdder();
+	private final LongAdder[] tokens = new LongAdder[TYPES];
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder charactersSearched = new LongAdder();
+	private final LongAccumulator maxTokenLength = new LongAccumulator(
+			Math::max, 0);
+	private final LongAccumulator maxDataBufferSize = new LongAccumulator(
+			Math::max, 0);
+	private final LongAccumulator maxUnread = new LongAccumulator(Math::max,
+			0);
+	private final LongAccumulator maxSearchLength = new LongAccumulator(
+			Math::max, 0);
+	private volatile long startTime = System.nanoTime();
+
+	public HxmlStatistics() {
+		for (int i = 0; i < TYPES; i++) {
+			tokens[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Make the statistics available through the platform MBeanServer, as
+	 * com.pellcorp.xml.parser:type=HxmlStatistics,name=name.
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName(
+				"com.pellcorp.xml.parser:type=HxmlStatistics,name="
+						+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		return objectName;
+	}
+
+	public void charactersRead(int count) {
+		charactersRead.add(count);
+	}
+
+	public void token(int type, int length) {
+		tokens[type].increment();
+		maxTokenLength.accumulate(length);
+	}
+
+	public void dataBufferGrown(int capacity) {
+		maxDataBufferSize.accumulate(capacity);
+	}
+
+	public void unread(int distance) {
+		maxUnread.accumulate(distance);
+	}
+
+	public void searched(int type, int length) {
+		charactersSearched.add(length);
+		maxSearchLength.accumulate(length);
+	}
+
+	public void error(IOException e) {
+		errors.increment();
+	}
+
+	public long getCharactersRead() {
+		return charactersRead.sum();
+	}
+
+	public double getCharactersPerSecond() {
+		long elapsed = System.nanoTime() - startTime;
+		return elapsed > 0 ? charactersRead.sum() * 1e9 / elapsed : 0;
+	}
+
+	public long getTokenCount() {
+		long count = 0;
+		for (LongAdder adder : tokens) {
+			count += adder.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * Number of tokens of type.
+	 */
+	public long getTokenCount(int type) {
+		return type >= 0 && type < TYPES ? tokens[type].sum() : 0;
+	}
+
+	public Map<String, Long> getTokensByType() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (int type = 0; type < TYPES; type++) {
+			long count = tokens[type].sum();
+			if (count > 0) {
+				counts.put(HxmlTokeniser.typeAsString(type), count);
+			}
+		}
+		return counts;
+	}
+
+	public long getErrorCount() {
+		return errors.sum();
+	}
+
+	public long getMaxTokenLength() {
+		return maxTokenLength.get();
+	}
+
+	public long getMaxDataBufferSize() {
+		return maxDataBufferSize.get();
+	}
+
+	public long getMaxUnread() {
+		return maxUnread.get();
+	}
+
+	public long getCharactersSearched() {
+		return charactersSearched.sum();
+	}
+
+	public long getMaxSearchLength() {
+		return maxSearchLength.get();
+	}
+
+	/**
+	 * Counts that change while this is running may or may not be reset.
+	 */
+	public void reset() {
+		charactersRead.reset();
+		for (LongAdder adder : tokens) {
+			adder.reset();
+		}
+		errors.reset();
+		charactersSearched.reset();
+		maxTokenLength.reset();
+		maxDataBufferSize.reset();
+		maxUnread.reset();
+		maxSearchLength.reset();
+		startTime = System.nanoTime();
+	}
+}
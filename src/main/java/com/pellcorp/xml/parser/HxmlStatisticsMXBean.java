@@ -0,0 +1,78 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.util.Map;
+
+/**
+ * What HxmlStatistics makes available through JMX.
+ */
+public interface HxmlStatisticsMXBean {
+	long getCharactersRead();
+
+	/**
+	 * Characters read per second, since the statistics were created or
+	 * reset.
+	 */
+	double getCharactersPerSecond();
+
+	long getTokenCount();
+
+	/**
+	 * Number of tokens of each type, by the name from
+	 * HxmlTokeniser.getTypeAsString().
+	 */
+	Map<String, Long> getTokensByType();
+
+	/**
+	 * Number of IOExceptions thrown for input that was not what was expected.
+	 */
+	long getErrorCount();
+
+	/**
+	 * The most characters of text and token there have been in a dataBuffer.
+	 */
+	long getMaxTokenLength();
+
+	/**
+	 * The biggest a dataBuffer has grown to.
+	 */
+	long getMaxDataBufferSize();
+
+	/**
+	 * The furthest a tokeniser has moved back from the furthest it had read.
+	 */
+	long getMaxUnread();
+
+	/**
+	 * Characters searched for the end of a COMMENT, CDATA or PI.
+	 */
+	long getCharactersSearched();
+
+	/**
+	 * The most characters searched for the end of one COMMENT, CDATA or PI.
+	 */
+	long getMaxSearchLength();
+
+	/**
+	 * Start counting again from zero.
+	 */
+	void reset();
+}
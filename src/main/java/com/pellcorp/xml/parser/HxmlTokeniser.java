@@ -20,11 +20,21 @@
 package com.pellcorp.xml.parser;
 
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterators;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A StringTokenizer like, XML/HTML parser.
@@ -65,6 +75,54 @@ import java.util.List;
  * parser should look for Program Instructions or CDATA sections. Nothing will
  * be be returned from inside the instructions.</p>
  *
+ * @version 0.33 Added setErrorSink(HxmlErrorSink), to recover from malformed
+ *          markup. Errors are thrown as a HxmlParseException, with no stack
+ *          trace, that is only created once.
+ * @version 0.32 Added getTokenStartOffset(), getTokenEndOffset(),
+ *          getStartLine(), getStartColumn() and where each attribute is in the
+ *          input, counting "\r\n" as 2 characters, and
+ *          getNormalisedOffset(long).
+ * @version 0.31 Added setReturnText(boolean), so text is returned as TEXT
+ *          tokens, including the text after the last token.
+ * @version 0.30 Added setLimits(HxmlLimits), setChunkSize(int) and
+ *          HxmlChunkHandler, so text and content are passed to a handler in
+ *          pieces, rather than all being held in the dataBuffer.
+ * @version 0.29 Added setMetrics(HxmlMetrics), and HxmlStatistics.
+ * @version 0.28 The offsets of each token in the input are kept, so
+ *          TokenIndex can record them.
+ * @version 0.27 Added compile() and reset(CompiledDocument), so the tokens of
+ *          a document can be recorded once and replayed, and TemplateCache.
+ * @version 0.26 Names and whitespace are checked with a table of the ASCII
+ *          characters, and setCharClassifier(...) chooses the rules.
+ * @version 0.25 Added setEntityMode(int), so entities can be returned as
+ *          ENTITY tokens, or decoded in text and attribute values as they are
+ *          read, using a trie of the HTML5 named character references.
+ * @version 0.24 Comments, CDATA and PIs are searched for their terminator a
+ *          block at a time, and a partial match such as the '-' in
+ *          &lt;!-- a-b --&gt; is no longer left out of the content.
+ * @version 0.23 Added setTags(...), so only the tags that are needed are
+ *          returned, and the rest are treated as text.
+ * @version 0.22 Added getAttribute(String), getAttribute(int),
+ *          getAttributeIgnoreCase(String) and getAttributeIndex(String),
+ *          which use a hash table of the attribute names.
+ * @version 0.21 Added getAttributeCount(), getAttributeName(int),
+ *          getAttributeValue(int) and getAttributeValueRange(int).
+ * @version 0.20 Added reset(Reader) and reset(CharSequence), so a tokeniser
+ *          and its buffers can be reused, and HxmlTokeniserPool.
+ * @version 0.19 Added feed(...), endOfInput() and next(), so input can be
+ *          pushed in as it arrives, rather than read from a Reader.
+ * @version 0.18 Added tokenise(HxmlHandler), and attributes are only created
+ *          when getAttributes() is called.
+ * @version 0.17 Added tokens(), tokenTypes() and iterator(), and a constructor
+ *          for in memory input, which can be tokenised in parallel.
+ * @version 0.16 Added getToken(), and ParallelHxmlTokeniser.
+ * @version 0.15 Tag and attribute names come from a SymbolTable, which can be
+ *          shared between tokenisers, and getTokenNameId() was added.
+ * @version 0.14 The dataBuffer is now a plain char[], and the text, content and
+ *          name of a token can be read as CharRange views over it, without
+ *          creating a String. The token name is only created on request.
+ * @version 0.13 Replaced the LineNumberReader and pushback array with a block
+ *          buffered input window, which does its own line counting.
  * @version 0.12 Mavenised and removal of function support
  * @version 0.11 Updated parseFunction to include ( and ) even if function name
  *          is valid. Also added methods to set ignoreComments, ignoreCDAta,
@@ -118,6 +176,109 @@ public class HxmlTokeniser {
 	 */
 	public static final int COMMENT = 8;
 
+	/**
+	 * Text, only returned when setReturnText(true) has been called.
+	 */
+	public static final int TEXT = 9;
+
+	/**
+	 * Returned by next() when the end of input has been reached.
+	 */
+	public static final int END_OF_INPUT = -1;
+
+	/**
+	 * Returned by next() when all the input fed in so far has been used, and
+	 * there is no complete token.
+	 */
+	public static final int NEED_MORE_INPUT = -2;
+
+	/**
+	 * Entities are left as they are in text and attribute values, the
+	 * default.
+	 */
+	public static final int KEEP_ENTITIES = 0;
+
+	/**
+	 * Entities in text are returned as ENTITY tokens, and the ones in
+	 * attribute values are decoded.
+	 */
+	public static final int RETURN_ENTITIES = 1;
+
+	/**
+	 * Entities are decoded in text and attribute values.
+	 */
+	public static final int DECODE_ENTITIES = 2;
+
+	/**
+	 * Size of the pieces passed to a HxmlChunkHandler, if none is set.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+	/**
+	 * Size of the input window, if none is specified in the constructor.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 32768;
+
+	/**
+	 * The number of characters before the current position that are kept when
+	 * the input window is refilled, so we can always move back at least this
+	 * far. Needs to be longer than any pattern we look for in parseUntil.
+	 */
+	private static final int MAX_UNREAD = 16;
+
+	/**
+	 * The characters that end an unquoted attribute value.
+	 */
+	private static final int VALUE_END = CharClassifier.WHITESPACE
+			| CharClassifier.DELIMITER;
+
+	/**
+	 * Initial size of the dataBuffer, it grows as required.
+	 */
+	private static final int INITIAL_DATA_SIZE = 256;
+
+	/**
+	 * Initial size of the input window when input is fed in, it grows as
+	 * required.
+	 */
+	private static final int INITIAL_FEED_SIZE = 1024;
+
+	/**
+	 * Initial number of attributes there is room for, it grows as required.
+	 */
+	private static final int INITIAL_ATTRIBUTES = 8;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Thrown by fill() when all the input fed in has been read. Each tokeniser
+	 * has one, without a stack trace, as it is thrown every time input runs
+	 * out. It is always caught by next() or nextToken(), so is never seen by
+	 * callers, who get a new one from nextToken() instead.
+	 */
+	private static final class NeedMoreInputException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		NeedMoreInputException() {
+			super("More input is needed, use next() rather than nextToken() when input is fed in");
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	/**
+	 * Create a tokeniser that input is pushed into with feed(...), rather than
+	 * read from a Reader.
+	 * 
+	 * @see #next()
+	 */
+	public HxmlTokeniser() {
+		this(null, null, INITIAL_FEED_SIZE);
+	}
+
 	/**
 	 * @param tags
 	 *            Specify any tag names that are recognised.
@@ -129,11 +290,196 @@ public class HxmlTokeniser {
 	 *            tags, entities and functions are all case insensitive.
 	 */
 	public HxmlTokeniser(Reader reader) {
-		dataBuffer = new StringBuilder();
-		
-		// Only supports 10 character readback. Need to increase if
-		// we have any big patterns to look for in parseUntil.
-		this.reader = new LineNumberReader(reader);
+		this(reader, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param reader
+	 *            The input, which is read in blocks of up to bufferSize
+	 *            characters, so there is no need to wrap it in a
+	 *            BufferedReader.
+	 * @param bufferSize
+	 *            Size of the input window in characters.
+	 */
+	public HxmlTokeniser(Reader reader, int bufferSize) {
+		this(reader, null, bufferSize);
+	}
+
+	/**
+	 * Tokenise input that is already in memory. A parallel stream from
+	 * tokens() or tokenTypes() can split the input between threads.
+	 */
+	public HxmlTokeniser(CharSequence input) {
+		this(new CharSequenceReader(input), input, DEFAULT_BUFFER_SIZE);
+		charSequenceReader = (CharSequenceReader) reader;
+	}
+
+	/**
+	 * Replay the tokens of a document, see reset(CompiledDocument).
+	 */
+	public HxmlTokeniser(CompiledDocument document) {
+		this(null, null, INITIAL_FEED_SIZE);
+		reset(document);
+	}
+
+	private HxmlTokeniser(Reader reader, CharSequence input, int bufferSize) {
+		if (bufferSize <= MAX_UNREAD) {
+			throw new IllegalArgumentException("Buffer size must be greater than "
+					+ MAX_UNREAD + ": " + bufferSize);
+		}
+		dataBuffer = new char[INITIAL_DATA_SIZE];
+		this.reader = reader;
+		this.input = input;
+		this.window = new char[bufferSize];
+	}
+
+	/**
+	 * Start again with a new reader, keeping the buffers, SymbolTable and
+	 * settings, so there is next to nothing to allocate for each document.
+	 */
+	public void reset(Reader reader) {
+		if (reader == null) {
+			throw new IllegalArgumentException("reader must not be null");
+		}
+		this.reader = reader;
+		this.input = null;
+		resetInput();
+	}
+
+	/**
+	 * Start again with input that is in memory, see reset(Reader).
+	 */
+	public void reset(CharSequence input) {
+		if (charSequenceReader == null) {
+			charSequenceReader = new CharSequenceReader(input);
+		} else {
+			charSequenceReader.reset(input, 0, input.length());
+		}
+		this.reader = charSequenceReader;
+		this.input = input;
+		resetInput();
+	}
+
+	/**
+	 * Start again, returning the tokens recorded in document by compile(),
+	 * rather than tokenising any input. Everything about each token is the
+	 * same as when it was recorded, including its line number, and if
+	 * compile() stopped at an IOException, it is thrown again after the last
+	 * token. The settings of the tokeniser that compiled the document are the
+	 * ones that count, not the settings of this one.
+	 */
+	public void reset(CompiledDocument document) {
+		if (document == null) {
+			throw new IllegalArgumentException("document must not be null");
+		}
+		this.reader = null;
+		this.input = null;
+		resetInput();
+		this.document = document;
+	}
+
+	/**
+	 * Tokenise the rest of the input, and return the tokens, so they can be
+	 * replayed with reset(CompiledDocument) as often as needed. An
+	 * IOException is recorded in the document, rather than thrown, unless the
+	 * input is being fed in, when all of it must have been fed in first.
+	 */
+	public CompiledDocument compile() throws IOException {
+		CompiledDocument.Recorder recorder = new CompiledDocument.Recorder(
+				symbolTable);
+		IOException error = null;
+		try {
+			while (nextToken()) {
+				recorder.addToken(tokenType, dataBuffer, dataLength,
+						endOfTextIndex, tokenNameStart, tokenNameEnd,
+						getTokenNameId(), getLineNumber(), entityValue,
+						tokenType == ENTITY ? entityValueLength : 0);
+				recorder.setLocation(getTextStartOffset(),
+						getTokenStartOffset(), getTokenEndOffset(),
+						tokenStartLine, tokenStartColumn);
+				for (int i = 0; i < attributeCount; i++) {
+					int k = i * 4;
+					recorder.addAttribute(attributeOffsets[k],
+							attributeOffsets[k + 1], attributeOffsets[k + 2],
+							attributeOffsets[k + 3], attributes.getNameId(i));
+					recorder.setAttributeLocation(getAttributeOffset(i),
+							getAttributeValueOffset(i),
+							getAttributeValueEndOffset(i),
+							getAttributeValueLine(i),
+							getAttributeValueColumn(i));
+				}
+			}
+		} catch (NeedMoreInputException e) {
+			throw e;
+		} catch (IOException e) {
+			error = e;
+		}
+		return recorder.build(getLineNumber(), error);
+	}
+
+	/**
+	 * Used by HxmlTokeniserPool, so a tokeniser that is not in use does not
+	 * hold on to its input, or to buffers that have grown bigger than
+	 * maxSize.
+	 */
+	void release(int maxSize) {
+		if (charSequenceReader != null) {
+			charSequenceReader.reset("", 0, 0);
+		}
+		// Until the next reset(...), the reader does not matter.
+		this.reader = charSequenceReader;
+		this.input = null;
+		resetInput();
+
+		if (window.length > maxSize) {
+			window = new char[Math.min(maxSize, DEFAULT_BUFFER_SIZE)];
+		}
+		if (dataBuffer.length > maxSize) {
+			dataBuffer = new char[INITIAL_DATA_SIZE];
+		}
+		if (attributeOffsets.length > maxSize) {
+			attributeOffsets = new int[INITIAL_ATTRIBUTES * 4];
+			attributeLocations = new long[INITIAL_ATTRIBUTES * 5];
+			attributeList.trimToSize();
+		}
+		attributeIndex.trim(maxSize);
+		ignoreCaseAttributeIndex.trim(maxSize);
+	}
+
+	/**
+	 * Forget everything about the previous input.
+	 */
+	private void resetInput() {
+		reset();
+		windowStart = 0;
+		textStartOffset = 0;
+		tokenStartOffset = 0;
+		tokenEndOffset = 0;
+		textStartLine = 1;
+		textStartColumn = 1;
+		tokenStartLine = 1;
+		tokenStartColumn = 1;
+		locatedLines = 0;
+		locatedLineStart = 0;
+		locateIndex = 0;
+		position = 0;
+		limit = 0;
+		readAhead = 0;
+		eof = false;
+		skipLF = false;
+		droppedStart = 0;
+		droppedEnd = 0;
+		droppedBefore = 0;
+		lineNumber = 0;
+		lineScanIndex = 0;
+		lastErrorOffset = -1;
+		markPosition = 0;
+		resuming = false;
+		decoder = null;
+		undecoded = null;
+		document = null;
+		replayIndex = 0;
+		replayLineNumber = 0;
 	}
 
 	/**
@@ -147,19 +493,30 @@ public class HxmlTokeniser {
 	 * Debug method.
 	 */
 	public String getTypeAsString() {
-		switch (getTokenType()) {
+		return typeAsString(getTokenType());
+	}
+
+	/**
+	 * Shared with HxmlByteTokeniser.
+	 */
+	static String typeAsString(int type) {
+		switch (type) {
 		case START_TAG:
 			return "START_TAG";
 		case END_TAG:
 			return "END_TAG";
 		case EMPTY_TAG:
 			return "EMPTY_TAG";
+		case ENTITY:
+			return "ENTITY";
 		case CDATA:
 			return "CDATA";
 		case PI:
 			return "PI";
 		case COMMENT:
 			return "COMMENT";
+		case TEXT:
+			return "TEXT";
 		default:
 			return "Not Defined";
 		}
@@ -170,266 +527,1751 @@ public class HxmlTokeniser {
 	 * 
 	 * If tokenType == START_TAG, END_TAG or EMPTY_TAG, the tokenName, will be
 	 * the tag name. If tokenType == ENTITY, the tokenName will be the actual
-	 * entity. If tokenType == FUNCTION, the tokenName will be the function name
-	 * (minus arguments) If tokenType == PI, the tokenName is the Application.
+	 * entity, without the &amp; and ;, such as "amp" or "#x20AC". If
+	 * tokenType == PI, the tokenName is the Application.
 	 * Otherwise it will be null.
 	 */
 	public String getTokenName() {
+		if (tokenName == null && tokenNameStart != -1) {
+			if (isReplayingIds() && replayTokenNameId != SymbolTable.NO_ID) {
+				tokenName = symbolTable.getName(replayTokenNameId);
+			} else {
+				tokenName = getName(tokenNameStart, tokenNameEnd);
+			}
+		}
 		return tokenName;
 	}
 
 	/**
-	 * Will return attributes if getTokenType()==START_TAG or EMPTY_TAG,
-	 * otherwise return null. The Enumeration may be empty.
+	 * Returns the SymbolTable id of the token name, so callers can switch on
+	 * ints, rather than comparing Strings. Returns SymbolTable.NO_ID if there
+	 * is no token name, no SymbolTable, or the SymbolTable is full.
+	 * 
+	 * @see SymbolTable#add(String)
 	 */
-	public List<Attribute> getAttributes() {
-		if (tokenType == START_TAG || tokenType == EMPTY_TAG) {
-			return Collections.unmodifiableList(attributeList);
+	public int getTokenNameId() {
+		if (isReplayingIds()) {
+			return replayTokenNameId;
+		} else if (tokenNameStart != -1 && symbolTable != null) {
+			return symbolTable.getId(dataBuffer, tokenNameStart, tokenNameEnd
+					- tokenNameStart);
 		} else {
-			return Collections.EMPTY_LIST;
+			return SymbolTable.NO_ID;
 		}
 	}
 
 	/**
-	 * If a parse exception occurs.
-	 * 
-	 * @exception IOException
-	 *                Bubbles up from unread(...), read(...) or readInt(...).
+	 * The table tag and attribute names are looked up in. By default each
+	 * tokeniser has its own.
 	 */
-	public boolean nextToken() throws IOException {
-		// reset all variables for nextToken.
-		reset();
-
-		// Go with a int at the top level, so we can test for -1.
-		int i;
-		char c;
-		while (true) {
-			i = readInt();
-
-			// Store end of text, in case this is it...
-			endOfTextIndex = getIndex();
-
-			switch (i) {
-			case '<':
-				append('<');
-
-				c = read();
-				switch (c) {
-				case '!': // Comment or CDATA...
-					append('!');
-					c = read();
-					switch (c) {
-					case '-':
-						require('-');
-						append("--");
-						parseComment();
-						break;
-					case '[':
-						require("CDATA[");
-						append("[CDATA[");
-						parseCData();
-						break;
-					default:
-						// Unread the last character.
-						unread(c);
-						// Nothing, continue as before.
-						endOfTextIndex = -1;
-					}
-					break; // case '!'
-				case '?': // Processing Instructions
-					append('?');
-					parsePI();
-					break;
-				case '/': // End Tag.
-					append('/');
-					parseEndTag();
-					break;
-				default: // Normal Element.
-					unread(c);
-					parseStartTag();
-					break;
-				}
-				break; // case '<'
-
-			case -1: // End Of File
-				return false;
-
-			default: // Normal text.
-				append((char) i);
-				// Set it back now.
-				endOfTextIndex = -1;
-
-			} // End of outer switch.
-
-			// If !=-1, this indicates that we have parsed a token correctly.
-			if (endOfTextIndex != -1) {
-				return true;
-			}
-		}
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
 	}
 
 	/**
-	 * Get the text of the last token encountered.
-	 * 
-	 * May not return the complete contents of START_TAG, EMPTY_TAG, END_TAG,
-	 * ENTITY or FUNCTION. Really only designed for use by COMMENT, CDATA and
-	 * PI.
+	 * Set the table to look up tag and attribute names in. A SymbolTable can be
+	 * shared between tokenisers, on different threads. If null, a new String
+	 * is created for every name.
 	 */
-	public String getTokenContent() {
-		if (endOfTextIndex != -1 && dataBuffer.length() > 0) {
-			return getString(endOfTextIndex, dataBuffer.length());
-		} else {
-			return null;
-		}
+	public void setSymbolTable(SymbolTable symbolTable) {
+		this.symbolTable = symbolTable;
+		attributeIdCount = 0;
 	}
 
 	/**
-	 * Will return null, if no text available.
+	 * Same as getTokenName(), but returns a view over the internal buffer
+	 * rather than creating a String. The view is only valid until the next
+	 * call to nextToken().
 	 */
-	public String getText() {
-		if (endOfTextIndex != -1 && dataBuffer.length() > 0) {
-			return getString(0, endOfTextIndex);
+	public CharRange getTokenNameRange() {
+		if (tokenNameStart != -1) {
+			return nameRange.set(dataBuffer, tokenNameStart, tokenNameEnd
+					- tokenNameStart);
 		} else {
 			return null;
 		}
 	}
 
 	/**
-	 * Returns the current line number. The line number returned from the
-	 * reader, is actually increased by 1 (one) before return, to take into
-	 * account the first line, which is not counted until its end.
+	 * Number of attributes of the last START_TAG or EMPTY_TAG, 0 for any other
+	 * token. Attributes are only stored as offsets into the dataBuffer, so
+	 * getting them by index does not create an Attribute for each one.
 	 */
-	public int getLineNumber() {
-		if (reader != null) {
-			return reader.getLineNumber() + 1;
-		} else {
-			return -1;
-		}
+	public int getAttributeCount() {
+		return attributeCount;
 	}
 
 	/**
-	 * Ignore CDATA
+	 * Name of the attribute at index, from the SymbolTable if there is one.
+	 * 
+	 * @exception IndexOutOfBoundsException
+	 *                If index is not less than getAttributeCount().
 	 */
-	public boolean isIgnoreCData() {
-		return ignoreCData;
+	public String getAttributeName(int index) {
+		return attributes.getName(index);
 	}
 
 	/**
-	 * Ignore Programming Instructions
+	 * Value of the attribute at index.
+	 * 
+	 * @exception IndexOutOfBoundsException
+	 *                If index is not less than getAttributeCount().
 	 */
-	public boolean isIgnorePI() {
-		return ignorePI;
+	public String getAttributeValue(int index) {
+		return attributes.getValue(index);
 	}
 
 	/**
-	 * Ignore comments
+	 * Same as getAttributeValue(int), but returns a view over the internal
+	 * buffer rather than creating a String. The view is only valid until the
+	 * next call to nextToken().
 	 */
-	public boolean isIgnoreComments() {
-		return ignoreComments;
+	public CharRange getAttributeValueRange(int index) {
+		return valueRange.set(dataBuffer, attributes.getValueOffset(index),
+				attributes.getValueLength(index));
 	}
 
 	/**
-	 * Set ignoreComments indicator
+	 * Offset in the input of the name of the attribute at index, see
+	 * getTokenStartOffset().
+	 * 
+	 * @exception IndexOutOfBoundsException
+	 *                If index is not less than getAttributeCount().
 	 */
-	public void ignoreComments(boolean b) {
-		this.ignoreComments = b;
+	public long getAttributeOffset(int index) {
+		return toInputOffset(attributeLocations[checkAttribute(index)]);
 	}
 
 	/**
-	 * Set ignoreCData indicator
+	 * Offset in the input of the value of the attribute at index, after any
+	 * quote. The value in the input may differ from getAttributeValue(index),
+	 * if it has any entities in it.
 	 */
-	public void ignoreCData(boolean b) {
-		this.ignoreCData = b;
+	public long getAttributeValueOffset(int index) {
+		return toInputOffset(attributeLocations[checkAttribute(index) + 1]);
 	}
 
 	/**
-	 * Set ignorePI indicator
+	 * Offset in the input just after the value of the attribute at index,
+	 * before any quote.
 	 */
-	public void ignorePI(boolean b) {
-		this.ignorePI = b;
-	}
-
-	private void unread(int c) throws IOException {
-		if (pos == 0) {
-			throw new IOException("Pushback buffer overflow");
-		}
-		buf[--pos] = (char) c;
+	public long getAttributeValueEndOffset(int index) {
+		return toInputOffset(attributeLocations[checkAttribute(index) + 2]);
 	}
 
 	/**
-	 * Unread from c length characters back into buffer.
+	 * Line the value of the attribute at index starts on.
 	 */
-	private void unread(char cbuf[], int len) throws IOException {
-		// Because the position is subtracted when a character
-		// is added to buffer
-		if (len > pos) {
-			throw new IOException("Pushback buffer overflow");
-		}
-		pos -= len;
-		System.arraycopy(cbuf, 0, buf, pos, len);
+	public int getAttributeValueLine(int index) {
+		return (int) attributeLocations[checkAttribute(index) + 3];
 	}
 
-	private char read() throws IOException {
-		return (char) readInt();
+	/**
+	 * Column the value of the attribute at index starts at.
+	 */
+	public int getAttributeValueColumn(int index) {
+		return (int) attributeLocations[checkAttribute(index) + 4];
 	}
 
-	private int readInt() throws IOException {
-		if (pos < buf.length) {
-			return buf[pos++];
-		} else {
-			return reader.read();
+	/**
+	 * Returns where the locations of the attribute at index start.
+	 */
+	private int checkAttribute(int index) {
+		if (index < 0 || index >= attributeCount) {
+			throw new IndexOutOfBoundsException("Attribute: " + index);
 		}
+		return index * 5;
 	}
 
-	private void append(char c) {
-		dataBuffer.append(c);
+	/**
+	 * Returns the index of the first attribute called name, or -1 if there is
+	 * none.
+	 */
+	public int getAttributeIndex(String name) {
+		return attributeIndex.find(dataBuffer, attributeOffsets, name);
 	}
 
-	private void append(String s) {
-		dataBuffer.append(s);
+	/**
+	 * Returns the value of the first attribute called name, or null if there
+	 * is none.
+	 */
+	public String getAttribute(String name) {
+		int index = getAttributeIndex(name);
+		return index != -1 ? getAttributeValue(index) : null;
 	}
 
 	/**
-	 * Skip whitespace characters in input.
+	 * Same as getAttribute(String), for the name with the given SymbolTable
+	 * id.
 	 */
-	private void skipWhitespace() throws IOException {
-		char c;
-		while (Character.isWhitespace((c = read()))) {
-			// do nothing
+	public String getAttribute(int symbolId) {
+		if (symbolTable == null || symbolId == SymbolTable.NO_ID) {
+			return null;
+		}
+		for (int i = 0; i < attributeCount; i++) {
+			if (attributes.getNameId(i) == symbolId) {
+				return getAttributeValue(i);
+			}
 		}
-		unread(c);
+		return null;
 	}
 
 	/**
-	 * Parse any whitespace and add to the buffer.
+	 * Same as getAttribute(String), but the name is compared the same way as
+	 * String.equalsIgnoreCase, which is how HTML attribute names are compared.
 	 */
-	private void parseWhitespace() throws IOException {
-		char c;
-		while (Character.isWhitespace((c = read()))) {
-			append(c);
+	public String getAttributeIgnoreCase(String name) {
+		// Only built if needed.
+		while (ignoreCaseAttributeIndex.size() < attributeCount) {
+			ignoreCaseAttributeIndex.add(dataBuffer, attributeOffsets);
 		}
-		unread(c);
+		int index = ignoreCaseAttributeIndex.find(dataBuffer,
+				attributeOffsets, name);
+		return index != -1 ? getAttributeValue(index) : null;
 	}
 
 	/**
-	 * The next character in the input, must be c.
+	 * Will return attributes if getTokenType()==START_TAG or EMPTY_TAG,
+	 * otherwise return null. The Enumeration may be empty. The Attributes are
+	 * only created the first time this is called for a token.
 	 */
-	private void require(char required) throws IOException {
-		char c = read();
+	public List<Attribute> getAttributes() {
+		if (tokenType == START_TAG || tokenType == EMPTY_TAG) {
+			for (int i = attributeList.size(); i < attributeCount; i++) {
+				attributeList.add(new Attribute(attributes.getName(i),
+						attributes.getValue(i)));
+			}
+			return unmodifiableAttributeList;
+		} else {
+			return Collections.EMPTY_LIST;
+		}
+	}
+
+	/**
+	 * Returns the last token found with nextToken as an immutable Token, which
+	 * stays valid after the next call to nextToken.
+	 */
+	public Token getToken() {
+		return new Token(tokenType, getTokenName(), getAttributes(), getText(),
+				getTokenContent(), getLineNumber());
+	}
+
+	/**
+	 * Returns the remaining tokens as a Stream of immutable Tokens. Any
+	 * IOException is rethrown as an UncheckedIOException. Once the stream is
+	 * in use, nextToken() should not be called directly.
+	 * 
+	 * <P>
+	 * If this tokeniser was created with a CharSequence, and nothing has been
+	 * read yet, a parallel stream tokenises the input with a
+	 * ParallelHxmlTokeniser on the common pool, and then splits the tokens.
+	 * </P>
+	 */
+	public Stream<Token> tokens() {
+		return StreamSupport.stream(new TokenSpliterator(this), false);
+	}
+
+	/**
+	 * Same as tokens(), but only returns the type of each token, so no Token
+	 * is created unless the stream is split.
+	 */
+	public IntStream tokenTypes() {
+		return StreamSupport.intStream(new TokenTypeSpliterator(this), false);
+	}
+
+	/**
+	 * Returns the remaining tokens, the same as tokens() does.
+	 */
+	public Iterator<Token> iterator() {
+		return Spliterators.iterator(new TokenSpliterator(this));
+	}
+
+	/**
+	 * Tokenise everything from reader, see tokenise(HxmlHandler).
+	 */
+	public static void tokenise(Reader reader, HxmlHandler handler)
+			throws IOException {
+		new HxmlTokeniser(reader).tokenise(handler);
+	}
+
+	/**
+	 * Pass the remaining tokens to handler, rather than returning them one at
+	 * a time from nextToken(). No Strings are created unless the handler asks
+	 * for them. With RETURN_ENTITIES, the value of each entity is passed to
+	 * text(...).
+	 * 
+	 * <P>
+	 * If handler is a HxmlChunkHandler, text and the content of comments,
+	 * CDATA and PIs are passed to it in pieces of at most getChunkSize()
+	 * characters, as soon as each piece has been read.
+	 * </P>
+	 */
+	public void tokenise(HxmlHandler handler) throws IOException {
+		chunkHandler = handler instanceof HxmlChunkHandler ? (HxmlChunkHandler) handler
+				: null;
+		try {
+			while (nextToken()) {
+				if (chunkHandler != null) {
+					if (tokenType != TEXT && (endOfTextIndex > 0 || textChunked)) {
+						passChunks(TEXT, 0, endOfTextIndex, true);
+					}
+				} else if (endOfTextIndex > 0) {
+					handler.text(dataBuffer, 0, endOfTextIndex);
+				}
+
+				int nameLength = tokenNameEnd - tokenNameStart;
+				switch (tokenType) {
+				case START_TAG:
+					if (!handler.startTag(dataBuffer, tokenNameStart,
+							nameLength, attributes)) {
+						skipElement();
+					}
+					break;
+				case EMPTY_TAG:
+					handler.emptyTag(dataBuffer, tokenNameStart, nameLength,
+							attributes);
+					break;
+				case END_TAG:
+					handler.endTag(dataBuffer, tokenNameStart, nameLength);
+					break;
+				case TEXT:
+					if (chunkHandler != null) {
+						passChunks(TEXT, 0, dataLength, true);
+					} else {
+						handler.text(dataBuffer, 0, dataLength);
+					}
+					break;
+				case ENTITY:
+					if (chunkHandler != null) {
+						chunkHandler.textChunk(entityValue, 0,
+								entityValueLength, true);
+					} else {
+						handler.text(entityValue, 0, entityValueLength);
+					}
+					break;
+				case COMMENT:
+					// Leave out the <!-- and -->
+					passContent(handler, COMMENT, endOfTextIndex + 4,
+							dataLength - endOfTextIndex - 7);
+					break;
+				case CDATA:
+					// Leave out the <![CDATA[ and ]]>
+					passContent(handler, CDATA, endOfTextIndex + 9,
+							dataLength - endOfTextIndex - 12);
+					break;
+				case PI:
+					// The data starts after the target and one space, and
+					// ends before the ?>, unless there is none.
+					if (dataLength > tokenNameEnd) {
+						passContent(handler, PI, tokenNameEnd + 1, dataLength
+								- tokenNameEnd - 3);
+					} else {
+						passContent(handler, PI, tokenNameEnd, 0);
+					}
+					break;
+				}
+			}
+
+			// The text after the last token.
+			if (chunkHandler != null) {
+				if (dataLength > 0 || textChunked) {
+					passChunks(TEXT, 0, dataLength, true);
+				}
+			} else if (dataLength > 0) {
+				handler.text(dataBuffer, 0, dataLength);
+			}
+		} finally {
+			chunkHandler = null;
+		}
+	}
+
+	/**
+	 * Pass the content of a COMMENT, CDATA or PI to handler.
+	 */
+	private void passContent(HxmlHandler handler, int type, int off, int len)
+			throws IOException {
+		if (chunkHandler != null) {
+			passChunks(type, off, len, true);
+			return;
+		}
+		switch (type) {
+		case COMMENT:
+			handler.comment(dataBuffer, off, len);
+			break;
+		case CDATA:
+			handler.cdata(dataBuffer, off, len);
+			break;
+		case PI:
+			handler.pi(dataBuffer, tokenNameStart, tokenNameEnd
+					- tokenNameStart, off, len);
+			break;
+		}
+	}
+
+	/**
+	 * Pass dataBuffer[off..off+len) to the chunkHandler, in pieces of at most
+	 * chunkSize, unless an element is being skipped.
+	 * 
+	 * @param type
+	 *            TEXT, COMMENT, CDATA or PI.
+	 * @param last
+	 *            Is the last piece the end of the text or content?
+	 */
+	private void passChunks(int type, int off, int len, boolean last)
+			throws IOException {
+		if (skipping) {
+			return;
+		}
+		do {
+			int n = Math.min(len, chunkSize);
+			boolean end = last && n == len;
+			switch (type) {
+			case COMMENT:
+				chunkHandler.commentChunk(dataBuffer, off, n, end);
+				break;
+			case CDATA:
+				chunkHandler.cdataChunk(dataBuffer, off, n, end);
+				break;
+			case PI:
+				chunkHandler.piChunk(dataBuffer, tokenNameStart, tokenNameEnd
+						- tokenNameStart, off, n, end);
+				break;
+			default:
+				chunkHandler.textChunk(dataBuffer, off, n, end);
+			}
+			off += n;
+			len -= n;
+		} while (len > 0);
+	}
+
+	/**
+	 * Pass on as many whole chunks of dataBuffer[start..dataLength) as there
+	 * are, and move the rest down to start, so the dataBuffer stays under
+	 * twice the chunk size, plus the size of a block of input.
+	 */
+	private void passFullChunks(int type, int start) throws IOException {
+		int length = dataLength - start;
+		int n = length - length % chunkSize;
+		if (n > 0) {
+			passChunks(type, start, n, false);
+		}
+		System.arraycopy(dataBuffer, start + n, dataBuffer, start, length - n);
+		dataLength -= n;
+	}
+
+	/**
+	 * Pass on the content read so far of the COMMENT, CDATA or PI being
+	 * parsed, which starts at start. The first time, the text before the
+	 * token is passed on, and the start of the token is moved to the start of
+	 * the dataBuffer.
+	 * 
+	 * @return Where the rest of the content starts now.
+	 */
+	private int passContent(int type, int start) throws IOException {
+		if (type == COMMENT && ignoreComments) {
+			// The comment is just more text.
+			passFullChunks(TEXT, 0);
+			textChunked = true;
+			return 0;
+		}
+		if (!contentChunked) {
+			if (endOfTextIndex > 0 || textChunked) {
+				passChunks(TEXT, 0, endOfTextIndex, true);
+			}
+			int shift = endOfTextIndex;
+			System.arraycopy(dataBuffer, shift, dataBuffer, 0, dataLength
+					- shift);
+			dataLength -= shift;
+			start -= shift;
+			endOfTextIndex = 0;
+			if (tokenNameStart != -1) {
+				tokenNameStart -= shift;
+				tokenNameEnd -= shift;
+			}
+			textChunked = false;
+			contentChunked = true;
+		}
+		passFullChunks(type, start);
+		return start;
+	}
+
+	/**
+	 * Skip everything up to and including the end tag that matches the start
+	 * tag just returned. The tags in it are read the same cheap way as those
+	 * left out by setTags(...). Only the name is read, and the rest up to the
+	 * first '&gt;' is not parsed, so attributes are not checked and a '&gt;'
+	 * in a quoted value ends the tag. Entities are not decoded.
+	 */
+	private void skipElement() throws IOException {
+		skipping = true;
+		try {
+			int depth = 1;
+			while (depth > 0 && nextToken()) {
+				if (tokenType == START_TAG) {
+					depth++;
+				} else if (tokenType == END_TAG) {
+					depth--;
+				}
+			}
+		} finally {
+			skipping = false;
+		}
+	}
+
+	/**
+	 * Add more input, when created with HxmlTokeniser(). The characters are
+	 * copied, so chunk can be reused as soon as this returns.
+	 */
+	public void feed(char[] chunk, int offset, int length) {
+		ensureFeedCapacity(length);
+		System.arraycopy(chunk, offset, window, limit, length);
+		limit = normaliseLineEndings(limit, limit + length);
+		metrics.charactersRead(length);
+	}
+
+	/**
+	 * Add all the remaining characters in chunk.
+	 */
+	public void feed(CharBuffer chunk) {
+		int length = chunk.remaining();
+		ensureFeedCapacity(length);
+		chunk.get(window, limit, length);
+		limit = normaliseLineEndings(limit, limit + length);
+		metrics.charactersRead(length);
+	}
+
+	/**
+	 * Add all the remaining bytes in chunk, which are decoded as UTF-8. A
+	 * character split between two chunks is decoded once the rest of it
+	 * arrives.
+	 */
+	public void feed(ByteBuffer chunk) {
+		// UTF-8 never decodes to more chars than bytes.
+		ensureFeedCapacity(chunk.remaining() + 4);
+		if (decoder == null) {
+			decoder = UTF8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			undecoded = ByteBuffer.allocate(4);
+		}
+
+		CharBuffer out = CharBuffer.wrap(window, limit, window.length - limit);
+		// Finish off any character left over from the last chunk first.
+		while (undecoded.position() > 0 && chunk.hasRemaining()) {
+			undecoded.put(chunk.get());
+			undecoded.flip();
+			decoder.decode(undecoded, out, false);
+			undecoded.compact();
+		}
+		decoder.decode(chunk, out, false);
+		// Anything left is the start of a character.
+		undecoded.put(chunk);
+		metrics.charactersRead(out.position() - limit);
+		limit = normaliseLineEndings(limit, out.position());
+	}
+
+	/**
+	 * No more input will be fed in, so next() can return the last tokens and
+	 * then END_OF_INPUT.
+	 */
+	public void endOfInput() {
+		checkFeeding();
+		if (decoder != null) {
+			ensureFeedCapacity(8);
+			CharBuffer out = CharBuffer.wrap(window, limit, window.length
+					- limit);
+			undecoded.flip();
+			decoder.decode(undecoded, out, true);
+			decoder.flush(out);
+			limit = normaliseLineEndings(limit, out.position());
+		}
+		eof = true;
+	}
+
+	/**
+	 * Same as nextToken(), except it returns the token type, or END_OF_INPUT.
+	 * 
+	 * <P>
+	 * When created with HxmlTokeniser(), it returns NEED_MORE_INPUT if the
+	 * input fed in so far runs out before the end of a token. Call it again
+	 * after feeding in more, and it carries on from where it got to. This can
+	 * be anywhere, such as in the middle of a tag name, attribute value or
+	 * comment. The tokens returned are the same as if all the input had been
+	 * fed in at once.
+	 * </P>
+	 * 
+	 * <P>
+	 * A tag is parsed again from its '&lt;' each time, but only once a '&gt;'
+	 * has been fed in, so a long tag fed in small chunks still takes time in
+	 * proportion to its length. A quoted value with '&gt;' in it, when
+	 * recovering from errors, is the exception: the tag is parsed again for
+	 * each chunk with a '&gt;' in it, up to the square of its length.
+	 * </P>
+	 */
+	public int next() throws IOException {
+		if (resuming && !isWorthResuming()) {
+			return NEED_MORE_INPUT;
+		}
+		if (!resuming) {
+			reset();
+			startText();
+		}
+		resuming = false;
+		try {
+			return scanToken() ? tokenType : END_OF_INPUT;
+		} catch (NeedMoreInputException e) {
+			rollback();
+			resuming = true;
+			scannedTo = windowStart + limit;
+			return NEED_MORE_INPUT;
+		}
+	}
+
+	/**
+	 * A tag can only end at a '&gt;', so if the input ran out in one, there is
+	 * no point parsing it again until one has been fed in.
+	 */
+	private boolean isWorthResuming() {
+		if (eof || markType != -1 || markPosition >= limit
+				|| window[markPosition] != '<') {
+			return true;
+		}
+		char[] w = window;
+		for (int i = (int) (scannedTo - windowStart); i < limit; i++) {
+			if (w[i] == '>') {
+				return true;
+			}
+		}
+		scannedTo = windowStart + limit;
+		return false;
+	}
+
+	/**
+	 * If a parse exception occurs.
+	 * 
+	 * @exception IOException
+	 *                Bubbles up from unread(...), read(...) or readInt(...).
+	 */
+	public boolean nextToken() throws IOException {
+		// reset all variables for nextToken.
+		reset();
+		startText();
+		try {
+			return scanToken();
+		} catch (NeedMoreInputException e) {
+			// Not the one thrown every time, as the caller may keep it.
+			throw new NeedMoreInputException();
+		}
+	}
+
+	/**
+	 * Same as scan(), but tells the metrics about the token, or error.
+	 */
+	private boolean scanToken() throws IOException {
+		try {
+			if (scan()) {
+				if (dataLength > maxTokenSize) {
+					throw tokenTooLong();
+				}
+				if (document == null) {
+					tokenEndOffset = getOffset();
+				}
+				metrics.token(tokenType, dataLength);
+				return true;
+			}
+			return false;
+		} catch (NeedMoreInputException e) {
+			throw e;
+		} catch (IOException e) {
+			metrics.error(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Find the next token, see nextToken().
+	 */
+	private boolean scan() throws IOException {
+		if (document != null) {
+			return replay();
+		}
+
+		// Carry on from inside a comment, CDATA or PI, if that is where the
+		// input ran out.
+		if (markType != -1) {
+			resumeBody();
+			if (endOfTextIndex != -1) {
+				return true;
+			}
+		}
+
+		// Go with a int at the top level, so we can test for -1.
+		int i;
+		char c;
+		while (true) {
+			if (reader == null) {
+				mark(-1);
+			}
+			i = readInt();
+
+			// Store end of text, in case this is it...
+			endOfTextIndex = getIndex();
+
+			switch (i) {
+			case '<':
+				if (returnText && dataLength > 0 && isMarkupNext()) {
+					return textToken();
+				}
+				startToken();
+				append('<');
+
+				c = read();
+				switch (c) {
+				case '!': // Comment or CDATA...
+					append('!');
+					c = read();
+					switch (c) {
+					case '-':
+						if (!require('-')) {
+							markupAsText();
+							break;
+						}
+						append("--");
+						parseComment();
+						break;
+					case '[':
+						if (!require("CDATA[")) {
+							markupAsText();
+							break;
+						}
+						append("[CDATA[");
+						parseCData();
+						break;
+					default:
+						// Unread the last character.
+						unread();
+						// Nothing, continue as before.
+						endOfTextIndex = -1;
+					}
+					break; // case '!'
+				case '?': // Processing Instructions
+					append('?');
+					parsePI();
+					break;
+				case '/': // End Tag.
+					append('/');
+					parseEndTag();
+					break;
+				default: // Normal Element.
+					unread();
+					parseStartTag();
+					break;
+				}
+				break; // case '<'
+
+			case '&': // Entity, or just text.
+				if (returnText && dataLength > 0
+						&& entityMode == RETURN_ENTITIES && isEntityNext()) {
+					return textToken();
+				}
+				startToken();
+				append('&');
+				if (entityMode != KEEP_ENTITIES && !skipping
+						&& parseEntity(false)) {
+					if (entityMode == RETURN_ENTITIES) {
+						int nameEnd = getIndex();
+						if (dataBuffer[nameEnd - 1] == ';') {
+							nameEnd--;
+						}
+						setTokenName(endOfTextIndex + 1, nameEnd);
+						tokenType = ENTITY;
+						break;
+					}
+					// Replace it with its value, and carry on with the text.
+					dataLength = endOfTextIndex;
+					appendEntityValue();
+				}
+				endOfTextIndex = -1;
+				break;
+
+			case -1: // End Of File
+				if (returnText && dataLength > 0) {
+					return textToken();
+				}
+				return false;
+
+			default: // Normal text.
+				append((char) i);
+				// And the rest of it that is in the window.
+				if (entityMode == KEEP_ENTITIES) {
+					appendUntil('<');
+				} else {
+					appendUntil('<', '&');
+				}
+				// Set it back now.
+				endOfTextIndex = -1;
+
+			} // End of outer switch.
+
+			// If !=-1, this indicates that we have parsed a token correctly.
+			if (endOfTextIndex != -1) {
+				return true;
+			}
+
+			// Pass on the text so far, if it is too big to keep.
+			if (chunkHandler != null && dataLength >= chunkSize) {
+				passFullChunks(TEXT, 0);
+				textChunked = true;
+			}
+		}
+	}
+
+	/**
+	 * Could the '&lt;' just read be the start of a tag, comment, CDATA or PI?
+	 * Only the character after it is looked at.
+	 */
+	private boolean isMarkupNext() throws IOException {
+		int i = readInt();
+		unread();
+		return i == '/' || i == '!' || i == '?'
+				|| (i != -1 && (classOf((char) i) & CharClassifier.NAME_START) != 0);
+	}
+
+	/**
+	 * Could the '&amp;' just read be the start of an entity?
+	 */
+	private boolean isEntityNext() throws IOException {
+		int i = readInt();
+		unread();
+		return i == '#' || (i != -1 && Character.isLetter((char) i));
+	}
+
+	/**
+	 * Return the text read so far as a TEXT token, and move back over the
+	 * character that ended it, so it is read again by the next call.
+	 */
+	private boolean textToken() throws IOException {
+		unread();
+		tokenType = TEXT;
+		endOfTextIndex = 0;
+		tokenStartOffset = textStartOffset;
+		tokenStartLine = textStartLine;
+		tokenStartColumn = textStartColumn;
+		return true;
+	}
+
+	/**
+	 * Return the next token from the document, the same as scan() does from
+	 * the input.
+	 */
+	private boolean replay() throws IOException {
+		CompiledDocument document = this.document;
+		if (replayIndex == document.getTokenCount()) {
+			replayLineNumber = document.getEndLineNumber();
+			if (document.getErrorCode() != 0) {
+				throw parseException().set(document.getErrorCode(),
+						document.getErrorLine(), document.getErrorOffset(),
+						document.getErrorExpected(), document.getErrorFound());
+			}
+			if (document.getError() != null) {
+				throw new IOException(document.getError());
+			}
+			return false;
+		}
+
+		int[] tokens = document.getTokens();
+		int k = replayIndex * CompiledDocument.TOKEN_FIELDS;
+		int start = tokens[k + CompiledDocument.DATA];
+		int length = tokens[k + CompiledDocument.LENGTH];
+		if (length > dataBuffer.length) {
+			growDataBuffer(length);
+		}
+		char[] chars = document.getChars();
+		System.arraycopy(chars, start, dataBuffer, 0, length);
+		dataLength = length;
+		endOfTextIndex = tokens[k + CompiledDocument.END_OF_TEXT];
+		setTokenName(tokens[k + CompiledDocument.NAME_START], tokens[k
+				+ CompiledDocument.NAME_END]);
+		replayTokenNameId = tokens[k + CompiledDocument.NAME_ID];
+		replayLineNumber = tokens[k + CompiledDocument.LINE];
+		textStartOffset = tokens[k + CompiledDocument.TEXT_OFFSET];
+		tokenStartOffset = tokens[k + CompiledDocument.START_OFFSET];
+		tokenEndOffset = tokens[k + CompiledDocument.END_OFFSET];
+		tokenStartLine = tokens[k + CompiledDocument.START_LINE];
+		tokenStartColumn = tokens[k + CompiledDocument.START_COLUMN];
+		entityValueLength = tokens[k + CompiledDocument.VALUE_LENGTH];
+		System.arraycopy(chars, start + length, entityValue, 0,
+				entityValueLength);
+
+		int[] offsets = document.getAttributes();
+		replayFirstAttribute = tokens[k + CompiledDocument.FIRST_ATTRIBUTE];
+		int end = replayFirstAttribute
+				+ tokens[k + CompiledDocument.ATTRIBUTE_COUNT];
+		for (int a = replayFirstAttribute; a < end; a++) {
+			int j = a * CompiledDocument.ATTRIBUTE_FIELDS;
+			addAttribute(offsets[j], offsets[j + 1], offsets[j + 2],
+					offsets[j + 3]);
+			setAttributeLocation(offsets[j + CompiledDocument.NAME_OFFSET],
+					offsets[j + CompiledDocument.VALUE_OFFSET],
+					offsets[j + CompiledDocument.VALUE_END_OFFSET],
+					offsets[j + CompiledDocument.VALUE_LINE],
+					offsets[j + CompiledDocument.VALUE_COLUMN]);
+		}
+		tokenType = document.getTypes()[replayIndex];
+		replayIndex++;
+		return true;
+	}
+
+	/**
+	 * Can the SymbolTable ids recorded in the document be used, as they are
+	 * from the same SymbolTable?
+	 */
+	private boolean isReplayingIds() {
+		return document != null && symbolTable != null
+				&& document.getSymbolTable() == symbolTable;
+	}
+
+	/**
+	 * Id of the name of the attribute at index of the current token, when
+	 * isReplayingIds().
+	 */
+	private int getReplayNameId(int index) {
+		return document.getAttributes()[(replayFirstAttribute + index)
+				* CompiledDocument.ATTRIBUTE_FIELDS + 4];
+	}
+
+	/**
+	 * Remember where to go back to, if the input runs out while feeding.
+	 * 
+	 * @param type
+	 *            -1 for between tokens, or the type of the token whose body
+	 *            is being parsed.
+	 */
+	private void mark(int type) {
+		markType = type;
+		markPosition = position;
+		locate(position);
+		markLocatedLines = locatedLines;
+		markLocatedLineStart = locatedLineStart;
+		markLength = dataLength;
+		markEndOfText = endOfTextIndex;
+		markNameStart = tokenNameStart;
+		markNameEnd = tokenNameEnd;
+	}
+
+	/**
+	 * Go back to the last mark, and forget anything parsed since.
+	 */
+	private void rollback() {
+		if (position > readAhead) {
+			readAhead = Math.min(position, limit);
+		}
+		position = markPosition;
+		metrics.unread(readAhead - position);
+		locateIndex = markPosition;
+		locatedLines = markLocatedLines;
+		locatedLineStart = markLocatedLineStart;
+		dataLength = markLength;
+		endOfTextIndex = markEndOfText;
+		tokenNameStart = markNameStart;
+		tokenNameEnd = markNameEnd;
+		tokenName = null;
+		tokenType = -1;
+		clearAttributes();
+	}
+
+	/**
+	 * Carry on parsing the body of the token in markType.
+	 */
+	private void resumeBody() throws IOException {
+		switch (markType) {
+		case COMMENT:
+			parseComment();
+			break;
+		case CDATA:
+			parseCData();
+			break;
+		case PI:
+			parsePIData(tokenNameStart, tokenNameEnd);
+			break;
+		}
+	}
+
+	private void checkFeeding() {
+		if (reader != null || document != null) {
+			throw new IllegalStateException(
+					"Input can only be fed in when created with HxmlTokeniser()");
+		}
+		if (eof) {
+			throw new IllegalStateException("endOfInput() has been called");
+		}
+	}
+
+	/**
+	 * Make room at the end of the window for length more characters, keeping
+	 * everything since the last mark if next() needs to go back to it.
+	 */
+	private void ensureFeedCapacity(int length) {
+		checkFeeding();
+		compact(resuming ? markPosition : position);
+		if (limit + length > window.length) {
+			window = Arrays.copyOf(window, Math.max(window.length * 2, limit
+					+ length));
+		}
+	}
+
+	/**
+	 * Get the text of the last token encountered.
+	 * 
+	 * May not return the complete contents of START_TAG, EMPTY_TAG, END_TAG,
+	 * ENTITY or FUNCTION. Really only designed for use by COMMENT, CDATA and
+	 * PI.
+	 */
+	public String getTokenContent() {
+		if (endOfTextIndex != -1 && dataLength > 0) {
+			return getString(endOfTextIndex, dataLength);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Same as getTokenContent(), but returns a view over the internal buffer
+	 * rather than creating a String. The view is only valid until the next
+	 * call to nextToken().
+	 */
+	public CharRange getTokenContentRange() {
+		if (endOfTextIndex != -1 && dataLength > 0) {
+			return contentRange.set(dataBuffer, endOfTextIndex, dataLength
+					- endOfTextIndex);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Will return null, if no text available.
+	 */
+	public String getText() {
+		if (endOfTextIndex != -1 && dataLength > 0) {
+			return getString(0, endOfTextIndex);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Same as getText(), but returns a view over the internal buffer rather
+	 * than creating a String. The view is only valid until the next call to
+	 * nextToken().
+	 */
+	public CharRange getTextRange() {
+		if (endOfTextIndex != -1 && dataLength > 0) {
+			return textRange.set(dataBuffer, 0, endOfTextIndex);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * The characters an ENTITY token stands for, such as "&amp;" for &amp;amp;,
+	 * otherwise null. getTokenContent() returns the entity as it was in the
+	 * input.
+	 */
+	public String getEntityValue() {
+		if (tokenType == ENTITY) {
+			return new String(entityValue, 0, entityValueLength);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Same as getEntityValue(), but returns a view rather than creating a
+	 * String. The view is only valid until the next call to nextToken().
+	 */
+	public CharRange getEntityValueRange() {
+		if (tokenType == ENTITY) {
+			return entityRange.set(entityValue, 0, entityValueLength);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the current line number. The number of line terminators read so
+	 * far is increased by 1 (one) before return, to take into account the first
+	 * line, which is not counted until its end.
+	 * 
+	 * As with LineNumberReader, a line is terminated by '\n', '\r' or "\r\n",
+	 * and characters that have been read and then unread still count.
+	 */
+	public int getLineNumber() {
+		if (document != null) {
+			return replayLineNumber;
+		}
+		countLines(Math.min(Math.max(position, readAhead), limit));
+		return lineNumber + 1;
+	}
+
+	/**
+	 * Return each run of text as a TEXT token of its own, as soon as the
+	 * start of a tag, comment, CDATA or PI is found after it (or an entity,
+	 * with RETURN_ENTITIES), and before that is parsed. The text is the
+	 * content of the token, and there is no text before any other token. Any
+	 * text after the last token is returned as well, which it is not
+	 * otherwise.
+	 * 
+	 * <P>
+	 * Only the character after the '&lt;' or '&amp;' is looked at, so if it
+	 * turns out not to start a token, such as a tag left out by setTags(...),
+	 * the text carries on in the next TEXT token.
+	 * </P>
+	 */
+	public void setReturnText(boolean returnText) {
+		this.returnText = returnText;
+	}
+
+	public boolean isReturnText() {
+		return returnText;
+	}
+
+	/**
+	 * Only return START_TAG, EMPTY_TAG and END_TAG tokens for these tag names.
+	 * Any other tag is treated as text, without its attributes being parsed,
+	 * so the rest of it up to the '&gt;' is just text as well. The names are
+	 * checked without creating a String.
+	 * 
+	 * @param tags
+	 *            The tag names, or null for all tags.
+	 * @param ignoreCase
+	 *            Compare the names the same way as String.equalsIgnoreCase.
+	 */
+	public void setTags(String[] tags, boolean ignoreCase) {
+		this.tags = tags != null ? new NameSet(tags, ignoreCase) : null;
+	}
+
+	NameSet getTagSet() {
+		return tags;
+	}
+
+	void setTagSet(NameSet tags) {
+		this.tags = tags;
+	}
+
+	/**
+	 * What is done with &amp;entity; and &amp;#nnnn; references: one of
+	 * KEEP_ENTITIES, RETURN_ENTITIES or DECODE_ENTITIES.
+	 * 
+	 * <P>
+	 * Any of the HTML5 named character references is recognised, as is a
+	 * decimal or hex character reference. As in HTML, the legacy names such as
+	 * &amp;amp and &amp;copy are also recognised without the ';', and the
+	 * longest name that matches is used, so &amp;notin is &amp;not followed by
+	 * "in". In an attribute value, a legacy name followed by a letter, digit
+	 * or '=' is not an entity. Anything else starting with &amp; is left as
+	 * text.
+	 * </P>
+	 */
+	public void setEntityMode(int mode) {
+		this.entityMode = checkEntityMode(mode);
+	}
+
+	/**
+	 * Shared with ParallelHxmlTokeniser.
+	 */
+	static int checkEntityMode(int mode) {
+		if (mode != KEEP_ENTITIES && mode != RETURN_ENTITIES
+				&& mode != DECODE_ENTITIES) {
+			throw new IllegalArgumentException("Invalid entity mode: " + mode);
+		}
+		return mode;
+	}
+
+	public int getEntityMode() {
+		return entityMode;
+	}
+
+	/**
+	 * The rules for which characters are part of a name, or are whitespace.
+	 * The default is CharClassifier.PERMISSIVE.
+	 */
+	public void setCharClassifier(CharClassifier charClassifier) {
+		if (charClassifier == null) {
+			throw new IllegalArgumentException("charClassifier must not be null");
+		}
+		this.charClassifier = charClassifier;
+		this.asciiClasses = charClassifier.ascii;
+	}
+
+	public CharClassifier getCharClassifier() {
+		return charClassifier;
+	}
+
+	/**
+	 * Limits on the size of names, the number of attributes and the size of
+	 * tokens. If one is exceeded, an IOException is thrown as soon as it is.
+	 * The default is HxmlLimits.NONE.
+	 */
+	public void setLimits(HxmlLimits limits) {
+		if (limits == null) {
+			throw new IllegalArgumentException("limits must not be null");
+		}
+		this.limits = limits;
+		this.maxNameLength = limits.getMaxNameLength();
+		this.maxAttributes = limits.getMaxAttributes();
+		this.maxTokenSize = limits.getMaxTokenSize();
+	}
+
+	public HxmlLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * The most characters passed to a HxmlChunkHandler at once.
+	 * 
+	 * @see #tokenise(HxmlHandler)
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid chunk size: "
+					+ chunkSize);
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Tell metrics what the tokeniser is doing. The default is
+	 * HxmlMetrics.NONE.
+	 * 
+	 * @see HxmlStatistics
+	 */
+	public void setMetrics(HxmlMetrics metrics) {
+		if (metrics == null) {
+			throw new IllegalArgumentException("metrics must not be null");
+		}
+		this.metrics = metrics;
+	}
+
+	public HxmlMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Recover from malformed markup, rather than throwing a
+	 * HxmlParseException, telling errorSink about each error. null, the
+	 * default, throws. Going over the HxmlLimits is always thrown.
+	 * 
+	 * <P>
+	 * A '&lt;' that does not start a tag, end tag, comment, CDATA or PI
+	 * properly is taken as text, as is everything after it up to where the
+	 * problem is. Inside a start tag, a character that cannot start an
+	 * attribute name is skipped, an attribute without an '=' is given an
+	 * empty value, and a quoted value is ended at a '&gt;'. A '/' or line
+	 * terminator in a quoted value is kept. If the input ends in a token, the
+	 * token ends there.
+	 * </P>
+	 */
+	public void setErrorSink(HxmlErrorSink errorSink) {
+		this.errorSink = errorSink;
+	}
+
+	public HxmlErrorSink getErrorSink() {
+		return errorSink;
+	}
+
+	/**
+	 * Ignore CDATA
+	 */
+	public boolean isIgnoreCData() {
+		return ignoreCData;
+	}
+
+	/**
+	 * Ignore Programming Instructions
+	 */
+	public boolean isIgnorePI() {
+		return ignorePI;
+	}
+
+	/**
+	 * Ignore comments
+	 */
+	public boolean isIgnoreComments() {
+		return ignoreComments;
+	}
+
+	/**
+	 * Set ignoreComments indicator
+	 */
+	public void ignoreComments(boolean b) {
+		this.ignoreComments = b;
+	}
+
+	/**
+	 * Set ignoreCData indicator
+	 */
+	public void ignoreCData(boolean b) {
+		this.ignoreCData = b;
+	}
+
+	/**
+	 * Set ignorePI indicator
+	 */
+	public void ignorePI(boolean b) {
+		this.ignorePI = b;
+	}
+
+	/**
+	 * Move back over the last character read.
+	 */
+	private void unread() throws IOException {
+		unread(1);
+	}
+
+	/**
+	 * Move back over the last len characters read, they are still in the
+	 * window, so nothing needs to be copied.
+	 */
+	private void unread(int len) throws IOException {
+		if (len > position) {
+			throw new IOException("Pushback buffer overflow");
+		}
+		if (position > readAhead) {
+			readAhead = position;
+		}
+		position -= len;
+		metrics.unread(readAhead - position);
+	}
+
+	private char read() throws IOException {
+		return (char) readInt();
+	}
+
+	private int readInt() throws IOException {
+		if (position < limit || fill()) {
+			return window[position++];
+		}
+		// Step past the end, so that unread() stays symmetrical at EOF.
+		position++;
+		return -1;
+	}
+
+	/**
+	 * Refill the window from the reader. Only called once everything in the
+	 * window has been read. The last MAX_UNREAD characters are moved to the
+	 * start of the window, so they can still be unread.
+	 * 
+	 * @return false if the end of input has been reached.
+	 */
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		if (reader == null) {
+			throw needMoreInput;
+		}
+
+		compact(position);
+		while (true) {
+			int count = reader.read(window, limit, window.length - limit);
+			if (count < 0) {
+				eof = true;
+				return false;
+			}
+			metrics.charactersRead(count);
+			int end = normaliseLineEndings(limit, limit + count);
+			if (end > limit) {
+				limit = end;
+				return true;
+			}
+			// Nothing left after normalising (or an empty read), so try again.
+		}
+	}
+
+	/**
+	 * Discard everything in the window more than MAX_UNREAD characters before
+	 * keepFrom, moving the rest to the start.
+	 */
+	private void compact(int keepFrom) {
+		int discard = keepFrom - Math.min(keepFrom, MAX_UNREAD);
+		if (discard > 0) {
+			// Make sure any lines about to be discarded have been counted.
+			countLines(discard);
+			locate(discard);
+			System.arraycopy(window, discard, window, 0, limit - discard);
+			position -= discard;
+			limit -= discard;
+			windowStart += discard;
+			lineScanIndex -= discard;
+			locateIndex -= discard;
+			readAhead = Math.max(0, readAhead - discard);
+			markPosition -= discard;
+		}
+	}
+
+	/**
+	 * Convert "\r\n" and '\r' to '\n' in window[start..end), the same way
+	 * LineNumberReader does, so we only ever have to look for '\n'. A "\r\n"
+	 * split across two reads is handled via skipLF.
+	 * 
+	 * @return The new end of the range.
+	 */
+	private int normaliseLineEndings(int start, int end) {
+		char[] w = window;
+		int i = start;
+		if (!skipLF) {
+			// Fast path, most input has no '\r' at all.
+			while (i < end && w[i] != '\r') {
+				i++;
+			}
+			if (i == end) {
+				return end;
+			}
+		}
+
+		int j = i;
+		for (; i < end; i++) {
+			char c = w[i];
+			if (c == '\r') {
+				w[j++] = '\n';
+				skipLF = true;
+			} else {
+				if (c != '\n' || !skipLF) {
+					w[j++] = c;
+				} else {
+					droppedLF(windowStart + j - 1);
+				}
+				skipLF = false;
+			}
+		}
+		return j;
+	}
+
+	/**
+	 * Number of characters read so far (after line endings are normalised),
+	 * not counting any that have been unread.
+	 */
+	long getOffset() {
+		return windowStart + Math.min(position, limit);
+	}
+
+	/**
+	 * The same as getOffset(), but counting the characters of the input as it
+	 * was read.
+	 */
+	long getInputOffset() {
+		return toInputOffset(getOffset());
+	}
+
+	/**
+	 * Offset in the input of the text before the last token, the same as the
+	 * end of the token before it. Offsets count characters from the start of
+	 * the input as it was read, so a "\r\n" is 2 characters, even though it
+	 * is just a '\n' in the text returned. See getNormalisedOffset(long).
+	 */
+	public long getTextStartOffset() {
+		return toInputOffset(textStartOffset);
+	}
+
+	/**
+	 * Offset in the input of the '&lt;' or '&amp;' that starts the last token,
+	 * or of the first character of a TEXT token.
+	 */
+	public long getTokenStartOffset() {
+		return toInputOffset(tokenStartOffset);
+	}
+
+	/**
+	 * Offset in the input just after the last token.
+	 */
+	public long getTokenEndOffset() {
+		return toInputOffset(tokenEndOffset);
+	}
+
+	/**
+	 * Converts an offset in the input of somewhere in the last token, or the
+	 * text before it, to the offset it would have if every "\r\n" in the
+	 * input were just a '\n', as it is in the text returned.
+	 */
+	public long getNormalisedOffset(long offset) {
+		long dropped = droppedBefore;
+		for (int k = droppedStart; k < droppedEnd
+				&& droppedOffsets[k] + dropped + 1 < offset; k++) {
+			dropped++;
+		}
+		return offset - dropped;
+	}
+
+	/**
+	 * Converts an offset after line endings are normalised to one in the
+	 * input, by adding the number of '\n' dropped from "\r\n" before it.
+	 * Only works for offsets from the start of the text before the current
+	 * token on, see droppedOffsets.
+	 */
+	private long toInputOffset(long offset) {
+		int k = Arrays.binarySearch(droppedOffsets, droppedStart, droppedEnd,
+				offset);
+		if (k < 0) {
+			k = -k - 1;
+		}
+		return offset + droppedBefore + k - droppedStart;
+	}
+
+	/**
+	 * A '\n' has been dropped from a "\r\n", leaving a '\n' at offset.
+	 */
+	private void droppedLF(long offset) {
+		if (droppedEnd == droppedOffsets.length) {
+			if (droppedStart > droppedEnd / 2) {
+				System.arraycopy(droppedOffsets, droppedStart, droppedOffsets,
+						0, droppedEnd - droppedStart);
+			} else {
+				droppedOffsets = Arrays.copyOf(droppedOffsets,
+						droppedOffsets.length * 2);
+			}
+			droppedEnd -= droppedStart;
+			droppedStart = 0;
+		}
+		droppedOffsets[droppedEnd++] = offset;
+	}
+
+	/**
+	 * Line the last token starts on, counting from 1. Unlike getLineNumber(),
+	 * which is the line the tokeniser has got to, this does not change as
+	 * more of the input is read.
+	 */
+	public int getStartLine() {
+		return tokenStartLine;
+	}
+
+	/**
+	 * Column the last token starts at on getStartLine(), counting from 1. A
+	 * tab, or a character outside the BMP, is 1 column (or 2) like any other
+	 * char.
+	 */
+	public int getStartColumn() {
+		return tokenStartColumn;
+	}
+
+	/**
+	 * Record where the text before the next token starts.
+	 */
+	private void startText() {
+		int index = Math.min(position, limit);
+		locate(index);
+		textStartOffset = windowStart + index;
+		// Nothing before here is asked about again.
+		while (droppedStart < droppedEnd
+				&& droppedOffsets[droppedStart] < textStartOffset) {
+			droppedStart++;
+			droppedBefore++;
+		}
+		textStartLine = locatedLines + 1;
+		textStartColumn = (int) (textStartOffset - locatedLineStart) + 1;
+	}
+
+	/**
+	 * Record where the token starts, at the '&lt;' or '&amp;' just read.
+	 */
+	private void startToken() {
+		int index = position - 1;
+		locate(index);
+		tokenStartOffset = windowStart + index;
+		tokenStartLine = locatedLines + 1;
+		tokenStartColumn = (int) (tokenStartOffset - locatedLineStart) + 1;
+	}
+
+	/**
+	 * Count the line terminators in the window up to end, from locateIndex,
+	 * remembering where the last line starts. Each character is only looked
+	 * at once, however many tokens there are.
+	 */
+	private void locate(int end) {
+		char[] w = window;
+		for (int i = locateIndex; i < end; i++) {
+			if (w[i] == '\n') {
+				locatedLines++;
+				locatedLineStart = windowStart + i + 1;
+			}
+		}
+		if (end > locateIndex) {
+			locateIndex = end;
+		}
+	}
+
+	/**
+	 * The input passed to the constructor, or null if reading from a Reader.
+	 */
+	CharSequence getInput() {
+		return input;
+	}
+
+	/**
+	 * Start counting lines from lines + 1, for when the reader does not start
+	 * at the start of the document.
+	 */
+	void setLinesBefore(int lines) {
+		lineNumber = lines;
+		locatedLines = lines;
+	}
+
+	/**
+	 * Count the line terminators in the window up to end, that have not been
+	 * counted yet. This is done lazily, rather than for every character read.
+	 */
+	private void countLines(int end) {
+		char[] w = window;
+		int lines = 0;
+		for (int i = lineScanIndex; i < end; i++) {
+			if (w[i] == '\n') {
+				lines++;
+			}
+		}
+		lineNumber += lines;
+		if (end > lineScanIndex) {
+			lineScanIndex = end;
+		}
+	}
+
+	private void append(char c) throws IOException {
+		if (dataLength == dataBuffer.length) {
+			growDataBuffer(1);
+		}
+		dataBuffer[dataLength++] = c;
+	}
+
+	private void append(String s) throws IOException {
+		int len = s.length();
+		if (dataLength + len > dataBuffer.length) {
+			growDataBuffer(len);
+		}
+		s.getChars(0, len, dataBuffer, dataLength);
+		dataLength += len;
+	}
+
+	/**
+	 * Make room for at least extra more characters in the dataBuffer.
+	 */
+	private void growDataBuffer(int extra) throws IOException {
+		if (dataLength + extra > maxTokenSize) {
+			throw tokenTooLong();
+		}
+		dataBuffer = Arrays.copyOf(dataBuffer, (int) Math.min(Math.max(
+				dataBuffer.length * 2L, dataLength + extra), maxTokenSize));
+		metrics.dataBufferGrown(dataBuffer.length);
+	}
+
+	private IOException tokenTooLong() {
+		return limitError(HxmlParseException.TOKEN_TOO_LONG, maxTokenSize);
+	}
+
+	/**
+	 * The HxmlLimits have been passed, which is never recovered from.
+	 */
+	private IOException limitError(int code, int limit) {
+		return parseException().set(code, getLineNumber(), getInputOffset(),
+				limit, 0);
+	}
+
+	/**
+	 * The exception to fill in for the next error. Suppression cannot be
+	 * turned off for an IOException, so once exceptions have been added to
+	 * the last one thrown, a new one is used rather than it growing forever.
+	 */
+	private HxmlParseException parseException() {
+		if (parseException.getSuppressed().length != 0) {
+			parseException = new HxmlParseException();
+		}
+		return parseException;
+	}
+
+	/**
+	 * Malformed markup has been found at the current position. Throw the
+	 * HxmlParseException, or if there is an errorSink, tell it and return, so
+	 * the caller can recover.
+	 * 
+	 * @param expected
+	 *            The character that should have been there, if any.
+	 * @param found
+	 *            The character that was there instead.
+	 */
+	private void error(int code, int expected, int found) throws IOException {
+		long offset = getOffset();
+		if (errorSink == null) {
+			throw parseException().set(code, getLineNumber(),
+					toInputOffset(offset), expected, found);
+		}
+		// When feeding, a token is parsed again once more input has been fed
+		// in, and any errors in it have already been reported.
+		if (offset > lastErrorOffset) {
+			lastErrorOffset = offset;
+			locate((int) (offset - windowStart));
+			errorSink.error(code, toInputOffset(offset), locatedLines + 1);
+		}
+	}
+
+	/**
+	 * Recovering from malformed markup, so go back to just after the '&lt;'
+	 * that started it, and carry on with it as text.
+	 */
+	private void markupAsText() throws IOException {
+		unread((int) (getOffset() - tokenStartOffset - 1));
+		dataLength = endOfTextIndex;
+		append('<');
+		endOfTextIndex = -1;
+	}
+
+	/**
+	 * Skip whitespace characters in input.
+	 */
+	private void skipWhitespace() throws IOException {
+		while (isWhitespace(read())) {
+			// do nothing
+		}
+		unread();
+	}
+
+	/**
+	 * Parse any whitespace and add to the buffer.
+	 */
+	private void parseWhitespace() throws IOException {
+		char c;
+		while (isWhitespace((c = read()))) {
+			append(c);
+		}
+		unread();
+	}
+
+	/**
+	 * The next character in the input, must be c.
+	 * 
+	 * @return false if it is not, and the error is being recovered from.
+	 */
+	private boolean require(char required) throws IOException {
+		char c = read();
 		if (c != required) {
-			unread(c);
-			throw new IOException("Line:" + getLineNumber() + "; Character '"
-					+ required + "' not found: " + c);
+			unread();
+			error(HxmlParseException.MISSING_CHARACTER, required, c);
+			return false;
 		}
+		return true;
 	}
 
 	/**
 	 * Calls require(char) for each character in String s.
 	 */
-	private void require(String s) throws IOException {
+	private boolean require(String s) throws IOException {
 		for (int i = 0; i < s.length(); i++) {
-			require(s.charAt(i));
+			if (!require(s.charAt(i))) {
+				return false;
+			}
 		}
+		return true;
 	}
 
 	/**
@@ -437,22 +2279,38 @@ public class HxmlTokeniser {
 	 * not characters are currently stored in the dataBuffer.
 	 */
 	private int getIndex() {
-		if (dataBuffer.length() > 0) {
-			return dataBuffer.length();
-		} else {
-			return 0;
-		}
+		return dataLength;
 	}
 
 	/**
 	 * Returns a substring from the dataBuffer, starting at startIndex and
-	 * length characters long. An IndexOutOfBoundsException may be thrown if the
-	 * parameters are invalid.
+	 * ending before stopIndex. An IndexOutOfBoundsException may be thrown if
+	 * the parameters are invalid.
 	 */
 	private String getString(int startIndex, int stopIndex) {
-		char text[] = new char[stopIndex - startIndex];
-		dataBuffer.getChars(startIndex, stopIndex, text, 0);
-		return new String(text);
+		return new String(dataBuffer, startIndex, stopIndex - startIndex);
+	}
+
+	/**
+	 * Returns the canonical instance of a name from the SymbolTable, if there
+	 * is one.
+	 */
+	private String getName(int startIndex, int stopIndex) {
+		if (symbolTable != null) {
+			return symbolTable.intern(dataBuffer, startIndex, stopIndex
+					- startIndex);
+		} else {
+			return getString(startIndex, stopIndex);
+		}
+	}
+
+	/**
+	 * The token name is dataBuffer[startIndex..stopIndex), the String is only
+	 * created if getTokenName() is called.
+	 */
+	private void setTokenName(int startIndex, int stopIndex) {
+		tokenNameStart = startIndex;
+		tokenNameEnd = stopIndex;
 	}
 
 	/**
@@ -461,9 +2319,12 @@ public class HxmlTokeniser {
 	 * 
 	 * Assumes whitespace has already been skipped.
 	 * 
+	 * @return The index of the start of the name in the dataBuffer, the name
+	 *         ends at getIndex(). -1 if there is no name, and the error is
+	 *         being recovered from.
 	 * @see #isLegalNameChar(char)
 	 */
-	private String getNmToken() throws IOException {
+	private int getNmToken() throws IOException {
 		// Store start of name.
 		int indexOfStart = getIndex();
 
@@ -471,20 +2332,41 @@ public class HxmlTokeniser {
 		c = read();
 
 		// If not valid first character.
-		if (c != '*' && c != '_' && c != ':' && !Character.isLetter(c)) {
-			throw new IOException("Line:" + getLineNumber()
-					+ "; Invalid initial name char: " + c);
+		if ((classOf(c) & CharClassifier.NAME_START) == 0) {
+			unread();
+			error(HxmlParseException.INVALID_NAME, 0, c);
+			return -1;
 		}
 		append(c);
 
-		// Now keep going while isLetterOrDigit.
-		while (isLegalNameChar((c = read()))) {
+		// Now keep going while isLegalNameChar, the rest of the name that is
+		// in the window in one go.
+		while (true) {
+			char[] w = window;
+			int start = position;
+			int end = limit;
+			int i = start;
+			while (i < end && isLegalNameChar(w[i])) {
+				i++;
+			}
+			appendWindow(start, i);
+			if (dataLength - indexOfStart > maxNameLength) {
+				throw limitError(HxmlParseException.NAME_TOO_LONG,
+						maxNameLength);
+			}
+			if (i < end) {
+				break;
+			}
+			// The window ran out, this refills it.
+			c = read();
+			if (!isLegalNameChar(c)) {
+				unread();
+				break;
+			}
 			append(c);
 		}
-		unread(c);
 
-		// Now return the name.
-		return getString(indexOfStart, getIndex());
+		return indexOfStart;
 	}
 	
 	/**
@@ -492,12 +2374,21 @@ public class HxmlTokeniser {
 	 * one, because the initial character cannot be a number, whereas this
 	 * method will return true for a number.
 	 * 
-	 * <b>Note:</b> Tag, Entity, ProcessingInstruction and Function names must
-	 * be of the following form: First char: ('_'|':'|[a-zA-Z]) The rest:
-	 * ('_'|[a-zA-Z0-9])
+	 * @see CharClassifier
 	 */
 	private boolean isLegalNameChar(char c) {
-		return (Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '*' || c == '-');
+		return (classOf(c) & CharClassifier.NAME_CHAR) != 0;
+	}
+
+	private boolean isWhitespace(char c) {
+		return (classOf(c) & CharClassifier.WHITESPACE) != 0;
+	}
+
+	/**
+	 * Same as charClassifier.classOf(c), with the table kept here.
+	 */
+	private int classOf(char c) {
+		return c < 128 ? asciiClasses[c] : charClassifier.classifyNonAscii(c);
 	}
 
 	/**
@@ -505,11 +2396,11 @@ public class HxmlTokeniser {
 	 */
 	private void requireWhitespace() throws IOException {
 		char c = read();
-		if (Character.isWhitespace(c)) {
+		if (isWhitespace(c)) {
 			skipWhitespace();
 		} else {
-			throw new IOException("Line:" + getLineNumber()
-					+ "; Whitespace required: " + c);
+			unread();
+			error(HxmlParseException.MISSING_WHITESPACE, 0, c);
 		}
 	}
 
@@ -520,7 +2411,7 @@ public class HxmlTokeniser {
 		// Ignores anything, even if a -> is found, it will not be treated like
 		// a comment,
 		// even though technically it should be.
-		parseUntil("-->");
+		parseUntil("-->", COMMENT);
 		// So we can get at the whole comment string.
 		append("-->");
 
@@ -540,7 +2431,7 @@ public class HxmlTokeniser {
 	 */
 	private void parseCData() throws IOException {
 		if (!ignoreCData) {
-			parseUntil("]]>");
+			parseUntil("]]>", CDATA);
 			append("]]>");
 
 			// Could change this if need be.
@@ -555,7 +2446,12 @@ public class HxmlTokeniser {
 	 * Parse Processing instructions. Assumes the <? has already been parsed.
 	 */
 	private void parsePI() throws IOException {
-		String name = getNmToken();
+		int nameStart = getNmToken();
+		if (nameStart == -1) {
+			markupAsText();
+			return;
+		}
+		int nameEnd = getIndex();
 		if (!ignorePI) {
 			// Does not matter what name is returned, Processing instruction
 			// should be skipped anyway.
@@ -564,124 +2460,486 @@ public class HxmlTokeniser {
 				// Append one character of whitespace, so we can get the
 				// contents of PI if required.
 				append(' ');
-				parseUntil("?>");
-				append("?>");
+				parsePIData(nameStart, nameEnd);
+			} else {
+				setTokenName(nameStart, nameEnd);
+				tokenType = PI;
+			}
+		} else {
+			endOfTextIndex = -1;
+		}
+	}
+
+	/**
+	 * Parse the rest of a processing instruction, after the whitespace
+	 * following the name.
+	 */
+	private void parsePIData(int nameStart, int nameEnd) throws IOException {
+		// Set now, so the name is kept if the input runs out while feeding.
+		setTokenName(nameStart, nameEnd);
+		parseUntil("?>", PI);
+		append("?>");
+		tokenType = PI;
+	}
+
+	/**
+	 * This parses a START_TAG or EMPTY_TAG. Assumes the < has already been
+	 * parsed.
+	 */
+	private void parseStartTag() throws IOException {
+		int nameStart = getNmToken();
+		if (nameStart == -1) {
+			markupAsText();
+			return;
+		}
+		int nameEnd = getIndex();
+		if (!isFound(nameStart, nameEnd)) {
+			// Not a tag we want, so the rest of it is just text.
+			endOfTextIndex = -1;
+			return;
+		}
+		if (skipping) {
+			// Only whether it is empty matters, see skipElement().
+			parseUntil('>');
+			tokenType = dataBuffer[dataLength - 1] == '/' ? EMPTY_TAG
+					: START_TAG;
+			return;
+		}
+		skipWhitespace();
+		int i = readInt();
+		while (true) {
+			if (i == '>') {
+				tokenType = START_TAG;
+				break;
+			} else if (i == '/') {
+				if (require('>')) {
+					tokenType = EMPTY_TAG;
+					break;
+				}
+				// Recovering, so the '/' is ignored.
+			} else if (i == -1 && errorSink != null) {
+				unread();
+				error(HxmlParseException.END_OF_INPUT, '>', 0);
+				tokenType = START_TAG;
+				break;
+			} else {
+				unread();
+				if (attributeCount == maxAttributes) {
+					throw limitError(HxmlParseException.TOO_MANY_ATTRIBUTES,
+							maxAttributes);
+				}
+				parseAttribute();
+			}
+			skipWhitespace();
+			i = readInt();
+		}
+		setTokenName(nameStart, nameEnd);
+	}
+
+	/**
+	 * Assumes that the </ have already been found.
+	 */
+	private void parseEndTag() throws IOException {
+		int nameStart = getNmToken();
+		if (nameStart == -1) {
+			markupAsText();
+			return;
+		}
+		int nameEnd = getIndex();
+		if (!isFound(nameStart, nameEnd)) {
+			endOfTextIndex = -1;
+			return;
+		}
+
+		// Check that it is legal.
+		skipWhitespace();
+		// In case some person wanted to put a datasource in the end tag as
+		// well.
+		parseUntil('>');
+		// require('>');
+		setTokenName(nameStart, nameEnd);
+		tokenType = END_TAG;
+	}
+
+	/**
+	 * Assume we should be at the start of the next name=value.
+	 * 
+	 * If the attribute does not start with a &quot; character, then there
+	 * cannot be any whitespace.
+	 * 
+	 * When recovering from errors, a character that cannot start a name is
+	 * skipped, an attribute with no '=' has an empty value, as in HTML, and a
+	 * quoted value may have a '/' or '&gt;' in it, so is only closed by its
+	 * delimiter or the end of the input.
+	 */
+	private void parseAttribute() throws IOException {
+		// Get the attribute name.
+		long nameOffset = windowStart + position;
+		int nameStart = getNmToken();
+		if (nameStart == -1) {
+			read();
+			return;
+		}
+		int nameEnd = getIndex();
+		skipWhitespace();
+		boolean hasValue = require('=');
+
+		char delim = '\0';
+		if (hasValue) {
+			skipWhitespace();
+
+			// Get Delimiter.
+			delim = read();
+
+			if (delim != '\"' && delim != '\'') {
+				unread();
+				delim = '\0';
+			}
+		}
+
+		locate(position);
+		long valueOffset = windowStart + position;
+		int valueLine = locatedLines + 1;
+		int valueColumn = (int) (valueOffset - locatedLineStart) + 1;
+		int indexOfStart = getIndex();
+		boolean closed = hasValue && parseValue(delim);
+
+		addAttribute(nameStart, nameEnd, indexOfStart, getIndex());
+		// Any closing delimiter has been read, any other character unread.
+		long valueEndOffset = getOffset() - (closed ? 1 : 0);
+		setAttributeLocation(nameOffset, valueOffset, valueEndOffset,
+				valueLine, valueColumn);
+	}
+
+	/**
+	 * Parse an attribute value, after any delimiter, up to and including the
+	 * closing delimiter, if there is one.
+	 * 
+	 * @return true if the closing delimiter was read.
+	 */
+	private boolean parseValue(char delim) throws IOException {
+		appendValue(delim);
+		int i = readInt();
+		while (true) {
+			if (i == -1) {
+				unread();
+				error(HxmlParseException.END_OF_INPUT_IN_VALUE, 0, 0);
+				return false;
+			}
+			char c = (char) i;
+			if (delim == '\0') {
+				if ((classOf(c) & VALUE_END) != 0) {
+					unread();
+					return false;
+				}
+			} else {
+				// Ensure previous was not an escape character.
+				if (dataBuffer[dataLength - 1] != '\\' && c == delim) {
+					return true;
+				} else if (c == '\n' || c == '\r') {
+					unread();
+					error(HxmlParseException.NEWLINE_IN_VALUE, 0, c);
+					// Recovering, so it is part of the value.
+					read();
+				} else if ((c == '/' || c == '>') && errorSink == null) {
+					unread();
+					error(HxmlParseException.UNCLOSED_VALUE, 0, c);
+				}
+			}
+
+			if (c == '&' && entityMode != KEEP_ENTITIES) {
+				int ampersand = getIndex();
+				append('&');
+				if (parseEntity(true)) {
+					dataLength = ampersand;
+					appendEntityValue();
+				}
+			} else {
+				append(c);
+			}
+
+			// Read next character.
+			appendValue(delim);
+			i = readInt();
+		}
+	}
+
+	/**
+	 * Append the characters in the window that cannot end an attribute value,
+	 * or be an error in one, in one go.
+	 */
+	private void appendValue(char delim) throws IOException {
+		char[] w = window;
+		int start = position;
+		int end = limit;
+		int i = start;
+		// Stop at any '&', if it might need decoding.
+		char entity = entityMode != KEEP_ENTITIES ? '&' : delim;
+		if (delim == '\0') {
+			for (; i < end; i++) {
+				char c = w[i];
+				if ((classOf(c) & VALUE_END) != 0 || c == entity) {
+					break;
+				}
+			}
+		} else if (errorSink != null) {
+			for (; i < end; i++) {
+				char c = w[i];
+				if (c == delim || c == entity || c == '\n' || c == '\r') {
+					break;
+				}
+			}
+		} else {
+			for (; i < end; i++) {
+				char c = w[i];
+				if (c == delim || c == '/' || c == '>' || c == entity
+						|| c == '\n' || c == '\r') {
+					break;
+				}
+			}
+		}
+		appendWindow(start, i);
+	}
+
+	/**
+	 * Assumes the &amp; has already been parsed. The rest of the entity is
+	 * appended as it is matched, one character at a time against
+	 * EntityTable.HTML5, and the longest name with a value is used, as in
+	 * HTML, so &amp;notit; is &amp;not followed by "it;". Only the legacy
+	 * names can be followed by more of a longer name, and no longer name goes
+	 * more than 8 characters past one, so we never move back more than
+	 * MAX_UNREAD. If it is not an entity, what has been appended is just
+	 * text.
+	 * 
+	 * @param inAttribute
+	 *            A legacy name without a ';' is not an entity if a letter,
+	 *            digit or '=' follows, as in HTML attribute values.
+	 * @return true if it is an entity, and its value is in entityValue.
+	 */
+	private boolean parseEntity(boolean inAttribute) throws IOException {
+		int i = readInt();
+		if (i == '#') {
+			append('#');
+			return parseCharacterReference();
+		}
+
+		EntityTable table = EntityTable.HTML5;
+		int node = EntityTable.ROOT;
+		// The longest name with a value so far, and where it ends.
+		int match = EntityTable.NO_NODE;
+		int matchEnd = 0;
+		while (true) {
+			int child = i != -1 ? table.getChild(node, (char) i)
+					: EntityTable.NO_NODE;
+			if (child == EntityTable.NO_NODE) {
+				unread();
+				break;
+			}
+			append((char) i);
+			node = child;
+			if (table.hasValue(node)) {
+				match = node;
+				matchEnd = dataLength;
+			}
+			if (i == ';') {
+				break;
+			}
+			i = readInt();
+		}
+
+		if (match == EntityTable.NO_NODE) {
+			return false;
+		}
+		// Move back to the end of it, so the rest is read as text.
+		unread(dataLength - matchEnd);
+		dataLength = matchEnd;
+		if (inAttribute && dataBuffer[matchEnd - 1] != ';') {
+			int next = readInt();
+			unread();
+			if (next == '=' || digitValue(next, 10) != -1
+					|| (next >= 'a' && next <= 'z')
+					|| (next >= 'A' && next <= 'Z')) {
+				return false;
 			}
+		}
+		entityValueLength = table.getValue(match, entityValue, 0);
+		return true;
+	}
+
+	/**
+	 * Assumes the &amp;# has already been parsed. The ';' on the end is
+	 * optional, as it is in HTML. A reference to an invalid code point stands
+	 * for U+FFFD.
+	 */
+	private boolean parseCharacterReference() throws IOException {
+		int i = readInt();
+		int radix = 10;
+		if (i == 'x' || i == 'X') {
+			append((char) i);
+			radix = 16;
+			i = readInt();
+		}
 
-			tokenName = name;
-			tokenType = PI;
+		int codePoint = 0;
+		int digits = 0;
+		int digit;
+		while ((digit = digitValue(i, radix)) != -1) {
+			append((char) i);
+			// Stop at anything too big, so it cannot overflow.
+			codePoint = Math.min(codePoint * radix + digit, 0x110000);
+			digits++;
+			i = readInt();
+		}
+		if (i == ';' && digits > 0) {
+			append(';');
 		} else {
-			endOfTextIndex = -1;
+			unread();
+		}
+		if (digits == 0) {
+			return false;
+		}
+
+		if (codePoint == 0 || codePoint > Character.MAX_CODE_POINT
+				|| (codePoint >= Character.MIN_SURROGATE
+						&& codePoint <= Character.MAX_SURROGATE)) {
+			codePoint = 0xFFFD;
 		}
+		entityValueLength = Character.toChars(codePoint, entityValue, 0);
+		return true;
 	}
 
 	/**
-	 * This parses a START_TAG or EMPTY_TAG. Assumes the < has already been
-	 * parsed.
+	 * Value of the ASCII digit i, or -1 if it is not one.
 	 */
-	private void parseStartTag() throws IOException {
-		String name = getNmToken();
-		skipWhitespace();
-		char c = read();
-		while (c != '/' && c != '>') {
-			unread(c);
-			parseAttribute();
-			skipWhitespace();
-			c = read();
+	private static int digitValue(int i, int radix) {
+		if (i >= '0' && i <= '9') {
+			return i - '0';
+		} else if (radix == 16 && i >= 'a' && i <= 'f') {
+			return i - 'a' + 10;
+		} else if (radix == 16 && i >= 'A' && i <= 'F') {
+			return i - 'A' + 10;
+		} else {
+			return -1;
 		}
+	}
 
-		// Now we are at the end of the element.
-		switch (c) {
-		case '>':
-			tokenName = name;
-			tokenType = START_TAG;
-			break;
-		case '/':
-			require('>');
-			tokenName = name;
-			tokenType = EMPTY_TAG;
-			break;
+	private void appendEntityValue() throws IOException {
+		for (int k = 0; k < entityValueLength; k++) {
+			append(entityValue[k]);
 		}
 	}
 
 	/**
-	 * Assumes that the </ have already been found.
+	 * Record where an attribute name and value are in the dataBuffer.
 	 */
-	private void parseEndTag() throws IOException {
-		String name = getNmToken();
-
-		// Check that it is legal.
-		skipWhitespace();
-		// In case some person wanted to put a datasource in the end tag as
-		// well.
-		parseUntil('>');
-		// require('>');
-		tokenName = name;
-		tokenType = END_TAG;
+	private void addAttribute(int nameStart, int nameEnd, int valueStart,
+			int valueEnd) {
+		int i = attributeCount * 4;
+		if (i == attributeOffsets.length) {
+			attributeOffsets = Arrays.copyOf(attributeOffsets, i * 2);
+		}
+		attributeOffsets[i] = nameStart;
+		attributeOffsets[i + 1] = nameEnd;
+		attributeOffsets[i + 2] = valueStart;
+		attributeOffsets[i + 3] = valueEnd;
+		attributeIndex.add(dataBuffer, attributeOffsets);
+		attributeCount++;
 	}
 
 	/**
-	 * Assume we should be at the start of the next name=value.
-	 * 
-	 * If the attribute does not start with a &quot; character, then there
-	 * cannot be any whitespace.
+	 * Record where the last attribute added is in the input.
 	 */
-	private void parseAttribute() throws IOException {
-		// Get the attribute name.
-		String name = getNmToken();
-		skipWhitespace();
-		require('=');
-		skipWhitespace();
-
-		// Get Delimiter.
-		char delim = read();
-
-		if (delim != '\"' && delim != '\'') {
-			unread(delim);
-			delim = '\0';
+	private void setAttributeLocation(long nameOffset, long valueOffset,
+			long valueEndOffset, int valueLine, int valueColumn) {
+		int i = (attributeCount - 1) * 5;
+		if (i == attributeLocations.length) {
+			attributeLocations = Arrays.copyOf(attributeLocations, i * 2);
 		}
+		attributeLocations[i] = nameOffset;
+		attributeLocations[i + 1] = valueOffset;
+		attributeLocations[i + 2] = valueEndOffset;
+		attributeLocations[i + 3] = valueLine;
+		attributeLocations[i + 4] = valueColumn;
+	}
 
-		int indexOfStart = getIndex();
-		char c = read();
+	/**
+	 * Forget the attributes of the last token.
+	 */
+	private void clearAttributes() {
+		attributeList.clear();
+		attributeCount = 0;
+		attributeIdCount = 0;
+		attributeIndex.clear();
+		ignoreCaseAttributeIndex.clear();
+	}
+
+	/**
+	 * We know that we have read in the required character if no exception is
+	 * thrown indicating end of stream.
+	 */
+	private void parseUntil(char chr) throws IOException {
+		int c;
 		while (true) {
-			if (delim == '\0') {
-				if (c == '/' || c == '>' || Character.isWhitespace(c)) {
-					unread(c);
-					break;
-				}
-			} else {
-				// Ensure previous was not an escape character.
-				if (getString(getIndex() - 1, getIndex()).charAt(0) != '\\'
-						&& c == delim) {
-					break;
-				} else if (c == '\n' || c == '\r') {
-					throw new IOException("Line:" + getLineNumber()
-							+ "; Newline in attribute value.");
-				} else if (c == '/' || c == '>') {
-					throw new IOException("Line:" + getLineNumber()
-							+ "; Attribute value was not closed correctly: "
-							+ c);
-				}
+			appendUntil(chr);
+			// Either chr, or the window needs refilling.
+			c = readInt();
+			if (c == chr) {
+				return;
 			}
+			if (c == -1) {
+				// Recovering, the token ends at the end of the input.
+				unread();
+				error(HxmlParseException.END_OF_INPUT, chr, 0);
+				return;
+			}
+			append((char) c);
+		}
+	}
 
-			append(c);
-
-			// Read next character.
-			c = read();
+	/**
+	 * Append the characters in the window up to the next stop, or the end of
+	 * the window, in one go. The stop character is not read.
+	 */
+	private void appendUntil(char stop) throws IOException {
+		char[] w = window;
+		int start = position;
+		int end = limit;
+		int i = start;
+		while (i < end && w[i] != stop) {
+			i++;
 		}
+		appendWindow(start, i);
+	}
 
-		String value = getString(indexOfStart, getIndex());
-		attributeList.add(new Attribute(name, value));
+	/**
+	 * Same as appendUntil(char), but stops at either character.
+	 */
+	private void appendUntil(char stop, char stop2) throws IOException {
+		char[] w = window;
+		int start = position;
+		int end = limit;
+		int i = start;
+		for (; i < end; i++) {
+			char c = w[i];
+			if (c == stop || c == stop2) {
+				break;
+			}
+		}
+		appendWindow(start, i);
 	}
 
 	/**
-	 * We know that we have read in the required character if no exception is
-	 * thrown indicating end of stream.
+	 * Append window[start..end), and move the position to end.
 	 */
-	private void parseUntil(char chr) throws IOException {
-		char c;
-		while ((c = read()) != chr) {
-			append(c);
+	private void appendWindow(int start, int end) throws IOException {
+		int len = end - start;
+		if (len > 0) {
+			if (dataLength + len > dataBuffer.length) {
+				growDataBuffer(len);
+			}
+			System.arraycopy(window, start, dataBuffer, dataLength, len);
+			dataLength += len;
+			position = end;
 		}
 	}
 
@@ -694,7 +2952,7 @@ public class HxmlTokeniser {
 		if (c == chr) {
 			return true;
 		} else {
-			unread(c);
+			unread();
 			return false;
 		}
 	}
@@ -704,15 +2962,9 @@ public class HxmlTokeniser {
 	 * return true, otherwise push characters back and return false.
 	 */
 	private boolean tryRead(String s) throws IOException {
-		char c[] = new char[s.length()];
 		for (int i = 0; i < s.length(); i++) {
-			c[i] = read();
-			if (c[i] != s.charAt(i)) {
-				if (i == 0) {
-					unread(c[0]);
-				} else {
-					unread(c, i);
-				}
+			if (read() != s.charAt(i)) {
+				unread(i + 1);
 				return false;
 			}
 		}
@@ -721,34 +2973,112 @@ public class HxmlTokeniser {
 	}
 
 	/**
-	 * Keep reading (and appending) characters until the pattern is found.
+	 * Keep reading (and appending) characters until the pattern is found. The
+	 * pattern itself is read, but not appended.
+	 * 
+	 * <P>
+	 * The window is searched a block at a time, and everything before the
+	 * pattern is appended in one go. If the end of the window could be the
+	 * start of the pattern, those characters are unread after the window is
+	 * refilled, and searched again.
+	 * </P>
+	 * 
+	 * @param type
+	 *            The type of token being parsed, so next() can carry on from
+	 *            here if the input runs out while feeding.
 	 */
-	private void parseUntil(String pattern) throws IOException {
-		// Will only ever have to unread one less than the pattern.
-		char arr[] = new char[pattern.length() - 1];
+	private void parseUntil(String pattern, int type) throws IOException {
+		int length = pattern.length();
+		int start = dataLength;
+		int searched = 0;
+		while (true) {
+			int found = indexOf(pattern, position, limit);
+			if (found != -1) {
+				searched += found - position;
+				appendWindow(position, found);
+				position = found + length;
+				metrics.searched(type, searched);
+				return;
+			}
 
-		// So when we break out of the for loop it continues while.
-		retry: while (true) {
-			// Get first character.
-			parseUntil(pattern.charAt(0));
-			for (int i = 1; i < pattern.length(); i++) {
-				arr[i - 1] = read();
-				if (pattern.charAt(i) != arr[i - 1]) {
-					// Unread any extra characters.
-					if (i == 1) {
-						unread(arr[i - 1]);
-					} else {
-						unread(arr, i - 1);
-					}
+			// Hold back anything that might be the start of the pattern.
+			int keep = Math.min(length - 1, limit - position);
+			searched += limit - keep - position;
+			appendWindow(position, limit - keep);
+			position = limit - keep;
+			if (chunkHandler != null && dataLength - start >= chunkSize) {
+				start = passContent(type, start);
+			}
+			if (reader == null) {
+				mark(type);
+			}
+			position = limit;
+			if (!fill()) {
+				error(HxmlParseException.END_OF_INPUT, pattern.charAt(0), 0);
+				// Recovering, the token ends at the end of the input.
+				appendWindow(limit - keep, limit);
+				metrics.searched(type, searched + keep);
+				return;
+			}
+			unread(keep);
+		}
+	}
+
+	/**
+	 * Returns the index of the first occurrence of pattern in
+	 * window[from..to), or -1 if there is none.
+	 * 
+	 * This is Horspool's search: the last character of where the pattern
+	 * would be is checked first, and if it does not match, the pattern is
+	 * moved along as far as that character allows. That is the whole length
+	 * of the pattern for any character not in it, which a bit mask of the
+	 * pattern's characters rules out quickly.
+	 */
+	private int indexOf(String pattern, int from, int to) {
+		char[] w = window;
+		int length = pattern.length();
+		char last = pattern.charAt(length - 1);
+		int mask = 0;
+		for (int k = 0; k < length; k++) {
+			mask |= 1 << (pattern.charAt(k) & 31);
+		}
 
-					// Retry while loop.
-					continue retry;
+		int i = from + length - 1;
+		while (i < to) {
+			char c = w[i];
+			if ((mask & (1 << (c & 31))) == 0) {
+				i += length;
+			} else {
+				if (c == last && matches(w, i - length + 1, pattern)) {
+					return i - length + 1;
 				}
+				i += shift(pattern, c);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * How far the pattern can be moved along, when c is under its last
+	 * character.
+	 */
+	private static int shift(String pattern, char c) {
+		int last = pattern.length() - 1;
+		for (int k = last - 1; k >= 0; k--) {
+			if (pattern.charAt(k) == c) {
+				return last - k;
+			}
+		}
+		return last + 1;
+	}
+
+	private static boolean matches(char[] w, int offset, String pattern) {
+		for (int k = 0; k < pattern.length(); k++) {
+			if (w[offset + k] != pattern.charAt(k)) {
+				return false;
 			}
-			// Finished for loop, so break out completely, as we found what we
-			// were looking for.
-			break;
 		}
+		return true;
 	}
 
 	/**
@@ -756,37 +3086,148 @@ public class HxmlTokeniser {
 	 * method was called.
 	 */
 	private void reset() {
-		dataBuffer.setLength(0);
+		dataLength = 0;
 		endOfTextIndex = -1;
-		attributeList.clear();
+		clearAttributes();
 		tokenType = -1;
 		tokenName = null;
+		tokenNameStart = -1;
+		tokenNameEnd = -1;
+		markType = -1;
+		textChunked = false;
+		contentChunked = false;
 	}
 
 	/**
-	 * Search for name in names array.
+	 * Is the name in dataBuffer[nameStart..nameEnd) one of the tags passed to
+	 * setTags(...)? Always true if none have been.
 	 */
-	private boolean isFound(String name, String[] names, boolean ignoreCase) {
-		for (int i = 0; i < names.length; i++) {
-			if (ignoreCase) {
-				if (name.equalsIgnoreCase(names[i])) {
-					return true;
-				}
-			} else {
-				if (name.equals(names[i])) {
-					return true;
-				}
-			}
-		}
-		// Nothing found.
-		return false;
+	private boolean isFound(int nameStart, int nameEnd) {
+		return tags == null
+				|| tags.contains(dataBuffer, nameStart, nameEnd - nameStart);
 	}
 
 	/**
-	 * Instead of using pushbackbuffer, lets use this instead.
+	 * The input window, the characters from the reader are read into here in
+	 * blocks. Unreading is just moving position back.
+	 */
+	private char[] window;
+
+	/**
+	 * Offset in the input of window[0].
+	 */
+	private long windowStart = 0;
+
+	/**
+	 * Index of the next character to be read from the window.
+	 */
+	private int position = 0;
+
+	/**
+	 * Index after the last valid character in the window.
+	 */
+	private int limit = 0;
+
+	/**
+	 * The furthest position reached before the last unread, so characters
+	 * that have been unread are still counted by getLineNumber().
+	 */
+	private int readAhead = 0;
+
+	/**
+	 * Set once the reader has returned -1, or endOfInput() has been called.
+	 */
+	private boolean eof = false;
+
+	/**
+	 * Where next() goes back to if the input runs out while feeding: the
+	 * position in the window, and the state of the token at that point.
+	 * markType is -1 between tokens, or the type of token whose body was
+	 * being parsed.
+	 */
+	private int markType = -1;
+	private int markPosition = 0;
+	private int markLength = 0;
+	private int markEndOfText = -1;
+	private int markNameStart = -1;
+	private int markNameEnd = -1;
+
+	/**
+	 * Set when next() has returned NEED_MORE_INPUT, so the next call carries
+	 * on from the mark rather than starting a new token.
+	 */
+	private boolean resuming = false;
+
+	/**
+	 * Offset in the input of the end of what had been fed in when next()
+	 * last returned NEED_MORE_INPUT, see isWorthResuming().
+	 */
+	private long scannedTo = 0;
+
+	private final NeedMoreInputException needMoreInput = new NeedMoreInputException();
+
+	/**
+	 * Used by feed(ByteBuffer), with the bytes of any character that has not
+	 * been completely fed in yet.
+	 */
+	private CharsetDecoder decoder;
+	private ByteBuffer undecoded;
+
+	/**
+	 * Where the text before the current token, and the token itself, start in
+	 * the input, see getOffset().
+	 */
+	private long textStartOffset = 0;
+	private long tokenStartOffset = 0;
+	private long tokenEndOffset = 0;
+
+	/**
+	 * Line and column of the text before the current token, and of the token
+	 * itself.
+	 */
+	private int textStartLine = 1;
+	private int textStartColumn = 1;
+	private int tokenStartLine = 1;
+	private int tokenStartColumn = 1;
+
+	/**
+	 * Number of line terminators up to locateIndex in the window, and the
+	 * offset in the input of the line they end in, for the line and column
+	 * of where tokens start. This is kept apart from lineNumber, which also
+	 * counts characters that have been read ahead and unread.
+	 */
+	private int locatedLines = 0;
+	private long locatedLineStart = 0;
+	private int locateIndex = 0;
+	private int markLocatedLines = 0;
+	private long markLocatedLineStart = 0;
+
+	/**
+	 * Set if the last character read into the window was a '\r', so a
+	 * following '\n' must be dropped.
+	 */
+	private boolean skipLF = false;
+
+	/**
+	 * Offsets, after normalising, of the '\n' left by each "\r\n" from the
+	 * start of the text before the current token on, in droppedOffsets[
+	 * droppedStart..droppedEnd), and the number of them before that.
+	 */
+	private long[] droppedOffsets = new long[16];
+	private int droppedStart = 0;
+	private int droppedEnd = 0;
+	private long droppedBefore = 0;
+
+	/**
+	 * Number of line terminators counted up to lineScanIndex in the window.
+	 */
+	private int lineNumber = 0;
+	private int lineScanIndex = 0;
+
+	/**
+	 * Should text be returned as TEXT tokens?
 	 */
-	private char[] buf = new char[10];
-	private int pos = buf.length;
+	private boolean returnText = false;
 
 	/**
 	 * Should the parser treat comments as normal text?
@@ -805,29 +3246,247 @@ public class HxmlTokeniser {
 	private boolean ignorePI = false;
 
 	/**
-	 * Store the name of the Tag/Entity/Function here.
+	 * Which characters are part of a name or whitespace, and its table of the
+	 * ASCII ones.
+	 */
+	private CharClassifier charClassifier = CharClassifier.PERMISSIVE;
+	private byte[] asciiClasses = charClassifier.ascii;
+
+	/**
+	 * See setLimits(HxmlLimits), the limits are kept in ints as well, so they
+	 * can be checked quickly.
+	 */
+	private HxmlLimits limits = HxmlLimits.NONE;
+	private int maxNameLength = Integer.MAX_VALUE;
+	private int maxAttributes = Integer.MAX_VALUE;
+	private int maxTokenSize = Integer.MAX_VALUE;
+
+	/**
+	 * Set while tokenise(...) is passing text and content to a
+	 * HxmlChunkHandler, in pieces of chunkSize. textChunked and
+	 * contentChunked are set once some of the text or content of the current
+	 * token has been passed on, and skipping while an element is being
+	 * skipped, so nothing is passed on.
+	 */
+	private HxmlChunkHandler chunkHandler;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private boolean textChunked = false;
+	private boolean contentChunked = false;
+	private boolean skipping = false;
+
+	/**
+	 * Told about each block of input, token, error and so on.
+	 */
+	private HxmlMetrics metrics = HxmlMetrics.NONE;
+
+	/**
+	 * Told about errors that are recovered from, or null to throw
+	 * parseException instead.
+	 */
+	private HxmlErrorSink errorSink = null;
+	private HxmlParseException parseException = new HxmlParseException();
+
+	/**
+	 * Offset of the last error passed to the errorSink, so none are passed
+	 * twice.
+	 */
+	private long lastErrorOffset = -1;
+
+	/**
+	 * One of KEEP_ENTITIES, RETURN_ENTITIES or DECODE_ENTITIES.
+	 */
+	private int entityMode = KEEP_ENTITIES;
+
+	/**
+	 * What the last entity parsed stands for, at most two code points.
+	 */
+	private final char[] entityValue = new char[4];
+	private int entityValueLength = 0;
+
+	/**
+	 * The only tags that are returned, or null for all of them.
+	 */
+	private NameSet tags = null;
+
+	/**
+	 * Store the name of the Tag/Entity/Function here, once getTokenName() has
+	 * been called.
 	 */
 	private String tokenName = null;
 
+	/**
+	 * Where the token name is in the dataBuffer, or -1 if there is none.
+	 */
+	private int tokenNameStart = -1;
+	private int tokenNameEnd = -1;
+
 	/**
 	*/
 	private int tokenType = -1;
 
 	/**
-	 * Stores any attributes for the last element encountered with nextToken, as
-	 * long as the type is START_TAG or EMPTY_TAG.
+	 * Where the name and value of each attribute of the last START_TAG or
+	 * EMPTY_TAG are in the dataBuffer: nameStart, nameEnd, valueStart and
+	 * valueEnd for each one.
+	 */
+	private int[] attributeOffsets = new int[INITIAL_ATTRIBUTES * 4];
+
+	/**
+	 * Where each attribute is in the input: the offsets of its name, of the
+	 * start and end of its value, and the line and column of its value.
+	 */
+	private long[] attributeLocations = new long[INITIAL_ATTRIBUTES * 5];
+	private int attributeCount = 0;
+
+	/**
+	 * The SymbolTable ids of the first attributeIdCount attribute names, once
+	 * they have been looked up.
+	 */
+	private int[] attributeIds = new int[INITIAL_ATTRIBUTES];
+	private int attributeIdCount = 0;
+
+	/**
+	 * The attribute names, to find them by name. The one that ignores case is
+	 * only filled in when getAttributeIgnoreCase(...) is called.
+	 */
+	private final AttributeIndex attributeIndex = new AttributeIndex(false);
+	private final AttributeIndex ignoreCaseAttributeIndex = new AttributeIndex(
+			true);
+
+	/**
+	 * The Attribute objects, created from attributeOffsets the first time
+	 * getAttributes() is called for a token.
+	 */
+	private final ArrayList<Attribute> attributeList = new ArrayList<Attribute>();
+	private final List<Attribute> unmodifiableAttributeList = Collections
+			.unmodifiableList(attributeList);
+
+	/**
+	 * The attributes passed to a HxmlHandler.
+	 */
+	private final HxmlAttributes attributes = new HxmlAttributes() {
+		public int getLength() {
+			return attributeCount;
+		}
+
+		public int getNameOffset(int index) {
+			return attributeOffsets[check(index)];
+		}
+
+		public int getNameLength(int index) {
+			int i = check(index);
+			return attributeOffsets[i + 1] - attributeOffsets[i];
+		}
+
+		public int getValueOffset(int index) {
+			return attributeOffsets[check(index) + 2];
+		}
+
+		public int getValueLength(int index) {
+			int i = check(index);
+			return attributeOffsets[i + 3] - attributeOffsets[i + 2];
+		}
+
+		public String getName(int index) {
+			int i = check(index);
+			if (isReplayingIds()) {
+				int id = getReplayNameId(index);
+				if (id != SymbolTable.NO_ID) {
+					return symbolTable.getName(id);
+				}
+			}
+			return HxmlTokeniser.this.getName(attributeOffsets[i],
+					attributeOffsets[i + 1]);
+		}
+
+		public String getValue(int index) {
+			int i = check(index);
+			return getString(attributeOffsets[i + 2], attributeOffsets[i + 3]);
+		}
+
+		public int getIndex(String name) {
+			return getAttributeIndex(name);
+		}
+
+		public int getNameId(int index) {
+			check(index);
+			if (isReplayingIds()) {
+				return getReplayNameId(index);
+			} else if (symbolTable != null) {
+				// Looked up once for each token, in order.
+				while (attributeIdCount <= index) {
+					int k = attributeIdCount * 4;
+					if (attributeIdCount == attributeIds.length) {
+						attributeIds = Arrays.copyOf(attributeIds,
+								attributeIdCount * 2);
+					}
+					attributeIds[attributeIdCount++] = symbolTable.getId(
+							dataBuffer, attributeOffsets[k],
+							attributeOffsets[k + 1] - attributeOffsets[k]);
+				}
+				return attributeIds[index];
+			} else {
+				return SymbolTable.NO_ID;
+			}
+		}
+
+		/**
+		 * Returns where the offsets for the attribute at index start.
+		 */
+		private int check(int index) {
+			if (index < 0 || index >= attributeCount) {
+				throw new IndexOutOfBoundsException("Attribute: " + index);
+			}
+			return index * 4;
+		}
+	};
+
+	/**
+	 * Where tag and attribute names are looked up.
+	 */
+	private SymbolTable symbolTable = new SymbolTable();
+
+	/**
+	 * Stores the reader we want to read from, null if input is fed in.
+	 */
+	private Reader reader;
+
+	/**
+	 * The whole input if it is in memory, otherwise null.
+	 */
+	private CharSequence input;
+
+	/**
+	 * The document being replayed, or null if tokenising input. The state of
+	 * the current token that is not in the dataBuffer is kept in the replay
+	 * fields.
+	 */
+	private CompiledDocument document;
+	private int replayIndex = 0;
+	private int replayLineNumber = 0;
+	private int replayTokenNameId = SymbolTable.NO_ID;
+	private int replayFirstAttribute = 0;
+
+	/**
+	 * Kept so reset(CharSequence) can reuse it.
 	 */
-	private final List<Attribute> attributeList = new ArrayList<Attribute>();
+	private CharSequenceReader charSequenceReader;
 
 	/**
-	 * Stores the reader we want to read from.
+	 * Stores the data accessed while searching for the current tag, up to
+	 * dataLength.
 	 */
-	private LineNumberReader reader = null;
+	private char[] dataBuffer;
+	private int dataLength = 0;
 
 	/**
-	 * Stores the data accessed while searching for the current tag.
+	 * Reused views over the dataBuffer.
 	 */
-	private StringBuilder dataBuffer = null;
+	private final CharRange textRange = new CharRange();
+	private final CharRange contentRange = new CharRange();
+	private final CharRange nameRange = new CharRange();
+	private final CharRange valueRange = new CharRange();
+	private final CharRange entityRange = new CharRange();
 
 	/**
 	 * When the start of a Tag/Entity/Function is encountered, this is set, so
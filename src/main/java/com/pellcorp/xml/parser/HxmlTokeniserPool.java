@@ -0,0 +1,147 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of HxmlTokenisers, for when lots of small documents are
+ * tokenised, so each one does not have to allocate and grow new buffers.
+ * 
+ * <P>
+ * The pool can be used from several threads at once. Every tokeniser from a
+ * pool uses its SymbolTable, and has the default settings when it is
+ * acquired. A tokeniser whose buffers have grown bigger than the maximum
+ * retained size gets new, small ones when it is released, so one huge
+ * document does not pin a huge buffer.
+ * </P>
+ */
+public class HxmlTokeniserPool {
+	/**
+	 * Number of idle tokenisers kept, if none is specified in the
+	 * constructor.
+	 */
+	public static final int DEFAULT_MAX_IDLE = 64;
+
+	/**
+	 * Size in characters above which a buffer is not kept, if none is
+	 * specified in the constructor.
+	 */
+	public static final int DEFAULT_MAX_RETAINED_SIZE = 1 << 20;
+
+	private static final int MIN_RETAINED_SIZE = 1024;
+
+	public HxmlTokeniserPool() {
+		this(DEFAULT_MAX_IDLE, DEFAULT_MAX_RETAINED_SIZE);
+	}
+
+	/**
+	 * @param maxIdle
+	 *            The most tokenisers kept while they are not being used.
+	 * @param maxRetainedSize
+	 *            The largest buffer, in characters, that is kept when a
+	 *            tokeniser is released.
+	 */
+	public HxmlTokeniserPool(int maxIdle, int maxRetainedSize) {
+		if (maxIdle <= 0) {
+			throw new IllegalArgumentException("Invalid max idle: " + maxIdle);
+		}
+		if (maxRetainedSize < MIN_RETAINED_SIZE) {
+			throw new IllegalArgumentException("Max retained size must be at least "
+					+ MIN_RETAINED_SIZE + ": " + maxRetainedSize);
+		}
+		this.idle = new ArrayBlockingQueue<HxmlTokeniser>(maxIdle);
+		this.maxRetainedSize = maxRetainedSize;
+	}
+
+	/**
+	 * The table shared by every tokeniser from this pool.
+	 */
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	/**
+	 * Returns a tokeniser reading from reader, which should be given back
+	 * with release(...) once finished with.
+	 */
+	public HxmlTokeniser acquire(Reader reader) {
+		HxmlTokeniser tokeniser = idle.poll();
+		if (tokeniser == null) {
+			tokeniser = new HxmlTokeniser(reader);
+			tokeniser.setSymbolTable(symbolTable);
+		} else {
+			tokeniser.reset(reader);
+		}
+		return tokeniser;
+	}
+
+	/**
+	 * Returns a tokeniser for input that is in memory, see acquire(Reader).
+	 */
+	public HxmlTokeniser acquire(CharSequence input) {
+		HxmlTokeniser tokeniser = idle.poll();
+		if (tokeniser == null) {
+			tokeniser = new HxmlTokeniser(input);
+			tokeniser.setSymbolTable(symbolTable);
+		} else {
+			tokeniser.reset(input);
+		}
+		return tokeniser;
+	}
+
+	/**
+	 * Give a tokeniser back to the pool, it must not be used again. If the
+	 * pool is full, it is just dropped.
+	 */
+	public void release(HxmlTokeniser tokeniser) {
+		tokeniser.release(maxRetainedSize);
+		tokeniser.ignoreComments(false);
+		tokeniser.ignoreCData(false);
+		tokeniser.ignorePI(false);
+		tokeniser.setReturnText(false);
+		tokeniser.setEntityMode(HxmlTokeniser.KEEP_ENTITIES);
+		tokeniser.setCharClassifier(CharClassifier.PERMISSIVE);
+		tokeniser.setMetrics(HxmlMetrics.NONE);
+		tokeniser.setLimits(HxmlLimits.NONE);
+		tokeniser.setErrorSink(null);
+		tokeniser.setChunkSize(HxmlTokeniser.DEFAULT_CHUNK_SIZE);
+		tokeniser.setTags(null, false);
+		tokeniser.setSymbolTable(symbolTable);
+		idle.offer(tokeniser);
+	}
+
+	/**
+	 * Number of tokenisers in the pool, that are not in use.
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	private final ArrayBlockingQueue<HxmlTokeniser> idle;
+	private final int maxRetainedSize;
+
+	/**
+	 * Shared by all the tokenisers.
+	 */
+	private final SymbolTable symbolTable = new SymbolTable();
+}
@@ -0,0 +1,640 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A document tree, built in one pass over the tokens of a HxmlTokeniser,
+ * and kept in a few arrays rather than an object for each node.
+ * 
+ * <P>
+ * Nodes are numbered in document order, from the DOCUMENT node at 0. Each
+ * one has an int in the parent, first child and next sibling arrays, its
+ * type, and the SymbolTable id of its name. Names, text and attribute values
+ * are ranges of a single char[]. Element names are always kept there as
+ * well, so they can be found if the SymbolTable is full, or there is none.
+ * </P>
+ * 
+ * <P>
+ * Adjacent text and entities are joined into one TEXT node. An end tag
+ * closes the nearest open element with the same name, and any open inside
+ * it. One that matches no open element is dropped, as are any attributes
+ * of an end tag. Anything still open at the end is closed there. A tree
+ * never changes once built, so it can be read on any number of threads.
+ * </P>
+ * 
+ * @see Cursor
+ */
+public final class HxmlTree {
+	/**
+	 * Returned instead of a node, if there is none.
+	 */
+	public static final int NO_NODE = -1;
+
+	/**
+	 * The types of node. An element is a START_TAG, even if it was an
+	 * EMPTY_TAG.
+	 */
+	public static final int DOCUMENT = 0;
+	public static final int ELEMENT = HxmlTokeniser.START_TAG;
+	public static final int TEXT = HxmlTokeniser.TEXT;
+	public static final int COMMENT = HxmlTokeniser.COMMENT;
+	public static final int CDATA = HxmlTokeniser.CDATA;
+	public static final int PI = HxmlTokeniser.PI;
+
+	private final byte[] types;
+	private final int[] parents;
+	private final int[] firstChildren;
+	private final int[] nextSiblings;
+	private final int[] nameIds;
+
+	/**
+	 * The name of each node is at chars[starts[n]..) for nameLengths[n], and
+	 * its value straight after it, for valueLengths[n].
+	 */
+	private final int[] starts;
+	private final int[] nameLengths;
+	private final int[] valueLengths;
+	private final int[] lineNumbers;
+
+	/**
+	 * The attributes of node n are firstAttributes[n] up to
+	 * firstAttributes[n + 1].
+	 */
+	private final int[] firstAttributes;
+
+	/**
+	 * The ints kept for each attribute: its name id, and where its name is in
+	 * chars, followed by its value.
+	 */
+	private static final int NAME_ID = 0;
+	private static final int START = 1;
+	private static final int NAME_LENGTH = 2;
+	private static final int VALUE_LENGTH = 3;
+	private static final int ATTRIBUTE_FIELDS = 4;
+	private final int[] attributes;
+
+	private final char[] chars;
+	private final SymbolTable symbolTable;
+
+	private HxmlTree(Builder builder) {
+		int count = builder.count;
+		this.types = Arrays.copyOf(builder.types, count);
+		this.parents = Arrays.copyOf(builder.parents, count);
+		this.firstChildren = Arrays.copyOf(builder.firstChildren, count);
+		this.nextSiblings = Arrays.copyOf(builder.nextSiblings, count);
+		this.nameIds = Arrays.copyOf(builder.nameIds, count);
+		this.starts = Arrays.copyOf(builder.starts, count);
+		this.nameLengths = Arrays.copyOf(builder.nameLengths, count);
+		this.valueLengths = Arrays.copyOf(builder.valueLengths, count);
+		this.lineNumbers = Arrays.copyOf(builder.lineNumbers, count);
+		this.firstAttributes = Arrays.copyOf(builder.firstAttributes,
+				count + 1);
+		this.firstAttributes[count] = builder.attributeCount;
+		this.attributes = Arrays.copyOf(builder.attributes,
+				builder.attributeCount * ATTRIBUTE_FIELDS);
+		this.chars = Arrays.copyOf(builder.chars, builder.length);
+		this.symbolTable = builder.symbolTable;
+	}
+
+	/**
+	 * Build a tree from the rest of the tokeniser's input. Its settings are
+	 * used, except that text is always kept, including any after the last
+	 * tag.
+	 */
+	public static HxmlTree build(HxmlTokeniser tokeniser) throws IOException {
+		Builder builder = new Builder(tokeniser);
+		boolean returnText = tokeniser.isReturnText();
+		tokeniser.setReturnText(true);
+		try {
+			tokeniser.tokenise(builder);
+		} finally {
+			tokeniser.setReturnText(returnText);
+		}
+		return new HxmlTree(builder);
+	}
+
+	/**
+	 * The DOCUMENT node, which all the others are inside.
+	 */
+	public int getRoot() {
+		return 0;
+	}
+
+	/**
+	 * Number of nodes, including the DOCUMENT.
+	 */
+	public int getNodeCount() {
+		return types.length;
+	}
+
+	/**
+	 * Type of node, DOCUMENT, ELEMENT, TEXT, COMMENT, CDATA or PI.
+	 */
+	public int getType(int node) {
+		return types[node];
+	}
+
+	public int getParent(int node) {
+		return parents[node];
+	}
+
+	public int getFirstChild(int node) {
+		return firstChildren[node];
+	}
+
+	public int getNextSibling(int node) {
+		return nextSiblings[node];
+	}
+
+	/**
+	 * The first child element of node called name, or NO_NODE.
+	 */
+	public int getFirstChild(int node, String name) {
+		int child = firstChildren[node];
+		for (; child != NO_NODE; child = nextSiblings[child]) {
+			if (types[child] == ELEMENT
+					&& equals(starts[child], nameLengths[child], name)) {
+				return child;
+			}
+		}
+		return NO_NODE;
+	}
+
+	/**
+	 * The next sibling of node that is an element, or NO_NODE.
+	 */
+	public int getNextElement(int node) {
+		int sibling = nextSiblings[node];
+		while (sibling != NO_NODE && types[sibling] != ELEMENT) {
+			sibling = nextSiblings[sibling];
+		}
+		return sibling;
+	}
+
+	/**
+	 * The SymbolTable id of the name of an ELEMENT or the target of a PI, or
+	 * SymbolTable.NO_ID.
+	 */
+	public int getNameId(int node) {
+		return nameIds[node];
+	}
+
+	/**
+	 * The name of an ELEMENT or the target of a PI, or null for any other
+	 * node.
+	 */
+	public String getName(int node) {
+		if (nameLengths[node] == 0) {
+			return null;
+		}
+		return getName(nameIds[node], starts[node], nameLengths[node]);
+	}
+
+	/**
+	 * The text of a TEXT node, or the content of a COMMENT, CDATA or the data
+	 * of a PI, without the delimiters. null for an ELEMENT or the DOCUMENT.
+	 */
+	public String getValue(int node) {
+		if (types[node] == ELEMENT || types[node] == DOCUMENT) {
+			return null;
+		}
+		return new String(chars, starts[node] + nameLengths[node],
+				valueLengths[node]);
+	}
+
+	/**
+	 * Same as getValue(int), but returns a view over the tree's chars, rather
+	 * than creating a String.
+	 */
+	public CharRange getValueRange(int node) {
+		if (types[node] == ELEMENT || types[node] == DOCUMENT) {
+			return null;
+		}
+		return new CharRange(chars, starts[node] + nameLengths[node],
+				valueLengths[node]);
+	}
+
+	/**
+	 * All the text in node, and the nodes inside it, including CDATA.
+	 */
+	public String getTextContent(int node) {
+		StringBuilder text = new StringBuilder();
+		Cursor cursor = cursor(node);
+		while (cursor.next()) {
+			int n = cursor.getNode();
+			if (types[n] == TEXT || types[n] == CDATA) {
+				text.append(chars, starts[n] + nameLengths[n], valueLengths[n]);
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Line the node starts on.
+	 */
+	public int getLineNumber(int node) {
+		return lineNumbers[node];
+	}
+
+	/**
+	 * Number of attributes of node, 0 for anything but an ELEMENT.
+	 */
+	public int getAttributeCount(int node) {
+		return firstAttributes[node + 1] - firstAttributes[node];
+	}
+
+	public int getAttributeNameId(int node, int index) {
+		return attributes[checkAttribute(node, index) + NAME_ID];
+	}
+
+	public String getAttributeName(int node, int index) {
+		int k = checkAttribute(node, index);
+		return getName(attributes[k + NAME_ID], attributes[k + START],
+				attributes[k + NAME_LENGTH]);
+	}
+
+	public String getAttributeValue(int node, int index) {
+		int k = checkAttribute(node, index);
+		return new String(chars, attributes[k + START]
+				+ attributes[k + NAME_LENGTH], attributes[k + VALUE_LENGTH]);
+	}
+
+	/**
+	 * The value of the first attribute of node called name, or null if there
+	 * is none.
+	 */
+	public String getAttribute(int node, String name) {
+		for (int a = firstAttributes[node]; a < firstAttributes[node + 1]; a++) {
+			int k = a * ATTRIBUTE_FIELDS;
+			if (equals(attributes[k + START], attributes[k + NAME_LENGTH],
+					name)) {
+				return new String(chars, attributes[k + START]
+						+ attributes[k + NAME_LENGTH],
+						attributes[k + VALUE_LENGTH]);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The table the name ids are from, the SymbolTable of the tokeniser the
+	 * tree was built from.
+	 */
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	/**
+	 * Roughly how many bytes the arrays take up.
+	 */
+	public long getSize() {
+		return types.length + 4L * (9 * types.length + 1 + attributes.length)
+				+ 2L * chars.length;
+	}
+
+	/**
+	 * A cursor over node and everything inside it, depth first.
+	 */
+	public Cursor cursor(int node) {
+		if (node < 0 || node >= types.length) {
+			throw new IndexOutOfBoundsException("Node: " + node);
+		}
+		return new Cursor(node);
+	}
+
+	private String getName(int id, int start, int length) {
+		if (id != SymbolTable.NO_ID) {
+			return symbolTable.getName(id);
+		}
+		return new String(chars, start, length);
+	}
+
+	private boolean equals(int start, int length, String name) {
+		if (length != name.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (chars[start + i] != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns where the ints for the attribute at index of node start.
+	 */
+	private int checkAttribute(int node, int index) {
+		if (index < 0 || index >= getAttributeCount(node)) {
+			throw new IndexOutOfBoundsException("Attribute: " + index);
+		}
+		return (firstAttributes[node] + index) * ATTRIBUTE_FIELDS;
+	}
+
+	/**
+	 * Visits a node and the nodes inside it in document order, parents before
+	 * their children. Created with HxmlTree.cursor(int).
+	 */
+	public final class Cursor {
+		private final int top;
+		private int node = NO_NODE;
+		private int depth = 0;
+		private boolean started = false;
+		private boolean skipChildren = false;
+
+		private Cursor(int top) {
+			this.top = top;
+		}
+
+		/**
+		 * Move to the next node, the first call moves to the node the cursor
+		 * was created for.
+		 * 
+		 * @return false once every node has been visited.
+		 */
+		public boolean next() {
+			if (!started) {
+				started = true;
+				node = top;
+				return true;
+			}
+			if (node == NO_NODE) {
+				return false;
+			}
+			int child = skipChildren ? NO_NODE : firstChildren[node];
+			skipChildren = false;
+			if (child != NO_NODE) {
+				node = child;
+				depth++;
+				return true;
+			}
+			while (node != top) {
+				int sibling = nextSiblings[node];
+				if (sibling != NO_NODE) {
+					node = sibling;
+					return true;
+				}
+				node = parents[node];
+				depth--;
+			}
+			node = NO_NODE;
+			return false;
+		}
+
+		/**
+		 * The current node, or NO_NODE before the first call to next(), or
+		 * once it has returned false.
+		 */
+		public int getNode() {
+			return node;
+		}
+
+		/**
+		 * How far inside the node the cursor was created for the current node
+		 * is, 0 for that node itself.
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 * Do not visit the children of the current node, the next call to
+		 * next() moves to its next sibling instead.
+		 */
+		public void skipChildren() {
+			skipChildren = true;
+		}
+	}
+
+	/**
+	 * Used by build(HxmlTokeniser) to add the nodes as the tokens are passed
+	 * to it, in arrays that grow as required.
+	 */
+	private static final class Builder implements HxmlHandler {
+		private final HxmlTokeniser tokeniser;
+		private final SymbolTable symbolTable;
+		private byte[] types = new byte[64];
+		private int[] parents = new int[64];
+		private int[] firstChildren = new int[64];
+		private int[] nextSiblings = new int[64];
+		private int[] nameIds = new int[64];
+		private int[] starts = new int[64];
+		private int[] nameLengths = new int[64];
+		private int[] valueLengths = new int[64];
+		private int[] lineNumbers = new int[64];
+		private int[] firstAttributes = new int[65];
+		private int count = 0;
+		private int[] attributes = new int[64 * ATTRIBUTE_FIELDS];
+		private int attributeCount = 0;
+		private char[] chars = new char[1024];
+		private int length = 0;
+
+		/**
+		 * Only needed while building, to add children to the end.
+		 */
+		private int[] lastChildren = new int[64];
+
+		/**
+		 * The elements that are open, open[depth - 1] is the one nodes are
+		 * being added to.
+		 */
+		private int[] open = new int[16];
+		private int depth = 0;
+
+		Builder(HxmlTokeniser tokeniser) {
+			this.tokeniser = tokeniser;
+			this.symbolTable = tokeniser.getSymbolTable();
+			addNode(DOCUMENT, SymbolTable.NO_ID, 0, 0, 1);
+		}
+
+		public void text(char[] buf, int off, int len) {
+			int parent = getCurrent();
+			int last = lastChildren[parent];
+			// Join it on to the text before, if nothing has come between them.
+			if (last != NO_NODE && types[last] == TEXT
+					&& starts[last] + valueLengths[last] == length) {
+				append(buf, off, len);
+				valueLengths[last] += len;
+				return;
+			}
+			addNode(TEXT, SymbolTable.NO_ID, 0, len, tokeniser.getStartLine());
+			append(buf, off, len);
+		}
+
+		public boolean startTag(char[] buf, int nameOff, int nameLen,
+				HxmlAttributes attributes) {
+			int node = addElement(buf, nameOff, nameLen, attributes);
+			if (depth == open.length) {
+				open = Arrays.copyOf(open, depth * 2);
+			}
+			open[depth++] = node;
+			return true;
+		}
+
+		public void emptyTag(char[] buf, int nameOff, int nameLen,
+				HxmlAttributes attributes) {
+			addElement(buf, nameOff, nameLen, attributes);
+		}
+
+		public void endTag(char[] buf, int nameOff, int nameLen) {
+			int id = getId(buf, nameOff, nameLen);
+			for (int d = depth - 1; d >= 0; d--) {
+				if (isName(open[d], id, buf, nameOff, nameLen)) {
+					depth = d;
+					return;
+				}
+			}
+		}
+
+		public void comment(char[] buf, int off, int len) {
+			addValue(COMMENT, buf, off, len);
+		}
+
+		public void cdata(char[] buf, int off, int len) {
+			addValue(CDATA, buf, off, len);
+		}
+
+		public void pi(char[] buf, int targetOff, int targetLen, int dataOff,
+				int dataLen) {
+			addNode(PI, getId(buf, targetOff, targetLen), targetLen, dataLen,
+					tokeniser.getStartLine());
+			append(buf, targetOff, targetLen);
+			append(buf, dataOff, dataLen);
+		}
+
+		private int getCurrent() {
+			return depth > 0 ? open[depth - 1] : 0;
+		}
+
+		private int getId(char[] buf, int off, int len) {
+			return symbolTable != null ? symbolTable.getId(buf, off, len)
+					: SymbolTable.NO_ID;
+		}
+
+		/**
+		 * Is the name of node the one in buf, whose id is id?
+		 */
+		private boolean isName(int node, int id, char[] buf, int off, int len) {
+			if (id != SymbolTable.NO_ID && nameIds[node] != SymbolTable.NO_ID) {
+				return id == nameIds[node];
+			}
+			if (nameLengths[node] != len) {
+				return false;
+			}
+			int start = starts[node];
+			for (int i = 0; i < len; i++) {
+				if (chars[start + i] != buf[off + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int addElement(char[] buf, int nameOff, int nameLen,
+				HxmlAttributes atts) {
+			int node = addNode(ELEMENT, getId(buf, nameOff, nameLen), nameLen,
+					0, tokeniser.getStartLine());
+			append(buf, nameOff, nameLen);
+			int n = atts.getLength();
+			if ((attributeCount + n) * ATTRIBUTE_FIELDS > attributes.length) {
+				attributes = Arrays.copyOf(attributes, Math.max(
+						attributes.length * 2, (attributeCount + n)
+								* ATTRIBUTE_FIELDS));
+			}
+			for (int i = 0; i < n; i++) {
+				int k = attributeCount * ATTRIBUTE_FIELDS;
+				attributes[k + NAME_ID] = atts.getNameId(i);
+				attributes[k + START] = length;
+				attributes[k + NAME_LENGTH] = atts.getNameLength(i);
+				attributes[k + VALUE_LENGTH] = atts.getValueLength(i);
+				append(buf, atts.getNameOffset(i), atts.getNameLength(i));
+				append(buf, atts.getValueOffset(i), atts.getValueLength(i));
+				attributeCount++;
+			}
+			return node;
+		}
+
+		private void addValue(int type, char[] buf, int off, int len) {
+			addNode(type, SymbolTable.NO_ID, 0, len, tokeniser.getStartLine());
+			append(buf, off, len);
+		}
+
+		/**
+		 * Add a node as the last child of the current element, whose name and
+		 * value are about to be appended.
+		 */
+		private int addNode(int type, int nameId, int nameLength,
+				int valueLength, int lineNumber) {
+			if (count == types.length) {
+				int capacity = count * 2;
+				types = Arrays.copyOf(types, capacity);
+				parents = Arrays.copyOf(parents, capacity);
+				firstChildren = Arrays.copyOf(firstChildren, capacity);
+				nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+				nameIds = Arrays.copyOf(nameIds, capacity);
+				starts = Arrays.copyOf(starts, capacity);
+				nameLengths = Arrays.copyOf(nameLengths, capacity);
+				valueLengths = Arrays.copyOf(valueLengths, capacity);
+				lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+				firstAttributes = Arrays.copyOf(firstAttributes, capacity + 1);
+				lastChildren = Arrays.copyOf(lastChildren, capacity);
+			}
+			int node = count++;
+			types[node] = (byte) type;
+			firstChildren[node] = NO_NODE;
+			nextSiblings[node] = NO_NODE;
+			lastChildren[node] = NO_NODE;
+			nameIds[node] = nameId;
+			starts[node] = length;
+			nameLengths[node] = nameLength;
+			valueLengths[node] = valueLength;
+			lineNumbers[node] = lineNumber;
+			firstAttributes[node] = attributeCount;
+
+			if (node == 0) {
+				parents[node] = NO_NODE;
+			} else {
+				int parent = getCurrent();
+				parents[node] = parent;
+				int last = lastChildren[parent];
+				if (last == NO_NODE) {
+					firstChildren[parent] = node;
+				} else {
+					nextSiblings[last] = node;
+				}
+				lastChildren[parent] = node;
+			}
+			return node;
+		}
+
+		private void append(char[] buf, int off, int len) {
+			if (length + len > chars.length) {
+				chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length
+						+ len));
+			}
+			System.arraycopy(buf, off, chars, length, len);
+			length += len;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+/**
+ * A fixed set of names, that can be checked against a range of a char[]
+ * without creating a String. Used for the tags passed to
+ * HxmlTokeniser.setTags(...).
+ */
+final class NameSet {
+	private final boolean ignoreCase;
+
+	/**
+	 * Open addressing table of the names, with the hash of each one.
+	 */
+	private final char[][] names;
+	private final int[] hashes;
+
+	NameSet(String[] names, boolean ignoreCase) {
+		this.ignoreCase = ignoreCase;
+		int capacity = 4;
+		while (capacity < names.length * 2) {
+			capacity *= 2;
+		}
+		this.names = new char[capacity][];
+		this.hashes = new int[capacity];
+
+		for (String name : names) {
+			char[] chars = name.toCharArray();
+			if (!contains(chars, 0, chars.length)) {
+				int hash = hash(chars, 0, chars.length);
+				int slot = mix(hash) & (capacity - 1);
+				while (this.names[slot] != null) {
+					slot = (slot + 1) & (capacity - 1);
+				}
+				this.names[slot] = chars;
+				this.hashes[slot] = hash;
+			}
+		}
+	}
+
+	/**
+	 * Is buf[offset..offset+length) one of the names?
+	 */
+	boolean contains(char[] buf, int offset, int length) {
+		int hash = hash(buf, offset, length);
+		int mask = names.length - 1;
+		for (int slot = mix(hash) & mask; names[slot] != null; slot = (slot + 1)
+				& mask) {
+			if (hashes[slot] == hash && matches(names[slot], buf, offset, length)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean matches(char[] name, char[] buf, int offset, int length) {
+		if (name.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char c = buf[offset + i];
+			if (c != name[i] && (!ignoreCase || fold(c) != fold(name[i]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int hash(char[] buf, int offset, int length) {
+		int h = 0;
+		for (int i = offset; i < offset + length; i++) {
+			h = 31 * h + (ignoreCase ? fold(buf[i]) : buf[i]);
+		}
+		return h;
+	}
+
+	/**
+	 * The same comparison that String.equalsIgnoreCase uses.
+	 */
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,602 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Tokenises a large document on several threads, returning exactly the same
+ * tokens as calling HxmlTokeniser.nextToken() in a loop would.
+ * 
+ * <P>
+ * The input is split into chunks, each of which starts at a '&lt;' that looks
+ * like the start of a tag. As it is not possible to know whether that '&lt;'
+ * is really inside a comment, CDATA section, PI or quoted attribute value
+ * without tokenising everything before it, each chunk is tokenised on its own
+ * and the results are checked when they are stitched back together. Each
+ * chunk keeps going until it has passed the start of the next one, and the
+ * next chunk is only used from the first token that ends in the same place.
+ * If there is no such token, the tokeniser that ran over the boundary just
+ * carries on, so a bad guess costs time, never correctness.
+ * </P>
+ */
+public class ParallelHxmlTokeniser {
+	/**
+	 * Size of each chunk in characters, if none is specified in the
+	 * constructor.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int NOT_FOUND = -2;
+
+	public ParallelHxmlTokeniser() {
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param pool
+	 *            Where the chunks are tokenised.
+	 * @param chunkSize
+	 *            The approximate size of each chunk in characters.
+	 */
+	public ParallelHxmlTokeniser(ForkJoinPool pool, int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid chunk size: "
+					+ chunkSize);
+		}
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @see HxmlTokeniser#ignoreComments(boolean)
+	 */
+	public void ignoreComments(boolean b) {
+		this.ignoreComments = b;
+	}
+
+	/**
+	 * @see HxmlTokeniser#ignoreCData(boolean)
+	 */
+	public void ignoreCData(boolean b) {
+		this.ignoreCData = b;
+	}
+
+	/**
+	 * @see HxmlTokeniser#ignorePI(boolean)
+	 */
+	public void ignorePI(boolean b) {
+		this.ignorePI = b;
+	}
+
+	/**
+	 * @see HxmlTokeniser#setReturnText(boolean)
+	 */
+	public void setReturnText(boolean returnText) {
+		this.returnText = returnText;
+	}
+
+	/**
+	 * @see HxmlTokeniser#setEntityMode(int)
+	 */
+	public void setEntityMode(int mode) {
+		this.entityMode = HxmlTokeniser.checkEntityMode(mode);
+	}
+
+	/**
+	 * @see HxmlTokeniser#setCharClassifier(CharClassifier)
+	 */
+	public void setCharClassifier(CharClassifier charClassifier) {
+		if (charClassifier == null) {
+			throw new IllegalArgumentException("charClassifier must not be null");
+		}
+		this.charClassifier = charClassifier;
+	}
+
+	/**
+	 * The metrics are shared by the tokenisers of all the chunks, so they must
+	 * be safe to use from several threads, as HxmlStatistics is. Where chunks
+	 * overlap, the tokens are counted by both of them.
+	 * 
+	 * @see HxmlTokeniser#setMetrics(HxmlMetrics)
+	 */
+	public void setMetrics(HxmlMetrics metrics) {
+		if (metrics == null) {
+			throw new IllegalArgumentException("metrics must not be null");
+		}
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @see HxmlTokeniser#setLimits(HxmlLimits)
+	 */
+	public void setLimits(HxmlLimits limits) {
+		if (limits == null) {
+			throw new IllegalArgumentException("limits must not be null");
+		}
+		this.limits = limits;
+	}
+
+	/**
+	 * @see HxmlTokeniser#setTags(String[], boolean)
+	 */
+	public void setTags(String[] tags, boolean ignoreCase) {
+		this.tags = tags != null ? new NameSet(tags, ignoreCase) : null;
+	}
+
+	void setTagSet(NameSet tags) {
+		this.tags = tags;
+	}
+
+	/**
+	 * The table shared by the tokeniser for each chunk.
+	 */
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	/**
+	 * @see HxmlTokeniser#setSymbolTable(SymbolTable)
+	 */
+	public void setSymbolTable(SymbolTable symbolTable) {
+		this.symbolTable = symbolTable;
+	}
+
+	/**
+	 * Decode file and tokenise it. UTF-8 is decoded in parallel as well.
+	 * 
+	 * @exception IOException
+	 *                If file is over 2GB, see HxmlByteTokeniser.map(File).
+	 *                The decoded characters have to fit in one CharSequence
+	 *                anyway.
+	 */
+	public List<Token> tokenise(File file, Charset charset) throws IOException {
+		return tokenise(decode(HxmlByteTokeniser.map(file), charset));
+	}
+
+	/**
+	 * Returns all the tokens in input, in document order.
+	 * 
+	 * @exception IOException
+	 *                The first exception that the sequential tokeniser would
+	 *                have thrown.
+	 */
+	public List<Token> tokenise(CharSequence input) throws IOException {
+		Chunk[] chunks = tokeniseChunks(input, false);
+		int[] ranges = stitch(chunks);
+		List<Token> result = new ArrayList<Token>();
+		for (int i = 0; i < ranges.length; i += 3) {
+			result.addAll(chunks[ranges[i]].tokens.subList(ranges[i + 1],
+					ranges[i + 2]));
+		}
+		return result;
+	}
+
+	/**
+	 * The same as tokenise(input), but only returns the type of each token,
+	 * so no Tokens are created.
+	 */
+	int[] tokeniseTypes(CharSequence input) throws IOException {
+		Chunk[] chunks = tokeniseChunks(input, true);
+		int[] ranges = stitch(chunks);
+		int length = 0;
+		for (int i = 0; i < ranges.length; i += 3) {
+			length += ranges[i + 2] - ranges[i + 1];
+		}
+		int[] types = new int[length];
+		int count = 0;
+		for (int i = 0; i < ranges.length; i += 3) {
+			int n = ranges[i + 2] - ranges[i + 1];
+			System.arraycopy(chunks[ranges[i]].types, ranges[i + 1], types,
+					count, n);
+			count += n;
+		}
+		return types;
+	}
+
+	/**
+	 * Split input into chunks, and tokenise each of them.
+	 * 
+	 * @param typesOnly
+	 *            Only record the type and end of each token, not the Token.
+	 */
+	private Chunk[] tokeniseChunks(CharSequence input, boolean typesOnly)
+			throws IOException {
+		int[] starts = findChunks(input);
+		Chunk[] chunks = new Chunk[starts.length];
+		for (int k = 0; k < chunks.length; k++) {
+			int end = k + 1 < starts.length ? starts[k + 1] : input.length();
+			chunks[k] = new Chunk(input, starts[k], end, typesOnly);
+		}
+
+		if (chunks.length == 1) {
+			chunks[0].next = Long.MAX_VALUE;
+			chunks[0].tokenise();
+			return chunks;
+		}
+
+		// First find out where each chunk starts, after line endings have
+		// been normalised, and how many lines there are before it.
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Chunk chunk : chunks) {
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					chunk.countLines();
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+
+		long offset = 0;
+		int lines = 0;
+		for (Chunk chunk : chunks) {
+			chunk.offset = offset;
+			chunk.linesBefore = lines;
+			offset += (chunk.end - chunk.start) - chunk.crlfCount;
+			lines += chunk.lineEndings;
+		}
+		for (int k = 0; k < chunks.length; k++) {
+			chunks[k].next = k + 1 < chunks.length ? chunks[k + 1].offset
+					: Long.MAX_VALUE;
+		}
+
+		tasks.clear();
+		for (final Chunk chunk : chunks) {
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					chunk.tokenise();
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+		return chunks;
+	}
+
+	/**
+	 * Join up the tokens from each chunk, see the class comment.
+	 * 
+	 * @return The tokens to use from each chunk, as the index of the chunk,
+	 *         and the index of the first and after the last token in it.
+	 */
+	private int[] stitch(Chunk[] chunks) throws IOException {
+		int[] ranges = new int[3 * chunks.length];
+		int count = 0;
+		int k = 0;
+		int from = 0;
+		while (true) {
+			Chunk chunk = chunks[k];
+			if (chunk.error != null) {
+				throw chunk.error;
+			}
+			if (!chunk.finished) {
+				// The last token has ended at or past the start of the next
+				// chunk.
+				long end = chunk.ends[chunk.count - 1];
+				int m = k + 1;
+				while (true) {
+					while (m + 1 < chunks.length
+							&& chunks[m + 1].offset <= end) {
+						m++;
+					}
+					int index = chunks[m].indexOf(end);
+					if (index != NOT_FOUND) {
+						ranges[count++] = k;
+						ranges[count++] = from;
+						ranges[count++] = chunk.count;
+						k = m;
+						from = index + 1;
+						break;
+					}
+
+					// Out of step, so keep going with this chunk's tokeniser.
+					if (!chunk.tokeniser.nextToken()) {
+						chunk.finished = true;
+						break;
+					}
+					chunk.record();
+					end = chunk.ends[chunk.count - 1];
+				}
+			}
+			if (chunk.finished) {
+				ranges[count++] = k;
+				ranges[count++] = from;
+				ranges[count++] = chunk.count;
+				return Arrays.copyOf(ranges, count);
+			}
+		}
+	}
+
+	private void invokeAll(List<Callable<Void>> tasks) throws IOException {
+		try {
+			for (Future<Void> future : pool.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the start of each chunk.
+	 */
+	int[] findChunks(CharSequence input) {
+		int length = input.length();
+		int[] starts = new int[1 + length / chunkSize];
+		int count = 1;
+		int nominal = chunkSize;
+		while (nominal < length) {
+			int start = findResyncPoint(input, nominal,
+					(int) Math.min(length, (long) nominal + chunkSize));
+			if (start != -1) {
+				starts[count++] = start;
+				nominal = start + chunkSize;
+			} else {
+				// Nothing that looks like a tag, so make this chunk bigger.
+				nominal += chunkSize;
+			}
+		}
+		return Arrays.copyOf(starts, count);
+	}
+
+	/**
+	 * Find a '&lt;' that looks like the start of a tag, comment, CDATA or PI
+	 * between from and to.
+	 * 
+	 * @return -1 if there is none.
+	 */
+	static int findResyncPoint(CharSequence input, int from, int to) {
+		for (int i = from; i < to - 1; i++) {
+			if (input.charAt(i) == '<') {
+				char c = input.charAt(i + 1);
+				if (Character.isLetter(c) || c == '/' || c == '!' || c == '?'
+						|| c == '_' || c == ':' || c == '*') {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private HxmlTokeniser newTokeniser(Reader reader) {
+		HxmlTokeniser tokeniser = new HxmlTokeniser(reader);
+		tokeniser.ignoreComments(ignoreComments);
+		tokeniser.ignoreCData(ignoreCData);
+		tokeniser.ignorePI(ignorePI);
+		tokeniser.setReturnText(returnText);
+		tokeniser.setEntityMode(entityMode);
+		tokeniser.setCharClassifier(charClassifier);
+		tokeniser.setMetrics(metrics);
+		tokeniser.setLimits(limits);
+		tokeniser.setSymbolTable(symbolTable);
+		tokeniser.setTagSet(tags);
+		return tokeniser;
+	}
+
+	/**
+	 * Decode bytes, splitting UTF-8 on character boundaries so the pieces can
+	 * be decoded in parallel.
+	 */
+	private CharSequence decode(ByteBuffer bytes, Charset charset)
+			throws IOException {
+		if (!charset.equals(UTF8) || bytes.remaining() <= chunkSize) {
+			return newDecoder(charset).decode(bytes);
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		final List<CharBuffer> pieces = new ArrayList<CharBuffer>();
+		int start = bytes.position();
+		while (start < bytes.limit()) {
+			int end = (int) Math.min(bytes.limit(), (long) start + chunkSize);
+			// Don't split a multi-byte character.
+			while (end < bytes.limit() && (bytes.get(end) & 0xC0) == 0x80) {
+				end++;
+			}
+			final ByteBuffer piece = bytes.duplicate();
+			piece.position(start);
+			piece.limit(end);
+			final int index = pieces.size();
+			pieces.add(null);
+			tasks.add(new Callable<Void>() {
+				public Void call() throws CharacterCodingException {
+					CharBuffer chars = newDecoder(UTF8).decode(piece);
+					synchronized (pieces) {
+						pieces.set(index, chars);
+					}
+					return null;
+				}
+			});
+			start = end;
+		}
+		invokeAll(tasks);
+
+		int length = 0;
+		for (CharBuffer piece : pieces) {
+			length += piece.remaining();
+		}
+		char[] chars = new char[length];
+		int offset = 0;
+		for (CharBuffer piece : pieces) {
+			int count = piece.remaining();
+			piece.get(chars, offset, count);
+			offset += count;
+		}
+		return CharBuffer.wrap(chars);
+	}
+
+	private static CharsetDecoder newDecoder(Charset charset) {
+		return charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * The tokens found from one resync point.
+	 */
+	private final class Chunk {
+		final CharSequence input;
+		final int start;
+		final int end;
+
+		/**
+		 * Line terminators and "\r\n" pairs in input[start..end).
+		 */
+		int lineEndings = 0;
+		int crlfCount = 0;
+
+		/**
+		 * Where this chunk and the next start, after line endings have been
+		 * normalised, and the number of lines before this chunk.
+		 */
+		long offset = 0;
+		long next;
+		int linesBefore = 0;
+
+		/**
+		 * The tokens, unless only the types are wanted, and the type of each
+		 * one and where it ends, after line endings have been normalised.
+		 */
+		final List<Token> tokens;
+		int[] types = new int[64];
+		long[] ends = new long[64];
+		int count = 0;
+
+		IOException error;
+		boolean finished = false;
+		HxmlTokeniser tokeniser;
+
+		Chunk(CharSequence input, int start, int end, boolean typesOnly) {
+			this.input = input;
+			this.start = start;
+			this.end = end;
+			this.tokens = typesOnly ? null : new ArrayList<Token>();
+		}
+
+		void countLines() {
+			for (int i = start; i < end; i++) {
+				char c = input.charAt(i);
+				if (c == '\r') {
+					lineEndings++;
+				} else if (c == '\n') {
+					if (i > start && input.charAt(i - 1) == '\r') {
+						crlfCount++;
+					} else {
+						lineEndings++;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Tokenise from the start of the chunk until a token ends at or past
+		 * the start of the next one.
+		 */
+		void tokenise() {
+			tokeniser = newTokeniser(new CharSequenceReader(input, start,
+					input.length()));
+			tokeniser.setLinesBefore(linesBefore);
+			try {
+				while (true) {
+					if (!tokeniser.nextToken()) {
+						finished = true;
+						return;
+					}
+					record();
+					if (ends[count - 1] >= next) {
+						return;
+					}
+				}
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+
+		/**
+		 * Add the token the tokeniser has just found.
+		 */
+		void record() {
+			if (count == ends.length) {
+				ends = Arrays.copyOf(ends, count * 2);
+				types = Arrays.copyOf(types, count * 2);
+			}
+			ends[count] = offset + tokeniser.getOffset();
+			types[count] = tokeniser.getTokenType();
+			if (tokens != null) {
+				tokens.add(tokeniser.getToken());
+			}
+			count++;
+		}
+
+		/**
+		 * @return The index of the token ending at end, -1 if end is the start
+		 *         of this chunk, or NOT_FOUND.
+		 */
+		int indexOf(long end) {
+			if (end == offset) {
+				return -1;
+			}
+			int index = Arrays.binarySearch(ends, 0, count, end);
+			return index >= 0 ? index : NOT_FOUND;
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+
+	private boolean ignoreComments = false;
+	private boolean ignoreCData = false;
+	private boolean ignorePI = false;
+	private boolean returnText = false;
+	private int entityMode = HxmlTokeniser.KEEP_ENTITIES;
+	private CharClassifier charClassifier = CharClassifier.PERMISSIVE;
+	private HxmlMetrics metrics = HxmlMetrics.NONE;
+	private HxmlLimits limits = HxmlLimits.NONE;
+	private NameSet tags = null;
+
+	/**
+	 * Shared by all the chunks.
+	 */
+	private SymbolTable symbolTable = new SymbolTable();
+}
@@ -0,0 +1,287 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.util.Arrays;
+
+/**
+ * A table of canonical String instances for tag and attribute names, each of
+ * which is given an integer id, so callers can switch on the id rather than
+ * comparing Strings.
+ * 
+ * <P>
+ * Names are looked up directly from a character buffer, so nothing is
+ * allocated once a name is in the table. A table can be shared by tokenisers
+ * on different threads, lookups do not lock, only adding a new name does.
+ * </P>
+ * 
+ * <P>
+ * Once the table holds maxSize names, no new names are added, so hostile input
+ * cannot grow it without limit. Names that are not in the table have no id.
+ * </P>
+ */
+public final class SymbolTable {
+	/**
+	 * Returned as the id of a name that is not in the table.
+	 */
+	public static final int NO_ID = -1;
+
+	/**
+	 * Maximum number of names, if none is specified in the constructor.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 4096;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Entries are immutable, so once one can be seen from the table it can be
+	 * safely read without locking.
+	 */
+	static final class Symbol {
+		final String name;
+		final char[] chars;
+		final int hash;
+		final int id;
+		final Symbol next;
+
+		Symbol(String name, int hash, int id, Symbol next) {
+			this.name = name;
+			this.chars = name.toCharArray();
+			this.hash = hash;
+			this.id = id;
+			this.next = next;
+		}
+
+		boolean matches(char[] buf, int offset, int length) {
+			if (chars.length != length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (chars[i] != buf[offset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final int maxSize;
+
+	/**
+	 * Hash buckets, replaced (never resized in place) when the table grows.
+	 */
+	private volatile Symbol[] table = new Symbol[INITIAL_CAPACITY];
+
+	/**
+	 * The names in id order.
+	 */
+	private volatile String[] names = new String[INITIAL_CAPACITY];
+
+	/**
+	 * Only changed while holding the lock on this.
+	 */
+	private int size = 0;
+
+	/**
+	 * Set once size reaches maxSize, so lookups of unknown names in a full
+	 * table can return without taking the lock.
+	 */
+	private volatile boolean full;
+
+	public SymbolTable() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param maxSize
+	 *            Maximum number of names the table will hold.
+	 */
+	public SymbolTable(int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("Invalid maximum size: "
+					+ maxSize);
+		}
+		this.maxSize = maxSize;
+		this.full = maxSize == 0;
+	}
+
+	/**
+	 * Add name to the table, if it is not already there. This is the way to
+	 * find out the ids of the names you are interested in up front.
+	 * 
+	 * @return The id of the name, or NO_ID if the table is full.
+	 */
+	public int add(String name) {
+		char[] chars = name.toCharArray();
+		Symbol symbol = lookup(chars, 0, chars.length, name.hashCode());
+		return symbol != null ? symbol.id : NO_ID;
+	}
+
+	/**
+	 * Returns the canonical instance of the name in buf[offset..offset+length)
+	 * adding it to the table if need be. If the table is full, a new String is
+	 * returned.
+	 */
+	public String intern(char[] buf, int offset, int length) {
+		Symbol symbol = lookup(buf, offset, length, hash(buf, offset, length));
+		return symbol != null ? symbol.name : new String(buf, offset, length);
+	}
+
+	/**
+	 * Returns the id of the name in buf[offset..offset+length), adding it to
+	 * the table if need be.
+	 * 
+	 * @return The id, or NO_ID if the table is full.
+	 */
+	public int getId(char[] buf, int offset, int length) {
+		Symbol symbol = lookup(buf, offset, length, hash(buf, offset, length));
+		return symbol != null ? symbol.id : NO_ID;
+	}
+
+	/**
+	 * Returns the id of name, without adding it to the table.
+	 * 
+	 * @return The id, or NO_ID if the name is not in the table.
+	 */
+	public int getId(String name) {
+		int hash = name.hashCode();
+		Symbol[] tab = table;
+		for (Symbol s = tab[hash & (tab.length - 1)]; s != null; s = s.next) {
+			if (s.hash == hash && s.name.equals(name)) {
+				return s.id;
+			}
+		}
+		return NO_ID;
+	}
+
+	/**
+	 * Returns the name with the given id, or null if there is none.
+	 */
+	public String getName(int id) {
+		if (id < 0) {
+			return null;
+		}
+		String[] n = names;
+		String name = id < n.length ? n[id] : null;
+		if (name == null) {
+			// Might have been added since we last looked.
+			synchronized (this) {
+				n = names;
+				name = id < n.length ? n[id] : null;
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * Number of names in the table.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Same as String.hashCode(), so we can look up Strings as well.
+	 */
+	static int hash(char[] buf, int offset, int length) {
+		int h = 0;
+		for (int i = offset; i < offset + length; i++) {
+			h = 31 * h + buf[i];
+		}
+		return h;
+	}
+
+	/**
+	 * Find the symbol for buf[offset..offset+length), adding it if need be.
+	 * 
+	 * @return null if the name is not in the table and the table is full.
+	 */
+	Symbol lookup(char[] buf, int offset, int length, int hash) {
+		Symbol symbol = find(table, buf, offset, length, hash);
+		if (symbol != null) {
+			return symbol;
+		}
+		if (full) {
+			// Nothing is added once full is set, so this sees every name.
+			return find(table, buf, offset, length, hash);
+		}
+		return add(buf, offset, length, hash);
+	}
+
+	private static Symbol find(Symbol[] tab, char[] buf, int offset,
+			int length, int hash) {
+		for (Symbol s = tab[hash & (tab.length - 1)]; s != null; s = s.next) {
+			if (s.hash == hash && s.matches(buf, offset, length)) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	private synchronized Symbol add(char[] buf, int offset, int length,
+			int hash) {
+		// Check again, now that we hold the lock.
+		Symbol[] tab = table;
+		Symbol found = find(tab, buf, offset, length, hash);
+		if (found != null || size >= maxSize) {
+			return found;
+		}
+		int index = hash & (tab.length - 1);
+
+		String name = new String(buf, offset, length);
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+		}
+		names[size] = name;
+
+		Symbol symbol = new Symbol(name, hash, size, tab[index]);
+		tab[index] = symbol;
+		size++;
+		if (size >= maxSize) {
+			full = true;
+		}
+
+		if (size > tab.length * 3 / 4) {
+			rehash(tab);
+		}
+		return symbol;
+	}
+
+	/**
+	 * Build a bigger table from scratch, so the old one can still be read by
+	 * anyone in the middle of a lookup.
+	 */
+	private void rehash(Symbol[] tab) {
+		Symbol[] newTable = new Symbol[tab.length * 2];
+		for (int i = 0; i < tab.length; i++) {
+			for (Symbol s = tab[i]; s != null; s = s.next) {
+				int index = s.hash & (newTable.length - 1);
+				newTable[index] = new Symbol(s.name, s.hash, s.id,
+						newTable[index]);
+			}
+		}
+		table = newTable;
+	}
+}
@@ -0,0 +1,375 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of CompiledDocuments, for templates that are tokenised over and
+ * over again, so each one is only tokenised once.
+ * 
+ * <PRE>
+ * HxmlTokeniser tokeniser = new HxmlTokeniser(cache.get(template));
+ * while (tokeniser.nextToken()) {
+ *     ...
+ * }
+ * </PRE>
+ * 
+ * <P>
+ * Documents are looked up by their content, or by a key chosen by the
+ * caller, such as a file name. The cache is limited to a total size in
+ * bytes, including any key that is a CharSequence, such as the content, and
+ * the least recently used documents are evicted to keep under it.
+ * It can be used from several threads at once: it is split into segments by
+ * the hash of the key, each with its own lock, and a document is compiled
+ * outside of any lock.
+ * </P>
+ * 
+ * <P>
+ * Every document is compiled with the same settings, and the same
+ * SymbolTable. Changing a setting clears the cache.
+ * </P>
+ */
+public class TemplateCache {
+	/**
+	 * Maximum total size in bytes, if none is specified in the constructor.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 32L << 20;
+
+	private static final int SEGMENTS = 16;
+
+	public TemplateCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param maxSize
+	 *            The most bytes the documents in the cache can take up, see
+	 *            CompiledDocument.getSize().
+	 */
+	public TemplateCache(long maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Invalid max size: " + maxSize);
+		}
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(Math.max(1, maxSize / SEGMENTS));
+		}
+	}
+
+	/**
+	 * Returns the compiled content, compiling it if it is not in the cache
+	 * already. The content is the key, so it is kept as well as the document,
+	 * and counted in the size of the cache. Looking it up again with the same
+	 * String is quickest, as its hash code is only worked out once.
+	 */
+	public CompiledDocument get(CharSequence content) throws IOException {
+		String key = content.toString();
+		return get(key, key);
+	}
+
+	/**
+	 * Returns the document for key, compiling content if it is not in the
+	 * cache already.
+	 */
+	public CompiledDocument get(Object key, CharSequence content)
+			throws IOException {
+		CompiledDocument document = getIfPresent(key);
+		if (document == null) {
+			int generation = this.generation;
+			document = compile(content);
+			document = put(key, document, generation);
+		}
+		return document;
+	}
+
+	/**
+	 * Returns the document for key, or null if it is not in the cache.
+	 */
+	public CompiledDocument getIfPresent(Object key) {
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+
+	/**
+	 * Remove the document for key, if it is in the cache.
+	 */
+	public void invalidate(Object key) {
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.remove(key);
+		}
+	}
+
+	/**
+	 * Remove every document.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Number of documents in the cache.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Total size in bytes of the documents in the cache, and of their keys
+	 * that are CharSequences.
+	 */
+	public long getSize() {
+		long size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.weight;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Tokenise content with the settings of this cache, without caching it.
+	 */
+	public CompiledDocument compile(CharSequence content) throws IOException {
+		HxmlTokeniser tokeniser = new HxmlTokeniser(content);
+		synchronized (this) {
+			tokeniser.ignoreComments(ignoreComments);
+			tokeniser.ignoreCData(ignoreCData);
+			tokeniser.ignorePI(ignorePI);
+			tokeniser.setReturnText(returnText);
+			tokeniser.setEntityMode(entityMode);
+			tokeniser.setCharClassifier(charClassifier);
+			tokeniser.setSymbolTable(symbolTable);
+			tokeniser.setTagSet(tags);
+		}
+		return tokeniser.compile();
+	}
+
+	/**
+	 * @see HxmlTokeniser#ignoreComments(boolean)
+	 */
+	public synchronized void ignoreComments(boolean b) {
+		this.ignoreComments = b;
+		generation++;
+		clear();
+	}
+
+	/**
+	 * @see HxmlTokeniser#ignoreCData(boolean)
+	 */
+	public synchronized void ignoreCData(boolean b) {
+		this.ignoreCData = b;
+		generation++;
+		clear();
+	}
+
+	/**
+	 * @see HxmlTokeniser#ignorePI(boolean)
+	 */
+	public synchronized void ignorePI(boolean b) {
+		this.ignorePI = b;
+		generation++;
+		clear();
+	}
+
+	/**
+	 * @see HxmlTokeniser#setReturnText(boolean)
+	 */
+	public synchronized void setReturnText(boolean returnText) {
+		this.returnText = returnText;
+		generation++;
+		clear();
+	}
+
+	/**
+	 * @see HxmlTokeniser#setEntityMode(int)
+	 */
+	public synchronized void setEntityMode(int mode) {
+		this.entityMode = HxmlTokeniser.checkEntityMode(mode);
+		generation++;
+		clear();
+	}
+
+	/**
+	 * @see HxmlTokeniser#setCharClassifier(CharClassifier)
+	 */
+	public synchronized void setCharClassifier(CharClassifier charClassifier) {
+		if (charClassifier == null) {
+			throw new IllegalArgumentException("charClassifier must not be null");
+		}
+		this.charClassifier = charClassifier;
+		generation++;
+		clear();
+	}
+
+	/**
+	 * @see HxmlTokeniser#setTags(String[], boolean)
+	 */
+	public synchronized void setTags(String[] tags, boolean ignoreCase) {
+		this.tags = tags != null ? new NameSet(tags, ignoreCase) : null;
+		generation++;
+		clear();
+	}
+
+	/**
+	 * The table the documents are compiled with. A tokeniser replaying a
+	 * document only uses the ids recorded in it if it has the same table.
+	 */
+	public synchronized SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	/**
+	 * @see HxmlTokeniser#setSymbolTable(SymbolTable)
+	 */
+	public synchronized void setSymbolTable(SymbolTable symbolTable) {
+		this.symbolTable = symbolTable;
+		generation++;
+		clear();
+	}
+
+	/**
+	 * Add document, unless another thread got there first, or the settings
+	 * have changed since generation, when document was compiled. A setter
+	 * changes the generation before it clears the segments, so checking it
+	 * while holding the lock means a stale document is either not added, or
+	 * cleared straight after.
+	 * 
+	 * @return The document now in the cache for key, or document if it was
+	 *         not added.
+	 */
+	private CompiledDocument put(Object key, CompiledDocument document,
+			int generation) {
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			if (generation != this.generation) {
+				return document;
+			}
+			CompiledDocument existing = segment.get(key);
+			if (existing != null) {
+				return existing;
+			}
+			segment.put(key, document);
+			segment.weight += weigh(key, document);
+			segment.evict();
+			return document;
+		}
+	}
+
+	/**
+	 * Bytes taken up by document, and key, if it is a CharSequence such as
+	 * the content.
+	 */
+	private static long weigh(Object key, CompiledDocument document) {
+		long weight = document.getSize();
+		if (key instanceof CharSequence) {
+			weight += 2L * ((CharSequence) key).length();
+		}
+		return weight;
+	}
+
+	private Segment segmentFor(Object key) {
+		int hash = key.hashCode();
+		hash ^= hash >>> 16;
+		return segments[hash & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Part of the cache, in least recently used order.
+	 */
+	private static final class Segment extends
+			LinkedHashMap<Object, CompiledDocument> {
+		private static final long serialVersionUID = 1L;
+
+		private final long maxWeight;
+
+		/**
+		 * Total size of the documents.
+		 */
+		private long weight = 0;
+
+		Segment(long maxWeight) {
+			super(16, 0.75f, true);
+			this.maxWeight = maxWeight;
+		}
+
+		@Override
+		public CompiledDocument remove(Object key) {
+			CompiledDocument document = super.remove(key);
+			if (document != null) {
+				weight -= weigh(key, document);
+			}
+			return document;
+		}
+
+		@Override
+		public void clear() {
+			super.clear();
+			weight = 0;
+		}
+
+		/**
+		 * Remove the least recently used documents until the segment is small
+		 * enough, though never the one just added.
+		 */
+		void evict() {
+			Iterator<Map.Entry<Object, CompiledDocument>> iterator = entrySet()
+					.iterator();
+			while (weight > maxWeight && size() > 1) {
+				Map.Entry<Object, CompiledDocument> entry = iterator.next();
+				iterator.remove();
+				weight -= weigh(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private final Segment[] segments;
+
+	private boolean ignoreComments = false;
+	private boolean ignoreCData = false;
+	private boolean ignorePI = false;
+	private boolean returnText = false;
+	private int entityMode = HxmlTokeniser.KEEP_ENTITIES;
+	private CharClassifier charClassifier = CharClassifier.PERMISSIVE;
+	private NameSet tags = null;
+	private SymbolTable symbolTable = new SymbolTable();
+
+	/**
+	 * Changed every time a setting is.
+	 */
+	private volatile int generation = 0;
+}
@@ -0,0 +1,128 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable copy of a token found by HxmlTokeniser.
+ * 
+ * @see HxmlTokeniser#getToken()
+ */
+public final class Token {
+	private final int type;
+	private final String name;
+	private final List<Attribute> attributes;
+	private final String text;
+	private final String content;
+	private final int lineNumber;
+
+	public Token(final int type, final String name,
+			final List<Attribute> attributes, final String text,
+			final String content, final int lineNumber) {
+		this.type = type;
+		this.name = name;
+		if (attributes == null || attributes.isEmpty()) {
+			this.attributes = Collections.emptyList();
+		} else {
+			this.attributes = Collections
+					.unmodifiableList(new ArrayList<Attribute>(attributes));
+		}
+		this.text = text;
+		this.content = content;
+		this.lineNumber = lineNumber;
+	}
+
+	/**
+	 * One of the HxmlTokeniser token type constants.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @see HxmlTokeniser#getTokenName()
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @see HxmlTokeniser#getAttributes()
+	 */
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @see HxmlTokeniser#getText()
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @see HxmlTokeniser#getTokenContent()
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	/**
+	 * @see HxmlTokeniser#getLineNumber()
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Token)) {
+			return false;
+		}
+		Token other = (Token) o;
+		return type == other.type && lineNumber == other.lineNumber
+				&& equals(name, other.name) && equals(text, other.text)
+				&& equals(content, other.content)
+				&& attributes.equals(other.attributes);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = type * 31 + lineNumber;
+		hash = hash * 31 + (name != null ? name.hashCode() : 0);
+		hash = hash * 31 + (text != null ? text.hashCode() : 0);
+		return hash * 31 + (content != null ? content.hashCode() : 0);
+	}
+
+	@Override
+	public String toString() {
+		return HxmlTokeniser.typeAsString(type) + (name != null ? " " + name : "")
+				+ (attributes.isEmpty() ? "" : " " + attributes) + " line "
+				+ lineNumber;
+	}
+
+	private static boolean equals(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+}
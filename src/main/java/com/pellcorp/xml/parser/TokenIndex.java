@@ -0,0 +1,566 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * The tokens of a file, saved by build(...) in a binary index file next to
+ * it, so the file does not have to be tokenised again every time it is used.
+ *
+ * <PRE>
+ * File indexFile = TokenIndex.getIndexFile(source);
+ * if (!indexFile.exists() || !TokenIndex.open(indexFile).isCurrent(source)) {
+ *     TokenIndex.build(tokeniser, source, charset, indexFile);
+ * }
+ * TokenIndex index = TokenIndex.open(indexFile);
+ * for (int n = index.findToken(offset); n != -1 && n &lt; index.getTokenCount(); n++) {
+ *     ...
+ * }
+ * </PRE>
+ *
+ * <P>
+ * For each token the index holds its type, where it and the text before it
+ * start and end in the file, the line it starts on and the SymbolTable id of
+ * its name. Offsets are in bytes, so the file can be read from any of them
+ * with a RandomAccessFile or FileChannel. The names themselves are saved at
+ * the end of the index.
+ * </P>
+ *
+ * <P>
+ * Every token takes the same number of bytes, so open(File) only has to map
+ * the index with FileChannel.map, and any token can be read straight from
+ * the mapping, without reading the ones before it. The mapping is read only,
+ * so an open index can be used from any number of threads at once.
+ * </P>
+ *
+ * <P>
+ * The index records the length, modification time and CRC-32 of the file it
+ * was built from, so isCurrent(File) can tell when it needs building again.
+ * </P>
+ */
+public final class TokenIndex {
+	/**
+	 * Added to the name of a file to get the name of its index.
+	 */
+	public static final String SUFFIX = ".hxi";
+
+	/**
+	 * "HXI" and the version of the format.
+	 */
+	private static final int MAGIC = 0x48584902;
+
+	/**
+	 * The header: magic, 4 bytes unused, source length, source modification
+	 * time, source CRC-32, token count, where the names start and the line
+	 * number at the end of the file.
+	 */
+	private static final int SOURCE_LENGTH = 8;
+	private static final int SOURCE_MODIFIED = 16;
+	private static final int SOURCE_CHECKSUM = 24;
+	private static final int TOKEN_COUNT = 32;
+	private static final int NAMES_OFFSET = 40;
+	private static final int END_LINE = 48;
+	private static final int HEADER_SIZE = 56;
+
+	/**
+	 * Each token: where it starts, how long it is, where the text before it
+	 * starts, relative to the start of the token, its line number, name id
+	 * and type.
+	 */
+	private static final int START = 0;
+	private static final int LENGTH = 8;
+	private static final int TEXT_LENGTH = 12;
+	private static final int LINE = 16;
+	private static final int NAME_ID = 20;
+	private static final int TYPE = 24;
+	private static final int RECORD_SIZE = 28;
+
+	/**
+	 * A single mapping cannot be over 2GB, so the tokens are mapped in
+	 * segments of this many.
+	 */
+	private static final int SEGMENT_BITS = 26;
+	private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private final ByteBuffer[] segments;
+	private final int tokenCount;
+	private final long sourceLength;
+	private final long sourceModified;
+	private final long sourceChecksum;
+	private final int endLineNumber;
+	private final SymbolTable symbolTable;
+
+	private TokenIndex(ByteBuffer header, ByteBuffer[] segments,
+			SymbolTable symbolTable) {
+		this.segments = segments;
+		this.tokenCount = (int) header.getLong(TOKEN_COUNT);
+		this.sourceLength = header.getLong(SOURCE_LENGTH);
+		this.sourceModified = header.getLong(SOURCE_MODIFIED);
+		this.sourceChecksum = header.getLong(SOURCE_CHECKSUM);
+		this.endLineNumber = header.getInt(END_LINE);
+		this.symbolTable = symbolTable;
+	}
+
+	/**
+	 * The index file for source, in the same directory.
+	 */
+	public static File getIndexFile(File source) {
+		return new File(source.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Tokenise source with tokeniser, using whatever settings it has, and
+	 * save the tokens in indexFile. If an IOException is thrown while
+	 * tokenising, no index is left behind.
+	 *
+	 * @param tokeniser
+	 *            Reset to read source, and left at the end of it.
+	 */
+	public static void build(HxmlTokeniser tokeniser, File source,
+			Charset charset, File indexFile) throws IOException {
+		long length = source.length();
+		long modified = source.lastModified();
+		CRC32 crc = new CRC32();
+		InputStream in = new CheckedInputStream(new FileInputStream(source),
+				crc);
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+		boolean built = false;
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			Writer writer = new Writer(channel);
+			writer.position(HEADER_SIZE);
+
+			ByteCounter counter = new ByteCounter(new InputStreamReader(in,
+					charset), charset);
+			tokeniser.reset(counter);
+			long count = 0;
+			while (tokeniser.nextToken()) {
+				long textStart = counter.getByteOffset(tokeniser
+						.getTextStartOffset());
+				long start = counter.getByteOffset(tokeniser
+						.getTokenStartOffset());
+				long end = counter.getByteOffset(tokeniser.getTokenEndOffset());
+				writer.ensure(RECORD_SIZE);
+				ByteBuffer b = writer.buffer;
+				b.putLong(start);
+				b.putInt((int) (end - start));
+				b.putInt((int) (start - textStart));
+				b.putInt(tokeniser.getStartLine());
+				b.putInt(tokeniser.getTokenNameId());
+				b.putInt(tokeniser.getTokenType());
+				count++;
+			}
+			// Make sure the CRC covers the whole file.
+			byte[] skip = new byte[BUFFER_SIZE];
+			while (in.read(skip) != -1) {
+				// do nothing
+			}
+			if (count > Integer.MAX_VALUE) {
+				throw new IOException("Too many tokens to index: " + count);
+			}
+
+			long namesOffset = writer.position();
+			SymbolTable table = tokeniser.getSymbolTable();
+			int names = table != null ? table.size() : 0;
+			writer.ensure(4);
+			writer.buffer.putInt(names);
+			for (int id = 0; id < names; id++) {
+				String name = table.getName(id);
+				writer.ensure(4);
+				writer.buffer.putInt(name.length());
+				for (int i = 0; i < name.length(); i++) {
+					writer.ensure(2);
+					writer.buffer.putChar(name.charAt(i));
+				}
+			}
+			writer.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(0, MAGIC);
+			header.putLong(SOURCE_LENGTH, length);
+			header.putLong(SOURCE_MODIFIED, modified);
+			header.putLong(SOURCE_CHECKSUM, crc.getValue());
+			header.putLong(TOKEN_COUNT, count);
+			header.putLong(NAMES_OFFSET, namesOffset);
+			header.putInt(END_LINE, tokeniser.getLineNumber());
+			channel.write(header, 0);
+			built = true;
+		} finally {
+			in.close();
+			raf.close();
+			if (!built) {
+				indexFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Map indexFile into memory. The mapping stays valid after the file is
+	 * closed.
+	 *
+	 * @exception IOException
+	 *                If it is not an index built by build(...).
+	 */
+	public static TokenIndex open(File indexFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException("Not a token index: " + indexFile);
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					HEADER_SIZE);
+			long count = header.getLong(TOKEN_COUNT);
+			long namesOffset = header.getLong(NAMES_OFFSET);
+			if (header.getInt(0) != MAGIC || count < 0
+					|| namesOffset != HEADER_SIZE + count * RECORD_SIZE
+					|| namesOffset + 4 > size) {
+				throw new IOException("Not a token index: " + indexFile);
+			}
+
+			ByteBuffer[] segments = new ByteBuffer[(int) ((count + SEGMENT_MASK) >>> SEGMENT_BITS)];
+			for (int i = 0; i < segments.length; i++) {
+				long first = (long) i << SEGMENT_BITS;
+				long tokens = Math.min(count - first, SEGMENT_MASK + 1);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						HEADER_SIZE + first * RECORD_SIZE, tokens
+								* RECORD_SIZE);
+			}
+
+			ByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY,
+					namesOffset, size - namesOffset);
+			int nameCount = names.getInt();
+			SymbolTable symbolTable = new SymbolTable(Math.max(nameCount,
+					SymbolTable.DEFAULT_MAX_SIZE));
+			char[] chars = new char[64];
+			for (int id = 0; id < nameCount; id++) {
+				int length = names.getInt();
+				if (length > chars.length) {
+					chars = new char[length];
+				}
+				for (int i = 0; i < length; i++) {
+					chars[i] = names.getChar();
+				}
+				// A new table hands out ids in order, so they are the same.
+				symbolTable.getId(chars, 0, length);
+			}
+			return new TokenIndex(header, segments, symbolTable);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Is this still the index of source? It is not if the length of source
+	 * has changed. If the modification time has changed, the CRC-32 of source
+	 * is checked, which means reading the whole of it.
+	 */
+	public boolean isCurrent(File source) throws IOException {
+		if (source.length() != sourceLength) {
+			return false;
+		}
+		if (source.lastModified() == sourceModified) {
+			return true;
+		}
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(source);
+		try {
+			byte[] buf = new byte[BUFFER_SIZE];
+			int count;
+			while ((count = in.read(buf)) != -1) {
+				crc.update(buf, 0, count);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue() == sourceChecksum;
+	}
+
+	/**
+	 * Number of tokens.
+	 */
+	public int getTokenCount() {
+		return tokenCount;
+	}
+
+	/**
+	 * Type of token n, one of the HxmlTokeniser token types.
+	 */
+	public int getTokenType(int n) {
+		return record(n).getInt(recordOffset(n) + TYPE);
+	}
+
+	/**
+	 * Offset of the '&lt;' or '&amp;' that starts token n.
+	 */
+	public long getTokenStart(int n) {
+		return record(n).getLong(recordOffset(n) + START);
+	}
+
+	/**
+	 * Offset just after token n.
+	 */
+	public long getTokenEnd(int n) {
+		ByteBuffer b = record(n);
+		int k = recordOffset(n);
+		return b.getLong(k + START) + b.getInt(k + LENGTH);
+	}
+
+	/**
+	 * Offset of the text before token n, which ends at getTokenStart(n).
+	 */
+	public long getTextStart(int n) {
+		ByteBuffer b = record(n);
+		int k = recordOffset(n);
+		return b.getLong(k + START) - b.getInt(k + TEXT_LENGTH);
+	}
+
+	/**
+	 * Line token n starts on, the same as HxmlTokeniser.getStartLine()
+	 * returned for it.
+	 */
+	public int getLineNumber(int n) {
+		return record(n).getInt(recordOffset(n) + LINE);
+	}
+
+	/**
+	 * The line number at the end of the file.
+	 */
+	public int getEndLineNumber() {
+		return endLineNumber;
+	}
+
+	/**
+	 * The id of the name of token n in getSymbolTable(), or SymbolTable.NO_ID
+	 * if it has none.
+	 */
+	public int getTokenNameId(int n) {
+		return record(n).getInt(recordOffset(n) + NAME_ID);
+	}
+
+	/**
+	 * Name of token n, or null if it has none.
+	 */
+	public String getTokenName(int n) {
+		return symbolTable.getName(getTokenNameId(n));
+	}
+
+	/**
+	 * The names saved in the index, with the same ids as when it was built.
+	 */
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	/**
+	 * Returns the first token that ends after offset, so the one offset is
+	 * in, or the one whose text offset is in. Returns -1 if offset is after
+	 * the last token.
+	 */
+	public int findToken(long offset) {
+		int low = 0;
+		int high = tokenCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (getTokenEnd(mid) <= offset) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low < tokenCount ? low : -1;
+	}
+
+	private ByteBuffer record(int n) {
+		if (n < 0 || n >= tokenCount) {
+			throw new IndexOutOfBoundsException("Token: " + n);
+		}
+		return segments[n >>> SEGMENT_BITS];
+	}
+
+	private static int recordOffset(int n) {
+		return (n & SEGMENT_MASK) * RECORD_SIZE;
+	}
+
+	/**
+	 * Keeps the characters read through it until getByteOffset(...) has
+	 * counted how many bytes they were in the file. The offsets asked for
+	 * never go backwards, so each character is only counted once.
+	 */
+	private static final class ByteCounter extends FilterReader {
+		final boolean utf8;
+		final CharsetEncoder encoder;
+		final ByteBuffer encoded;
+		char[] chars = new char[BUFFER_SIZE];
+		int start = 0;
+		int end = 0;
+
+		/**
+		 * Offset in characters, and in bytes, of chars[start].
+		 */
+		long offset = 0;
+		long byteOffset = 0;
+
+		ByteCounter(Reader in, Charset charset) {
+			super(in);
+			utf8 = charset.name().equals("UTF-8");
+			encoder = utf8 ? null : charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			encoded = utf8 ? null : ByteBuffer.allocate(BUFFER_SIZE);
+		}
+
+		@Override
+		public int read() throws IOException {
+			char[] c = new char[1];
+			return read(c, 0, 1) == -1 ? -1 : c[0];
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			int count = in.read(cbuf, off, len);
+			if (count > 0) {
+				if (end + count > chars.length) {
+					System.arraycopy(chars, start, chars, 0, end - start);
+					end -= start;
+					start = 0;
+					if (end + count > chars.length) {
+						chars = Arrays.copyOf(chars, Math.max(
+								chars.length * 2, end + count));
+					}
+				}
+				System.arraycopy(cbuf, off, chars, end, count);
+				end += count;
+			}
+			return count;
+		}
+
+		/**
+		 * The offset in bytes of the character at charOffset, which must be
+		 * no less than the last one asked for.
+		 */
+		long getByteOffset(long charOffset) {
+			int length = (int) (charOffset - offset);
+			if (length < 0 || length > end - start) {
+				throw new IllegalStateException("Offset out of range: "
+						+ charOffset);
+			}
+			byteOffset += utf8 ? countUTF8(start, length) : count(start,
+					length);
+			start += length;
+			offset = charOffset;
+			return byteOffset;
+		}
+
+		private long countUTF8(int from, int length) {
+			long bytes = 0;
+			for (int i = from; i < from + length; i++) {
+				char c = chars[i];
+				if (c < 0x80) {
+					bytes++;
+				} else if (c < 0x800) {
+					bytes += 2;
+				} else if (Character.isHighSurrogate(c)) {
+					// The pair is 4 bytes, the low surrogate adds nothing.
+					bytes += 4;
+				} else if (!Character.isLowSurrogate(c)) {
+					bytes += 3;
+				}
+			}
+			return bytes;
+		}
+
+		private long count(int from, int length) {
+			CharBuffer in = CharBuffer.wrap(chars, from, length);
+			long bytes = 0;
+			while (in.hasRemaining()) {
+				CoderResult result = encoder.encode(in, encoded, false);
+				bytes += encoded.position();
+				encoded.clear();
+				if (result.isUnderflow()) {
+					// Only half of a surrogate pair is left.
+					break;
+				}
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * Writes to a FileChannel through a buffer.
+	 */
+	private static final class Writer {
+		final FileChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long written = 0;
+
+		Writer(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void position(long position) throws IOException {
+			channel.position(position);
+			written = position;
+		}
+
+		long position() {
+			return written + buffer.position();
+		}
+
+		/**
+		 * Make room in the buffer for length bytes.
+		 */
+		void ensure(int length) throws IOException {
+			if (buffer.remaining() < length) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				written += channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * The tokens left in a HxmlTokeniser.
+ * 
+ * <P>
+ * Tokens are read one at a time until trySplit() is called. At that point, if
+ * the whole input is in memory and big enough to be worth it, it is
+ * tokenised by a ParallelHxmlTokeniser, and from then on the list of tokens
+ * is split instead.
+ * </P>
+ */
+final class TokenSpliterator implements Spliterator<Token> {
+	/**
+	 * Inputs shorter than this are never split, and no chunk is smaller.
+	 */
+	static final int MIN_SPLIT_SIZE = 65536;
+
+	private final HxmlTokeniser tokeniser;
+
+	/**
+	 * Set once the input has been tokenised in parallel.
+	 */
+	private Spliterator<Token> tokens;
+
+	TokenSpliterator(HxmlTokeniser tokeniser) {
+		this.tokeniser = tokeniser;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Token> action) {
+		if (tokens != null) {
+			return tokens.tryAdvance(action);
+		}
+		if (nextToken(tokeniser)) {
+			action.accept(tokeniser.getToken());
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Spliterator<Token> trySplit() {
+		if (tokens == null) {
+			List<Token> list = tokeniseInParallel(tokeniser);
+			if (list == null) {
+				return null;
+			}
+			tokens = list.spliterator();
+		}
+		return tokens.trySplit();
+	}
+
+	@Override
+	public long estimateSize() {
+		return tokens != null ? tokens.estimateSize() : Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		if (tokens != null) {
+			return tokens.characteristics() | NONNULL | IMMUTABLE;
+		}
+		return ORDERED | NONNULL | IMMUTABLE;
+	}
+
+	static boolean nextToken(HxmlTokeniser tokeniser) {
+		try {
+			return tokeniser.nextToken();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns every token in the tokeniser's input, or null if the input is
+	 * not in memory, is too small, or has already been partly read, or if
+	 * errors are being recovered from, as the HxmlErrorSink must be told about
+	 * them in order.
+	 */
+	static List<Token> tokeniseInParallel(HxmlTokeniser tokeniser) {
+		ParallelHxmlTokeniser parallel = parallelFor(tokeniser);
+		if (parallel == null) {
+			return null;
+		}
+		try {
+			return parallel.tokenise(tokeniser.getInput());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * The same as tokeniseInParallel, but only returns the type of each
+	 * token.
+	 */
+	static int[] tokenTypesInParallel(HxmlTokeniser tokeniser) {
+		ParallelHxmlTokeniser parallel = parallelFor(tokeniser);
+		if (parallel == null) {
+			return null;
+		}
+		try {
+			return parallel.tokeniseTypes(tokeniser.getInput());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * A ParallelHxmlTokeniser with the same settings as tokeniser, or null if
+	 * its input can't be tokenised in parallel.
+	 */
+	private static ParallelHxmlTokeniser parallelFor(HxmlTokeniser tokeniser) {
+		CharSequence input = tokeniser.getInput();
+		if (input == null || input.length() < MIN_SPLIT_SIZE
+				|| tokeniser.getOffset() != 0
+				|| tokeniser.getErrorSink() != null) {
+			return null;
+		}
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		int chunkSize = Math.max(MIN_SPLIT_SIZE,
+				input.length() / (4 * pool.getParallelism()));
+		ParallelHxmlTokeniser parallel = new ParallelHxmlTokeniser(pool,
+				chunkSize);
+		parallel.ignoreComments(tokeniser.isIgnoreComments());
+		parallel.ignoreCData(tokeniser.isIgnoreCData());
+		parallel.ignorePI(tokeniser.isIgnorePI());
+		parallel.setReturnText(tokeniser.isReturnText());
+		parallel.setEntityMode(tokeniser.getEntityMode());
+		parallel.setCharClassifier(tokeniser.getCharClassifier());
+		parallel.setMetrics(tokeniser.getMetrics());
+		parallel.setLimits(tokeniser.getLimits());
+		parallel.setSymbolTable(tokeniser.getSymbolTable());
+		parallel.setTagSet(tokeniser.getTagSet());
+		return parallel;
+	}
+}
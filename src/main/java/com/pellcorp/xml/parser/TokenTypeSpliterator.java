@@ -0,0 +1,79 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntConsumer;
+
+/**
+ * The types of the tokens left in a HxmlTokeniser. Works the same way as
+ * TokenSpliterator, but no Token is created, even when the input is split.
+ */
+final class TokenTypeSpliterator implements Spliterator.OfInt {
+	private final HxmlTokeniser tokeniser;
+
+	/**
+	 * Set once the input has been tokenised in parallel.
+	 */
+	private Spliterator.OfInt types;
+
+	TokenTypeSpliterator(HxmlTokeniser tokeniser) {
+		this.tokeniser = tokeniser;
+	}
+
+	@Override
+	public boolean tryAdvance(IntConsumer action) {
+		if (types != null) {
+			return types.tryAdvance(action);
+		}
+		if (TokenSpliterator.nextToken(tokeniser)) {
+			action.accept(tokeniser.getTokenType());
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Spliterator.OfInt trySplit() {
+		if (types == null) {
+			int[] array = TokenSpliterator.tokenTypesInParallel(tokeniser);
+			if (array == null) {
+				return null;
+			}
+			types = Spliterators.spliterator(array, ORDERED | IMMUTABLE);
+		}
+		return types.trySplit();
+	}
+
+	@Override
+	public long estimateSize() {
+		return types != null ? types.estimateSize() : Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		if (types != null) {
+			return types.characteristics() | NONNULL;
+		}
+		return ORDERED | NONNULL | IMMUTABLE;
+	}
+}
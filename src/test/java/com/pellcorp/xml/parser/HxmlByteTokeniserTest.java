@@ -0,0 +1,95 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+ */
+
+package com.pellcorp.xml.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HxmlByteTokeniserTest {
+    private static final String TEMPLATE = "<*Date Year=\"${year}\" Month='${month}' Day=${day}/>\n"
+        + "<café name=\"crème brûlée\">€10</café>\n"
+        + "<!-- comment --><![CDATA[ <raw> ]]><?pi data?>";
+
+    @Test
+    public void testSameAsReader() throws Exception {
+        HxmlTokeniser expected = new HxmlTokeniser(new StringReader(TEMPLATE));
+        HxmlByteTokeniser parse = new HxmlByteTokeniser(ByteBuffer.wrap(TEMPLATE.getBytes("UTF-8")));
+        while (expected.nextToken()) {
+            assertTrue(parse.nextToken());
+            assertEquals(expected.getTokenType(), parse.getTokenType());
+            assertEquals(expected.getTokenName(), parse.getTokenName());
+            assertEquals(expected.getText(), parse.getText());
+            assertEquals(expected.getLineNumber(), parse.getLineNumber());
+
+            List<Attribute> expectedAttributes = expected.getAttributes();
+            List<Attribute> attributes = parse.getAttributes();
+            assertEquals(expectedAttributes.size(), attributes.size());
+            for (int i = 0; i < attributes.size(); i++) {
+                assertEquals(expectedAttributes.get(i).getName(), attributes.get(i).getName());
+                assertEquals(expectedAttributes.get(i).getValue(), attributes.get(i).getValue());
+            }
+        }
+        assertFalse(parse.nextToken());
+    }
+
+    @Test
+    public void testMappedFile() throws Exception {
+        File file = File.createTempFile("hxml", ".xml");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(TEMPLATE.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+
+            HxmlByteTokeniser parse = new HxmlByteTokeniser(HxmlByteTokeniser.map(file));
+            assertTrue(parse.nextToken());
+            assertEquals(HxmlTokeniser.EMPTY_TAG, parse.getTokenType());
+            assertEquals(0, parse.getTokenStart());
+            assertEquals("<*Date Year=\"${year}\" Month='${month}' Day=${day}/>", parse.getTokenContent());
+
+            assertTrue(parse.nextToken());
+            assertEquals("café", parse.getTokenName());
+            assertEquals("\n", parse.getText());
+            assertEquals("crème brûlée", parse.getAttributes().get(0).getValue());
+
+            assertTrue(parse.nextToken());
+            assertEquals(HxmlTokeniser.END_TAG, parse.getTokenType());
+            assertEquals("€10", parse.getText());
+
+            assertTrue(parse.nextToken());
+            assertEquals("<!-- comment -->", parse.getTokenContent());
+            assertTrue(parse.nextToken());
+            assertEquals("<![CDATA[ <raw> ]]>", parse.getTokenContent());
+            assertTrue(parse.nextToken());
+            assertEquals("pi", parse.getTokenName());
+            assertEquals(TEMPLATE.getBytes("UTF-8").length, parse.getTokenEnd());
+            assertFalse(parse.nextToken());
+        } finally {
+            file.delete();
+        }
+    }
+}
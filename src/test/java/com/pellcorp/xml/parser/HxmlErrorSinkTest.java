@@ -0,0 +1,146 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HxmlErrorSinkTest {
+    private static final String MALFORMED = "a < b <1> <a x y=1 <z>t</ a>"
+            + "<!-x> <b href=\"/a/b\" title=\"x > y\" t='x\ny'/> "
+            + "<c d=\"un>closed</c><!-- open";
+
+    private static String errors(HxmlErrorList errors) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < errors.size(); i++) {
+            s.append(errors.getCode(i)).append('@').append(errors.getOffset(i))
+                    .append(':').append(errors.getLineNumber(i)).append(' ');
+        }
+        return s.toString().trim();
+    }
+
+    @Test
+    public void testRecover() throws Exception {
+        HxmlErrorList errors = new HxmlErrorList();
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(MALFORMED));
+        parse.setErrorSink(errors);
+        List<Token> tokens = new ArrayList<Token>();
+        while (parse.nextToken()) {
+            tokens.add(parse.getToken());
+        }
+        assertEquals(3, tokens.size());
+
+        // The '<' that do not start a tag are text.
+        Token a = tokens.get(0);
+        assertEquals("a < b <1> ", a.getText());
+        assertEquals("[x=, y=1, z=]", a.getAttributes().toString());
+        assertEquals("t</ a><!-x> ", tokens.get(1).getText());
+        // A '/' or '>' in a quoted value is part of it, so an unclosed one
+        // runs to the end of the input.
+        assertEquals("[href=/a/b, title=x > y, t=x\ny]",
+                tokens.get(1).getAttributes().toString());
+        assertEquals(HxmlTokeniser.START_TAG, tokens.get(2).getType());
+        assertEquals("[d=un>closed</c><!-- open]",
+                tokens.get(2).getAttributes().toString());
+
+        assertEquals("2@3:1 2@7:1 1@15:1 2@19:1 1@21:1 2@25:1 1@31:1 4@67:1 6@101:2",
+                errors(errors));
+        assertEquals(HxmlParseException.INVALID_NAME, errors.getCode(0));
+        assertEquals('1', MALFORMED.charAt((int) errors.getOffset(1)));
+
+        // The same, when fed in a character at a time, and parsed again.
+        HxmlErrorList fed = new HxmlErrorList();
+        HxmlTokeniser feed = new HxmlTokeniser();
+        feed.setErrorSink(fed);
+        List<Token> fedTokens = new ArrayList<Token>();
+        int i = 0;
+        int type;
+        while ((type = feed.next()) != HxmlTokeniser.END_OF_INPUT) {
+            if (type != HxmlTokeniser.NEED_MORE_INPUT) {
+                fedTokens.add(feed.getToken());
+            } else if (i < MALFORMED.length()) {
+                feed.feed(CharBuffer.wrap(MALFORMED, i, ++i));
+            } else {
+                feed.endOfInput();
+            }
+        }
+        assertEquals(tokens, fedTokens);
+        assertEquals(errors(errors), errors(fed));
+
+        errors.clear();
+        assertEquals(0, errors.size());
+    }
+
+    @Test
+    public void testStrict() throws Exception {
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader("<a>\n<b x=\"1\" y>"));
+        assertTrue(parse.nextToken());
+        try {
+            parse.nextToken();
+            fail();
+        } catch (HxmlParseException e) {
+            assertEquals(HxmlParseException.MISSING_CHARACTER, e.getCode());
+            assertEquals("Line:2; Character '=' not found: >", e.getMessage());
+            assertEquals(2, e.getLineNumber());
+            assertEquals(14, e.getOffset());
+            assertEquals(0, e.getStackTrace().length);
+
+            // The same one every time.
+            parse.reset(new StringReader("<1>"));
+            try {
+                parse.nextToken();
+                fail();
+            } catch (HxmlParseException e2) {
+                assertSame(e, e2);
+                assertEquals("Line:1; Invalid initial name char: 1", e2.getMessage());
+
+                // Not used again once it has been added to.
+                e2.addSuppressed(new IOException());
+                parse.reset(new StringReader("<1>"));
+                try {
+                    parse.nextToken();
+                    fail();
+                } catch (HxmlParseException e3) {
+                    assertNotSame(e2, e3);
+                    assertEquals(0, e3.getSuppressed().length);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLimitsNotRecovered() throws Exception {
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader("<a b=1 c=2>"));
+        parse.setErrorSink(new HxmlErrorList());
+        parse.setLimits(new HxmlLimits(10, 1, 100));
+        try {
+            parse.nextToken();
+            fail();
+        } catch (IOException e) {
+            assertEquals("Line:1; More than 1 attributes", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HxmlHandlerTest {
+    /**
+     * Writes each callback out as a line of text.
+     */
+    private static class Recorder extends DefaultHxmlHandler {
+        private final StringBuilder out = new StringBuilder();
+        private final String skip;
+
+        Recorder(String skip) {
+            this.skip = skip;
+        }
+
+        @Override
+        public void text(char[] buf, int off, int len) {
+            out.append("text:").append(buf, off, len).append('\n');
+        }
+
+        @Override
+        public boolean startTag(char[] buf, int nameOff, int nameLen, HxmlAttributes attributes) {
+            String name = new String(buf, nameOff, nameLen);
+            out.append("start:").append(name);
+            appendAttributes(buf, attributes);
+            return !name.equals(skip);
+        }
+
+        @Override
+        public void emptyTag(char[] buf, int nameOff, int nameLen, HxmlAttributes attributes) {
+            out.append("empty:").append(buf, nameOff, nameLen);
+            appendAttributes(buf, attributes);
+        }
+
+        @Override
+        public void endTag(char[] buf, int nameOff, int nameLen) {
+            out.append("end:").append(buf, nameOff, nameLen).append('\n');
+        }
+
+        @Override
+        public void comment(char[] buf, int off, int len) {
+            out.append("comment:").append(buf, off, len).append('\n');
+        }
+
+        @Override
+        public void cdata(char[] buf, int off, int len) {
+            out.append("cdata:").append(buf, off, len).append('\n');
+        }
+
+        @Override
+        public void pi(char[] buf, int targetOff, int targetLen, int dataOff, int dataLen) {
+            out.append("pi:").append(buf, targetOff, targetLen).append(':')
+                    .append(buf, dataOff, dataLen).append('\n');
+        }
+
+        private void appendAttributes(char[] buf, HxmlAttributes attributes) {
+            for (int i = 0; i < attributes.getLength(); i++) {
+                out.append(' ').append(buf, attributes.getNameOffset(i), attributes.getNameLength(i))
+                        .append('=').append(buf, attributes.getValueOffset(i), attributes.getValueLength(i));
+                assertEquals(new String(buf, attributes.getValueOffset(i), attributes.getValueLength(i)),
+                        attributes.getValue(i));
+            }
+            out.append('\n');
+        }
+    }
+
+    private static final String TEMPLATE = "<?xml version=\"1.0\"?><*Date Year=\"${year}\" Month='${month}'>"
+            + "<year>*</year><!-- comment --><skip a=b><day>*<br/></day></skip>"
+            + "<![CDATA[ <x> ]]><?x?><empty Day=\"${day}\"/></*Date>";
+
+    @Test
+    public void testCallbacks() throws Exception {
+        Recorder recorder = new Recorder(null);
+        HxmlTokeniser.tokenise(new StringReader(TEMPLATE), recorder);
+        assertEquals("pi:xml:version=\"1.0\"\n"
+                + "start:*Date Year=${year} Month=${month}\n"
+                + "start:year\n"
+                + "text:*\n"
+                + "end:year\n"
+                + "comment: comment \n"
+                + "start:skip a=b\n"
+                + "start:day\n"
+                + "text:*\n"
+                + "empty:br\n"
+                + "end:day\n"
+                + "end:skip\n"
+                + "cdata: <x> \n"
+                + "pi:x:\n"
+                + "empty:empty Day=${day}\n"
+                + "end:*Date\n", recorder.out.toString());
+    }
+
+    @Test
+    public void testTextAfterLastTag() throws Exception {
+        Recorder recorder = new Recorder(null);
+        HxmlTokeniser.tokenise(new StringReader("<a>x</a>tail"), recorder);
+        assertEquals("start:a\ntext:x\nend:a\ntext:tail\n", recorder.out.toString());
+
+        ChunkRecorder chunks = new ChunkRecorder(1000);
+        HxmlTokeniser.tokenise(new StringReader("<a>x</a>tail"), chunks);
+        assertEquals("[start:a, text:x, text:tail]", chunks.parts.toString());
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        Recorder recorder = new Recorder("skip");
+        HxmlTokeniser.tokenise(new StringReader(TEMPLATE), recorder);
+        assertEquals("pi:xml:version=\"1.0\"\n"
+                + "start:*Date Year=${year} Month=${month}\n"
+                + "start:year\n"
+                + "text:*\n"
+                + "end:year\n"
+                + "comment: comment \n"
+                + "start:skip a=b\n"
+                + "cdata: <x> \n"
+                + "pi:x:\n"
+                + "empty:empty Day=${day}\n"
+                + "end:*Date\n", recorder.out.toString());
+    }
+
+    @Test
+    public void testSkipDoesNotParseAttributes() throws Exception {
+        // The second attribute name is not valid, which only matters if it is parsed.
+        String document = "<a><skip><b c='1' 2=x/><b>&amp;<i 3=y></i></b></skip>tail</a>";
+        Recorder recorder = new Recorder("skip");
+        HxmlTokeniser.tokenise(new StringReader(document), recorder);
+        assertEquals("start:a\nstart:skip\ntext:tail\nend:a\n", recorder.out.toString());
+
+        try {
+            HxmlTokeniser.tokenise(new StringReader(document), new Recorder(null));
+            fail();
+        } catch (HxmlParseException e) {
+            assertEquals(HxmlParseException.INVALID_NAME, e.getCode());
+        }
+    }
+
+    @Test
+    public void testAttributeNameIds() throws Exception {
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader("<a href=x title=y/>"));
+        final int href = parse.getSymbolTable().add("href");
+        final int[] ids = new int[2];
+        parse.tokenise(new DefaultHxmlHandler() {
+            @Override
+            public void emptyTag(char[] buf, int nameOff, int nameLen, HxmlAttributes attributes) {
+                ids[0] = attributes.getNameId(0);
+                ids[1] = attributes.getNameId(1);
+            }
+        });
+        assertEquals(href, ids[0]);
+        assertEquals(parse.getSymbolTable().getId("title"), ids[1]);
+        assertTrue(ids[1] != href);
+    }
+
+    /**
+     * Joins the pieces back together, and checks their size and flags.
+     */
+    private static class ChunkRecorder extends DefaultHxmlChunkHandler {
+        private final List<String> parts = new ArrayList<String>();
+        private final StringBuilder current = new StringBuilder();
+        private final int chunkSize;
+        private int chunks = 0;
+
+        ChunkRecorder(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        private void chunk(String type, char[] buf, int off, int len, boolean last) {
+            assertTrue(len <= chunkSize);
+            current.append(buf, off, len);
+            chunks++;
+            if (last) {
+                parts.add(type + ":" + current);
+                current.setLength(0);
+            }
+        }
+
+        @Override
+        public void textChunk(char[] buf, int off, int len, boolean last) {
+            chunk("text", buf, off, len, last);
+        }
+
+        @Override
+        public void commentChunk(char[] buf, int off, int len, boolean last) {
+            chunk("comment", buf, off, len, last);
+        }
+
+        @Override
+        public void cdataChunk(char[] buf, int off, int len, boolean last) {
+            chunk("cdata", buf, off, len, last);
+        }
+
+        @Override
+        public void piChunk(char[] buf, int targetOff, int targetLen, int dataOff, int dataLen, boolean last) {
+            chunk("pi:" + new String(buf, targetOff, targetLen), buf, dataOff, dataLen, last);
+        }
+
+        @Override
+        public boolean startTag(char[] buf, int nameOff, int nameLen, HxmlAttributes attributes) {
+            assertEquals(0, current.length());
+            parts.add("start:" + new String(buf, nameOff, nameLen));
+            return !new String(buf, nameOff, nameLen).equals("skip");
+        }
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            out.append(s);
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void testChunks() throws Exception {
+        String text = repeat("text ", 2000);
+        String comment = repeat("-comment-", 2000);
+        String cdata = repeat("]data]", 2000);
+        String pi = repeat("?data?", 2000);
+        String document = text + "<a>" + "<!--" + comment + "-->x<![CDATA[" + cdata + "]]>"
+                + "<?target " + pi + "?><skip>" + text + "<!--" + comment + "--></skip><?t?>" + text;
+
+        HxmlStatistics statistics = new HxmlStatistics();
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(document), 1024);
+        parse.setChunkSize(1000);
+        parse.setMetrics(statistics);
+        ChunkRecorder recorder = new ChunkRecorder(1000);
+        parse.tokenise(recorder);
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("text:" + text);
+        expected.add("start:a");
+        expected.add("comment:" + comment);
+        expected.add("text:x");
+        expected.add("cdata:" + cdata);
+        expected.add("pi:target:" + pi);
+        expected.add("start:skip");
+        expected.add("pi:t:");
+        expected.add("text:" + text);
+        assertEquals(expected, recorder.parts);
+        // Everything but the skipped element, in pieces.
+        assertTrue(recorder.chunks >= (document.length() - text.length() - comment.length()) / 1000);
+        assertEquals(0, recorder.current.length());
+
+        // Nowhere near the size of the biggest token.
+        assertTrue(statistics.getMaxDataBufferSize() <= 4096);
+    }
+
+    @Test
+    public void testChunksOfIgnoredComment() throws Exception {
+        String comment = "<!--" + repeat("comment", 1000) + "-->";
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader("a" + comment + "b<br/>"));
+        parse.ignoreComments(true);
+        parse.setChunkSize(100);
+        ChunkRecorder recorder = new ChunkRecorder(100);
+        parse.tokenise(recorder);
+        assertEquals(1, recorder.parts.size());
+        assertEquals("text:a" + comment + "b", recorder.parts.get(0));
+    }
+}
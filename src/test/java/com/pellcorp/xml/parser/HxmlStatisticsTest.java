@@ -0,0 +1,139 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HxmlStatisticsTest {
+    private static final String DOCUMENT = "<a href=\"x\">text</a><!-- a comment --><br/>\n<![CDATA[ data ]]>";
+
+    private static void tokenise(String document, HxmlMetrics metrics) throws IOException {
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(document), 32);
+        parse.setMetrics(metrics);
+        while (parse.nextToken()) {
+            // do nothing
+        }
+    }
+
+    @Test
+    public void testCounts() throws Exception {
+        HxmlStatistics statistics = new HxmlStatistics();
+        tokenise(DOCUMENT, statistics);
+        assertEquals(DOCUMENT.length(), statistics.getCharactersRead());
+        assertEquals(5, statistics.getTokenCount());
+        assertEquals(1, statistics.getTokenCount(HxmlTokeniser.START_TAG));
+        assertEquals(1, statistics.getTokenCount(HxmlTokeniser.COMMENT));
+        Map<String, Long> byType = statistics.getTokensByType();
+        assertEquals(Long.valueOf(1), byType.get("EMPTY_TAG"));
+        assertEquals(Long.valueOf(1), byType.get("CDATA"));
+        assertNull(byType.get("PI"));
+        assertEquals(" a comment ".length() + " data ".length(), statistics.getCharactersSearched());
+        assertEquals(" a comment ".length(), statistics.getMaxSearchLength());
+        assertEquals("\n<![CDATA[ data ]]>".length(), statistics.getMaxTokenLength());
+        assertTrue(statistics.getMaxUnread() > 0);
+        assertEquals(0, statistics.getErrorCount());
+
+        statistics.reset();
+        assertEquals(0, statistics.getTokenCount());
+        assertEquals(0, statistics.getCharactersRead());
+        assertEquals(0, statistics.getMaxTokenLength());
+    }
+
+    @Test
+    public void testDataBufferAndErrors() throws Exception {
+        HxmlStatistics statistics = new HxmlStatistics();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("text ");
+        }
+        tokenise(text + "<a>", statistics);
+        assertTrue(statistics.getMaxDataBufferSize() >= 5003);
+
+        try {
+            tokenise("<a b=\"c\nd\">", statistics);
+            fail();
+        } catch (IOException e) {
+            assertEquals(1, statistics.getErrorCount());
+        }
+    }
+
+    @Test
+    public void testShared() throws Exception {
+        final HxmlStatistics statistics = new HxmlStatistics();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[8];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 100; j++) {
+                            tokenise(DOCUMENT, statistics);
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(8 * 100 * 5, statistics.getTokenCount());
+        assertEquals(8 * 100 * DOCUMENT.length(), statistics.getCharactersRead());
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        HxmlStatistics statistics = new HxmlStatistics();
+        tokenise(DOCUMENT, statistics);
+        ObjectName name = statistics.register("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(Long.valueOf(5), server.getAttribute(name, "TokenCount"));
+            assertEquals(Long.valueOf(DOCUMENT.length()), server.getAttribute(name, "CharactersRead"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void testMetricsInterface() throws Exception {
+        final int[] tokens = new int[1];
+        tokenise(DOCUMENT, new DefaultHxmlMetrics() {
+            @Override
+            public void token(int type, int length) {
+                tokens[0]++;
+            }
+        });
+        assertEquals(5, tokens[0]);
+    }
+}
@@ -0,0 +1,93 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HxmlTokeniserPoolTest {
+    private static final String TEMPLATE = "<*Date Year=\"${year}\">\n<year-to-date>*</year-to-date>\n"
+            + "<!-- comment --></*Date>";
+
+    private static List<Token> tokenise(HxmlTokeniser parse) throws Exception {
+        List<Token> tokens = new ArrayList<Token>();
+        while (parse.nextToken()) {
+            tokens.add(parse.getToken());
+        }
+        return tokens;
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        List<Token> expected = tokenise(new HxmlTokeniser(new StringReader(TEMPLATE)));
+
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader("<a>\n\n<b c=d>"));
+        parse.nextToken();
+        parse.reset(new StringReader(TEMPLATE));
+        assertEquals(expected, tokenise(parse));
+        parse.reset(TEMPLATE);
+        assertEquals(expected, tokenise(parse));
+        // Half way through a long comment.
+        parse.reset("<!-- " + new String(new char[100000]) + " -->");
+        parse.reset(TEMPLATE);
+        assertEquals(expected, tokenise(parse));
+    }
+
+    @Test
+    public void testPool() throws Exception {
+        List<Token> expected = tokenise(new HxmlTokeniser(new StringReader(TEMPLATE)));
+
+        HxmlTokeniserPool pool = new HxmlTokeniserPool(2, 4096);
+        HxmlTokeniser first = pool.acquire(TEMPLATE);
+        first.ignoreComments(true);
+        List<Token> tokens = tokenise(first);
+        assertEquals(4, tokens.size());
+        assertEquals("\n<!-- comment -->", tokens.get(3).getText());
+        assertSame(pool.getSymbolTable(), first.getSymbolTable());
+        pool.release(first);
+        assertEquals(1, pool.getIdleCount());
+
+        // Back to the default settings.
+        HxmlTokeniser second = pool.acquire(new StringReader(TEMPLATE));
+        assertSame(first, second);
+        assertEquals(expected, tokenise(second));
+        assertEquals(0, pool.getIdleCount());
+
+        // Buffers grown past the retained size are dropped.
+        HxmlTokeniser third = pool.acquire("<!--" + new String(new char[10000]) + "-->");
+        assertTrue(third.nextToken());
+        assertTrue(third.getTokenContentRange().getBuffer().length > 4096);
+        pool.release(third);
+        HxmlTokeniser fourth = pool.acquire(TEMPLATE);
+        assertTrue(fourth.nextToken());
+        assertTrue(fourth.getTokenNameRange().getBuffer().length <= 4096);
+        fourth.reset(TEMPLATE);
+        assertEquals(expected, tokenise(fourth));
+
+        pool.release(second);
+        pool.release(fourth);
+        pool.release(new HxmlTokeniser(TEMPLATE));
+        assertEquals(2, pool.getIdleCount());
+    }
+}
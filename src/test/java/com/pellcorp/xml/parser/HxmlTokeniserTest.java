@@ -19,8 +19,15 @@
 
 package com.pellcorp.xml.parser;
 
+import java.io.IOException;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Collectors;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -50,4 +57,641 @@ public class HxmlTokeniserTest {
             }
         }
     }
+
+    @Test
+    public void testAttributeAccessors() throws Exception {
+        String template = "<*Date Year=\"${year}\" Month='${month}' Day=${day} InvalidValue=\"\" /></*Date>";
+
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template));
+        assertTrue(parse.nextToken());
+        assertEquals(4, parse.getAttributeCount());
+        assertEquals("Month", parse.getAttributeName(1));
+        assertEquals("${month}", parse.getAttributeValue(1));
+        assertEquals("${day}", parse.getAttributeValueRange(2).toString());
+        assertEquals("", parse.getAttributeValue(3));
+        assertSame(parse.getAttributes(), parse.getAttributes());
+        assertEquals(new Attribute("Year", "${year}"), parse.getAttributes().get(0));
+        try {
+            parse.getAttributeValue(4);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+
+        assertTrue(parse.nextToken());
+        assertEquals(0, parse.getAttributeCount());
+        assertTrue(parse.getAttributes().isEmpty());
+    }
+
+    @Test
+    public void testAttributeLookup() throws Exception {
+        StringBuilder template = new StringBuilder("<*Date Year=\"${year}\" Month=\"${month}\" Day=\"${day}\"/>");
+        template.append("<input");
+        for (int i = 0; i < 50; i++) {
+            template.append(" data-").append(i).append("=v").append(i);
+        }
+        template.append(" Year=second TYPE=text></input>");
+
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template.toString()));
+        int month = parse.getSymbolTable().add("Month");
+        assertTrue(parse.nextToken());
+        assertEquals("${year}", parse.getAttribute("Year"));
+        assertEquals("${month}", parse.getAttribute(month));
+        assertEquals("${day}", parse.getAttributeIgnoreCase("DAY"));
+        assertNull(parse.getAttribute("day"));
+        assertNull(parse.getAttribute("data-1"));
+
+        assertTrue(parse.nextToken());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("v" + i, parse.getAttribute("data-" + i));
+            assertEquals(i, parse.getAttributeIndex("data-" + i));
+        }
+        assertEquals("second", parse.getAttribute("Year"));
+        assertNull(parse.getAttribute(month));
+        assertEquals("second", parse.getAttribute(parse.getSymbolTable().getId("Year")));
+        assertEquals("v49", parse.getAttribute(parse.getSymbolTable().getId("data-49")));
+        assertNull(parse.getAttribute(SymbolTable.NO_ID));
+        assertNull(parse.getAttribute("type"));
+        assertEquals("text", parse.getAttributeIgnoreCase("type"));
+        assertEquals("v7", parse.getAttributeIgnoreCase("DATA-7"));
+
+        assertTrue(parse.nextToken());
+        assertNull(parse.getAttribute("Year"));
+        assertNull(parse.getAttributeIgnoreCase("type"));
+    }
+
+    @Test
+    public void testSetTags() throws Exception {
+        String template = "<html><body><A href=\"x\">link</a><p class=\"c\">para<br/></p><a name=y/></body></html>";
+
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template));
+        parse.setTags(new String[] {"a", "br"}, true);
+        assertTrue(parse.nextToken());
+        assertEquals(HxmlTokeniser.START_TAG, parse.getTokenType());
+        assertEquals("A", parse.getTokenName());
+        assertEquals("<html><body>", parse.getText());
+        assertEquals("x", parse.getAttribute("href"));
+        assertTrue(parse.nextToken());
+        assertEquals(HxmlTokeniser.END_TAG, parse.getTokenType());
+        assertEquals("link", parse.getText());
+        assertTrue(parse.nextToken());
+        assertEquals(HxmlTokeniser.EMPTY_TAG, parse.getTokenType());
+        assertEquals("br", parse.getTokenName());
+        assertEquals("<p class=\"c\">para", parse.getText());
+        assertTrue(parse.nextToken());
+        assertEquals("y", parse.getAttribute("name"));
+        assertEquals("</p>", parse.getText());
+        assertFalse(parse.nextToken());
+
+        parse = new HxmlTokeniser(new StringReader(template));
+        parse.setTags(new String[] {"a"}, false);
+        assertTrue(parse.nextToken());
+        assertEquals("a", parse.getTokenName());
+        assertEquals(HxmlTokeniser.END_TAG, parse.getTokenType());
+        assertEquals("<html><body><A href=\"x\">link", parse.getText());
+    }
+
+    @Test
+    public void testLineNumbers() throws Exception {
+        String template = "<a>\r\n<b>\r<c>\n\n<d>";
+
+        // Smallest possible window, so the input is read in many blocks.
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template), 17);
+        assertTrue(parse.nextToken());
+        assertEquals(1, parse.getLineNumber());
+        assertTrue(parse.nextToken());
+        assertEquals("\n", parse.getText());
+        assertEquals(2, parse.getLineNumber());
+        assertTrue(parse.nextToken());
+        assertEquals("\n", parse.getText());
+        assertEquals(3, parse.getLineNumber());
+        assertTrue(parse.nextToken());
+        assertEquals("\n\n", parse.getText());
+        assertEquals(5, parse.getLineNumber());
+        assertFalse(parse.nextToken());
+    }
+
+    @Test
+    public void testWindowRefill() throws Exception {
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            template.append("<*Date Year=\"${year}\" Month=\"${month}\"/>text ")
+                .append(i).append("<!-- comment - ").append(i).append(" -->\r\n")
+                .append("<a href=unquoted-value-longer-than-the-window>a long run of text</a junk >");
+        }
+
+        HxmlTokeniser small = new HxmlTokeniser(new StringReader(template.toString()), 17);
+        HxmlTokeniser large = new HxmlTokeniser(new StringReader(template.toString()));
+        int count = 0;
+        while (large.nextToken()) {
+            assertTrue(small.nextToken());
+            assertEquals(large.getTokenType(), small.getTokenType());
+            assertEquals(large.getTokenName(), small.getTokenName());
+            assertEquals(large.getText(), small.getText());
+            assertEquals(large.getTokenContent(), small.getTokenContent());
+            assertEquals(large.getLineNumber(), small.getLineNumber());
+            assertEquals(large.getAttributes(), small.getAttributes());
+            count++;
+        }
+        assertFalse(small.nextToken());
+        assertEquals(400, count);
+    }
+
+    @Test
+    public void testTerminators() throws Exception {
+        String comment = "<!-- a-b - -- ->--->";
+        String cdata = "<![CDATA[ x]]y ]] ]>]]]>";
+        String pi = "<?pi a?b ? >??>";
+        String template = comment + "text" + cdata + pi;
+
+        // Small windows, so the terminators are split across refills.
+        for (int size = 17; size < 30; size++) {
+            HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template), size);
+            assertTrue(parse.nextToken());
+            assertEquals(HxmlTokeniser.COMMENT, parse.getTokenType());
+            assertEquals(comment, parse.getTokenContent());
+            assertTrue(parse.nextToken());
+            assertEquals(HxmlTokeniser.CDATA, parse.getTokenType());
+            assertEquals("text", parse.getText());
+            assertEquals(cdata, parse.getTokenContent());
+            assertTrue(parse.nextToken());
+            assertEquals(HxmlTokeniser.PI, parse.getTokenType());
+            assertEquals(pi, parse.getTokenContent());
+            assertFalse(parse.nextToken());
+        }
+    }
+
+    @Test
+    public void testReturnEntities() throws Exception {
+        String template = "a &amp; b&#x20AC;&#65;&#128512;&lt&notit;&notin &copy=x &bogus; &#; &#xZ &amp"
+                + "<p title=\"&lt;&quot;&amp=&ampx&notit;\" alt=&gt;>&CounterClockwiseContourIntegral;</p>";
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template), 17);
+        parse.setEntityMode(HxmlTokeniser.RETURN_ENTITIES);
+
+        String[][] expected = {
+            { "a ", "&amp;", "amp", "&" },
+            { " b", "&#x20AC;", "#x20AC", "\u20AC" },
+            { "", "&#65;", "#65", "A" },
+            { "", "&#128512;", "#128512", new String(Character.toChars(128512)) },
+            { "", "&lt", "lt", "<" },
+            // The longest name that is an entity, not the longest match.
+            { "", "&not", "not", "\u00ac" },
+            { "it;", "&not", "not", "\u00ac" },
+            { "in ", "&copy", "copy", "\u00a9" },
+            { "=x &bogus; &#; &#xZ ", "&amp", "amp", "&" },
+        };
+        for (String[] entity : expected) {
+            assertTrue(parse.nextToken());
+            assertEquals(HxmlTokeniser.ENTITY, parse.getTokenType());
+            assertEquals("ENTITY", parse.getTypeAsString());
+            assertEquals(entity[0], parse.getTextRange().toString());
+            assertEquals(entity[1], parse.getTokenContent());
+            assertEquals(entity[2], parse.getTokenName());
+            assertEquals(entity[3], parse.getEntityValue());
+            assertEquals(entity[3], parse.getEntityValueRange().toString());
+        }
+
+        // Attribute values are decoded, except for a legacy name followed by
+        // '=' or a letter, which is left alone.
+        assertTrue(parse.nextToken());
+        assertEquals(HxmlTokeniser.START_TAG, parse.getTokenType());
+        assertEquals("<\"&amp=&ampx&notit;", parse.getAttribute("title"));
+        assertEquals(">", parse.getAttribute("alt"));
+        assertNull(parse.getEntityValue());
+
+        assertTrue(parse.nextToken());
+        assertEquals(HxmlTokeniser.ENTITY, parse.getTokenType());
+        assertEquals("\u2233", parse.getEntityValue());
+        assertTrue(parse.nextToken());
+        assertEquals(HxmlTokeniser.END_TAG, parse.getTokenType());
+        assertFalse(parse.nextToken());
+    }
+
+    @Test
+    public void testDecodeEntities() throws Exception {
+        String template = "a &amp; b&#x20AC;&#65;&#x110000;&lt&notit; &notin &copy=x &bogus; &#; &#xZ &amp"
+                + "<p title=\"&lt;&quot;&amp=&notin\">&fjlig;&#X41</p>";
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template), 17);
+        parse.setEntityMode(HxmlTokeniser.DECODE_ENTITIES);
+        assertTrue(parse.nextToken());
+        assertEquals(HxmlTokeniser.START_TAG, parse.getTokenType());
+        assertEquals("a & b\u20ACA\ufffd<\u00acit; \u00acin \u00a9=x &bogus; &#; &#xZ &",
+                parse.getText());
+        assertEquals("<\"&amp=&notin", parse.getAttribute("title"));
+        assertTrue(parse.nextToken());
+        assertEquals("fjA", parse.getText());
+        assertFalse(parse.nextToken());
+
+        // The same, wherever the input runs out.
+        List<Token> expected = new ArrayList<Token>();
+        parse = new HxmlTokeniser(template);
+        parse.setEntityMode(HxmlTokeniser.DECODE_ENTITIES);
+        while (parse.nextToken()) {
+            expected.add(parse.getToken());
+        }
+        List<CharBuffer> chars = new ArrayList<CharBuffer>();
+        for (int i = 0; i < template.length(); i++) {
+            chars.add(CharBuffer.wrap(template, i, i + 1));
+        }
+        parse = new HxmlTokeniser();
+        parse.setEntityMode(HxmlTokeniser.DECODE_ENTITIES);
+        assertEquals(expected, feed(parse, chars));
+    }
+
+    @Test
+    public void testKeepEntities() throws Exception {
+        HxmlTokeniser parse = new HxmlTokeniser("a &amp; b<p title=\"&lt;\"/>");
+        assertEquals(HxmlTokeniser.KEEP_ENTITIES, parse.getEntityMode());
+        assertTrue(parse.nextToken());
+        assertEquals("a &amp; b", parse.getText());
+        assertEquals("&lt;", parse.getAttribute("title"));
+        try {
+            parse.setEntityMode(3);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testCharClassifier() throws Exception {
+        for (char c = 0; c < 0x3000; c++) {
+            assertEquals(CharClassifier.PERMISSIVE.classify(c), CharClassifier.PERMISSIVE.classOf(c));
+            assertEquals(CharClassifier.XML.classify(c), CharClassifier.XML.classOf(c));
+        }
+        assertEquals(CharClassifier.WHITESPACE, CharClassifier.HTML.classOf('\f'));
+        assertEquals(0, CharClassifier.XML.classOf('\f'));
+
+        String template = "<*Date\u2003a.b=1>";
+        HxmlTokeniser parse = new HxmlTokeniser(template);
+        assertSame(CharClassifier.PERMISSIVE, parse.getCharClassifier());
+        assertTrue(parse.nextToken());
+        assertEquals("*Date", parse.getTokenName());
+        assertEquals("1", parse.getAttribute("a.b"));
+
+        parse = new HxmlTokeniser(template);
+        parse.setCharClassifier(CharClassifier.XML);
+        try {
+            parse.nextToken();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Invalid initial name char: *"));
+        }
+
+        parse = new HxmlTokeniser("<a data-x@y=1 href=/index.html><br class=x/></a>");
+        parse.setCharClassifier(CharClassifier.HTML);
+        assertTrue(parse.nextToken());
+        assertEquals("1", parse.getAttribute("data-x@y"));
+        assertEquals("/index.html", parse.getAttribute("href"));
+        assertTrue(parse.nextToken());
+        assertEquals(HxmlTokeniser.START_TAG, parse.getTokenType());
+        assertEquals("x/", parse.getAttribute("class"));
+
+        // Only ASCII letters, and names can have digits in them.
+        CharClassifier ascii = new CharClassifier() {
+            public int classify(char c) {
+                boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+                return (letter ? NAME_START | NAME_CHAR : 0)
+                        | (c >= '0' && c <= '9' ? NAME_CHAR : 0)
+                        | (c == ' ' ? WHITESPACE : 0)
+                        | (c == '>' ? DELIMITER : 0);
+            }
+        };
+        parse = new HxmlTokeniser("<h1 x=1/2><\u00e9t\u00e9>");
+        parse.setCharClassifier(ascii);
+        assertTrue(parse.nextToken());
+        assertEquals("h1", parse.getTokenName());
+        assertEquals("1/2", parse.getAttribute("x"));
+        try {
+            parse.nextToken();
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        String template = "some text<*Date Year=\"${year}\"/><!-- comment -->";
+
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template));
+        assertTrue(parse.nextToken());
+        assertTrue(parse.getTextRange().contentEquals("some text"));
+        assertTrue(parse.getTokenNameRange().contentEquals("*Date"));
+        assertTrue(parse.getTokenNameRange().contentEqualsIgnoreCase("*date"));
+        assertEquals(parse.getTokenContent(), parse.getTokenContentRange().toString());
+
+        StringBuilder out = new StringBuilder();
+        parse.getTextRange().appendTo(out);
+        assertEquals("some text", out.toString());
+        assertEquals("text", parse.getTextRange().subSequence(5, 9));
+
+        assertTrue(parse.nextToken());
+        assertNull(parse.getTokenNameRange());
+        assertNull(parse.getTokenName());
+        assertEquals(0, parse.getTextRange().length());
+        assertEquals("<!-- comment -->", parse.getTokenContentRange().toString());
+        assertFalse(parse.nextToken());
+    }
+
+    @Test
+    public void testTokens() throws Exception {
+        String template = "<*Date Year=\"${year}\"><year-to-date>*</year-to-date><!-- x --></*Date>";
+
+        List<Token> expected = new ArrayList<Token>();
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template));
+        while (parse.nextToken()) {
+            expected.add(parse.getToken());
+        }
+        assertEquals(5, expected.size());
+
+        assertEquals(expected, new HxmlTokeniser(template).tokens().collect(Collectors.toList()));
+
+        List<Token> iterated = new ArrayList<Token>();
+        Iterator<Token> iterator = new HxmlTokeniser(new StringReader(template)).iterator();
+        while (iterator.hasNext()) {
+            iterated.add(iterator.next());
+        }
+        assertEquals(expected, iterated);
+
+        assertEquals(2, new HxmlTokeniser(template).tokenTypes()
+                .filter(type -> type == HxmlTokeniser.END_TAG).count());
+
+        // Carries on from where nextToken() got to.
+        parse = new HxmlTokeniser(template);
+        parse.nextToken();
+        assertEquals(expected.subList(1, 5), parse.tokens().collect(Collectors.toList()));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testTokensError() throws Exception {
+        new HxmlTokeniser("<a b=\"c").tokens().count();
+    }
+
+    private static List<Token> feed(HxmlTokeniser parse, List<?> chunks) throws Exception {
+        List<Token> tokens = new ArrayList<Token>();
+        Iterator<?> iterator = chunks.iterator();
+        while (true) {
+            int type = parse.next();
+            if (type == HxmlTokeniser.END_OF_INPUT) {
+                return tokens;
+            } else if (type == HxmlTokeniser.NEED_MORE_INPUT) {
+                if (!iterator.hasNext()) {
+                    parse.endOfInput();
+                } else {
+                    Object chunk = iterator.next();
+                    if (chunk instanceof ByteBuffer) {
+                        parse.feed((ByteBuffer) chunk);
+                    } else {
+                        parse.feed((CharBuffer) chunk);
+                    }
+                }
+            } else {
+                assertEquals(type, parse.getTokenType());
+                tokens.add(parse.getToken());
+            }
+        }
+    }
+
+    @Test
+    public void testFeed() throws Exception {
+        String template = "<?xml version=\"1.0\"?>\r\n<*Date Year=\"${year}\" Month='${month}'>\r\n"
+                + "<year-to-date>*</year-to-date><!-- a - comment -- -->\r"
+                + "<![CDATA[ ]] <x> ]]><\u00e9t\u00e9 caf\u00e9=\"\u4e2d\u6587\"/></*Date >";
+
+        List<Token> expected = new ArrayList<Token>();
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template));
+        while (parse.nextToken()) {
+            expected.add(parse.getToken());
+        }
+        assertEquals(8, expected.size());
+
+        // One character at a time, so input runs out everywhere it can.
+        List<CharBuffer> chars = new ArrayList<CharBuffer>();
+        for (int i = 0; i < template.length(); i++) {
+            chars.add(CharBuffer.wrap(template, i, i + 1));
+        }
+        assertEquals(expected, feed(new HxmlTokeniser(), chars));
+
+        // Splits the multi-byte characters.
+        byte[] bytes = template.getBytes("UTF-8");
+        List<ByteBuffer> byteChunks = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < bytes.length; i += 3) {
+            byteChunks.add(ByteBuffer.wrap(bytes, i, Math.min(3, bytes.length - i)));
+        }
+        assertEquals(expected, feed(new HxmlTokeniser(), byteChunks));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFeedReader() throws Exception {
+        new HxmlTokeniser(new StringReader("")).feed(CharBuffer.wrap("<a>"));
+    }
+
+    @Test
+    public void testFeedLongTag() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            value.append("value ");
+        }
+        String template = "<a b=\"" + value + "\">text</a>";
+        List<CharBuffer> chunks = new ArrayList<CharBuffer>();
+        for (int i = 0; i < template.length(); i += 10) {
+            chunks.add(CharBuffer.wrap(template, i, Math.min(i + 10, template.length())));
+        }
+
+        // The tag is only parsed again once its '>' is fed in, so the
+        // distance moved back is about its length, not 6000 times it.
+        final long[] unread = new long[1];
+        HxmlTokeniser parse = new HxmlTokeniser();
+        parse.setMetrics(new DefaultHxmlMetrics() {
+            @Override
+            public void unread(int distance) {
+                unread[0] += distance;
+            }
+        });
+        List<Token> tokens = feed(parse, chunks);
+        assertEquals(2, tokens.size());
+        assertEquals(value.toString(), tokens.get(0).getAttributes().get(0).getValue());
+        assertTrue(unread[0] < 3L * template.length());
+
+        // Run out in nextToken(), and a new exception is thrown each time.
+        parse = new HxmlTokeniser();
+        parse.feed(CharBuffer.wrap("<a"));
+        IOException first = null;
+        for (int i = 0; i < 2; i++) {
+            try {
+                parse.nextToken();
+                fail();
+            } catch (IOException e) {
+                assertNotSame(first, e);
+                first = e;
+            }
+        }
+    }
+
+    private static String limitError(String template, HxmlLimits limits) {
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template));
+        parse.setLimits(limits);
+        try {
+            while (parse.nextToken()) {
+            }
+            return null;
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        String template = "<abcde a=\"1\" b=\"2\" c=\"3\">0123456789</abcde>";
+        assertNull(limitError(template, new HxmlLimits(5, 3, 17)));
+        assertEquals("Line:1; Name is longer than 4 characters",
+                limitError(template, new HxmlLimits(4, 3, 17)));
+        assertEquals("Line:1; More than 2 attributes",
+                limitError(template, new HxmlLimits(5, 2, 17)));
+        assertEquals("Line:1; Token is longer than 16 characters",
+                limitError(template, new HxmlLimits(5, 3, 16)));
+
+        // Fails before reading the rest of it.
+        StringBuilder huge = new StringBuilder("<!--");
+        for (int i = 0; i < 100000; i++) {
+            huge.append("comment ");
+        }
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(huge + "-->"), 1024);
+        parse.setLimits(new HxmlLimits(100, 100, 1000));
+        HxmlStatistics statistics = new HxmlStatistics();
+        parse.setMetrics(statistics);
+        try {
+            parse.nextToken();
+            fail();
+        } catch (IOException e) {
+            assertTrue(statistics.getCharactersRead() <= 3000);
+        }
+    }
+
+    @Test
+    public void testReturnText() throws Exception {
+        String template = "lead <a x='1'>t &amp; u</a><!--c-->mid<b/>tail";
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template));
+        parse.setReturnText(true);
+        parse.setEntityMode(HxmlTokeniser.RETURN_ENTITIES);
+        List<String> tokens = new ArrayList<String>();
+        while (parse.nextToken()) {
+            assertEquals("", parse.getText());
+            tokens.add(parse.getTypeAsString() + ":" + parse.getTokenContent());
+        }
+        assertEquals("[TEXT:lead , START_TAG:<ax1, TEXT:t , ENTITY:&amp;, TEXT: u, END_TAG:</a, "
+                + "COMMENT:<!--c-->, TEXT:mid, EMPTY_TAG:<b, TEXT:tail]", tokens.toString());
+
+        // The same when fed in one character at a time.
+        List<Token> expected = new ArrayList<Token>();
+        parse = new HxmlTokeniser(new StringReader(template));
+        parse.setReturnText(true);
+        while (parse.nextToken()) {
+            expected.add(parse.getToken());
+        }
+        assertEquals(HxmlTokeniser.TEXT, expected.get(expected.size() - 1).getType());
+        List<CharBuffer> chars = new ArrayList<CharBuffer>();
+        for (int i = 0; i < template.length(); i++) {
+            chars.add(CharBuffer.wrap(template, i, i + 1));
+        }
+        HxmlTokeniser feed = new HxmlTokeniser();
+        feed.setReturnText(true);
+        assertEquals(expected, feed(feed, chars));
+    }
+
+    @Test
+    public void testReturnTextNotMarkup() throws Exception {
+        // Markup that is not returned stays text, although it may end up
+        // in more than one TEXT token.
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader("a<b>c</b> &x; <p>"));
+        parse.setReturnText(true);
+        parse.setTags(new String[] {"p"}, false);
+        StringBuilder text = new StringBuilder();
+        while (parse.nextToken() && parse.getTokenType() == HxmlTokeniser.TEXT) {
+            text.append(parse.getTokenContent());
+        }
+        assertEquals("a<b>c</b> &x; ", text.toString());
+        assertEquals(HxmlTokeniser.START_TAG, parse.getTokenType());
+        assertEquals("p", parse.getTokenName());
+        assertFalse(parse.nextToken());
+    }
+
+    private static final String LOCATIONS = "<?xml version=\"1.0\"?>\r\n<a  x = 'one'\r\n\ty=two>"
+            + "text &amp; more\n<!-- a\ncomment --><b z=\"3\"/>\n</a>tail";
+
+    /**
+     * Where each token and attribute value is, as start-end@line:column.
+     */
+    private static String location(HxmlTokeniser parse) {
+        StringBuilder location = new StringBuilder();
+        location.append(parse.getTokenStartOffset()).append('-').append(parse.getTokenEndOffset())
+                .append('@').append(parse.getStartLine()).append(':').append(parse.getStartColumn());
+        for (int i = 0; i < parse.getAttributeCount(); i++) {
+            location.append(' ').append(parse.getAttributeOffset(i)).append(',')
+                    .append(parse.getAttributeValueOffset(i)).append('-')
+                    .append(parse.getAttributeValueEndOffset(i)).append('@')
+                    .append(parse.getAttributeValueLine(i)).append(':')
+                    .append(parse.getAttributeValueColumn(i));
+        }
+        return location.toString();
+    }
+
+    @Test
+    public void testLocations() throws Exception {
+        String normalised = LOCATIONS.replace("\r\n", "\n");
+        // A small window, so the input is read in a few goes.
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(LOCATIONS), 17);
+        parse.setReturnText(true);
+        parse.setEntityMode(HxmlTokeniser.RETURN_ENTITIES);
+        List<String> sources = new ArrayList<String>();
+        List<String> locations = new ArrayList<String>();
+        while (parse.nextToken()) {
+            long start = parse.getTokenStartOffset();
+            long end = parse.getTokenEndOffset();
+            String source = LOCATIONS.substring((int) start, (int) end);
+            sources.add(source);
+            assertEquals(source.replace("\r\n", "\n"), normalised.substring(
+                    (int) parse.getNormalisedOffset(start),
+                    (int) parse.getNormalisedOffset(end)));
+            for (int i = 0; i < parse.getAttributeCount(); i++) {
+                assertEquals(parse.getAttributeValue(i), LOCATIONS.substring(
+                        (int) parse.getAttributeValueOffset(i),
+                        (int) parse.getAttributeValueEndOffset(i)));
+                assertTrue(LOCATIONS.startsWith(parse.getAttributeName(i),
+                        (int) parse.getAttributeOffset(i)));
+            }
+            locations.add(location(parse));
+        }
+        assertEquals(LOCATIONS, String.join("", sources));
+        assertEquals("<a  x = 'one'\r\n\ty=two>", sources.get(2));
+        assertEquals("[0-21@1:1, 21-23@1:22, 23-45@2:1 27,32-35@2:10 39,41-44@3:4, 45-50@3:8, "
+                + "50-55@3:13, 55-61@3:18, 61-79@4:1, 79-89@5:12 82,85-86@5:18, 89-90@5:22, "
+                + "90-94@6:1, 94-98@6:5]", locations.toString());
+
+        // The same when fed in one character at a time, and when replayed.
+        HxmlTokeniser feed = new HxmlTokeniser();
+        feed.setReturnText(true);
+        feed.setEntityMode(HxmlTokeniser.RETURN_ENTITIES);
+        List<String> fed = new ArrayList<String>();
+        int i = 0;
+        int type;
+        while ((type = feed.next()) != HxmlTokeniser.END_OF_INPUT) {
+            if (type != HxmlTokeniser.NEED_MORE_INPUT) {
+                fed.add(location(feed));
+            } else if (i < LOCATIONS.length()) {
+                feed.feed(CharBuffer.wrap(LOCATIONS, i, ++i));
+            } else {
+                feed.endOfInput();
+            }
+        }
+        assertEquals(locations, fed);
+
+        parse = new HxmlTokeniser(LOCATIONS);
+        parse.setReturnText(true);
+        parse.setEntityMode(HxmlTokeniser.RETURN_ENTITIES);
+        HxmlTokeniser replay = new HxmlTokeniser(parse.compile());
+        List<String> replayed = new ArrayList<String>();
+        while (replay.nextToken()) {
+            replayed.add(location(replay));
+        }
+        assertEquals(locations, replayed);
+    }
 }
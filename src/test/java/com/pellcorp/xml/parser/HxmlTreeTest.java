@@ -0,0 +1,160 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+
+package com.pellcorp.xml.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HxmlTreeTest {
+    private static final String DOCUMENT = "<?xml version=\"1.0\"?>\n<book id='1' lang=en>"
+            + "<title>Fish &amp; Chips</title>\n<!-- note --><br/>"
+            + "<p>one<b>two</b><![CDATA[<three>]]></p></book>after";
+
+    private static HxmlTree build(String document) throws Exception {
+        HxmlTokeniser tokeniser = new HxmlTokeniser(new StringReader(document));
+        tokeniser.setEntityMode(HxmlTokeniser.DECODE_ENTITIES);
+        return HxmlTree.build(tokeniser);
+    }
+
+    @Test
+    public void testNavigation() throws Exception {
+        HxmlTree tree = build(DOCUMENT);
+        int root = tree.getRoot();
+        assertEquals(HxmlTree.DOCUMENT, tree.getType(root));
+        assertEquals(HxmlTree.NO_NODE, tree.getParent(root));
+
+        int pi = tree.getFirstChild(root);
+        assertEquals(HxmlTree.PI, tree.getType(pi));
+        assertEquals("xml", tree.getName(pi));
+        assertEquals("version=\"1.0\"", tree.getValue(pi));
+
+        int book = tree.getFirstChild(root, "book");
+        assertEquals(HxmlTree.ELEMENT, tree.getType(book));
+        assertEquals(2, tree.getLineNumber(book));
+        assertEquals(2, tree.getAttributeCount(book));
+        assertEquals("lang", tree.getAttributeName(book, 1));
+        assertEquals("en", tree.getAttributeValue(book, 1));
+        assertEquals("1", tree.getAttribute(book, "id"));
+        assertNull(tree.getAttribute(book, "missing"));
+        assertEquals(tree.getSymbolTable().getId("id"), tree.getAttributeNameId(book, 0));
+        assertEquals(tree.getSymbolTable().getId("book"), tree.getNameId(book));
+
+        // The text after the last tag is kept, as a child of the document.
+        int after = tree.getNextSibling(book);
+        assertEquals("after", tree.getValue(after));
+        assertEquals(HxmlTree.NO_NODE, tree.getNextSibling(after));
+
+        int title = tree.getFirstChild(book);
+        // The entity is joined on to the text around it.
+        int text = tree.getFirstChild(title);
+        assertEquals("Fish & Chips", tree.getValue(text));
+        assertEquals(HxmlTree.NO_NODE, tree.getNextSibling(text));
+        assertEquals(title, tree.getParent(text));
+
+        int br = tree.getNextElement(title);
+        assertEquals("br", tree.getName(br));
+        assertEquals(HxmlTree.NO_NODE, tree.getFirstChild(br));
+        assertEquals(HxmlTree.COMMENT, tree.getType(tree.getNextSibling(tree.getNextSibling(title))));
+        assertEquals(" note ", tree.getValueRange(tree.getNextSibling(tree.getNextSibling(title))).toString());
+
+        int p = tree.getFirstChild(book, "p");
+        assertEquals(3, tree.getLineNumber(p));
+        assertEquals("onetwo<three>", tree.getTextContent(p));
+        assertEquals("Fish & Chipsonetwo<three>", tree.getTextContent(book).replace("\n", ""));
+        assertNull(tree.getValue(p));
+    }
+
+    @Test
+    public void testSize() throws Exception {
+        StringBuilder document = new StringBuilder("<list>\n");
+        for (int i = 0; i < 10000; i++) {
+            document.append("<item id=\"").append(i).append("\" type=new>Item ")
+                    .append(i).append(" &amp; more</item>\n");
+        }
+        document.append("</list>");
+        HxmlTree tree = build(document.toString());
+        int items = 0;
+        for (int item = tree.getFirstChild(tree.getFirstChild(tree.getRoot()), "item");
+                item != HxmlTree.NO_NODE; item = tree.getNextElement(item)) {
+            items++;
+        }
+        assertEquals(10000, items);
+        // The tree is about twice the size of the String it was built from,
+        // at two bytes a char.
+        assertTrue(tree.getSize() < 3 * 2L * document.length());
+    }
+
+    @Test
+    public void testCursor() throws Exception {
+        HxmlTree tree = build(DOCUMENT);
+        HxmlTree.Cursor cursor = tree.cursor(tree.getRoot());
+        List<String> nodes = new ArrayList<String>();
+        while (cursor.next()) {
+            int node = cursor.getNode();
+            if (tree.getType(node) == HxmlTree.ELEMENT) {
+                nodes.add(cursor.getDepth() + tree.getName(node));
+                if (tree.getName(node).equals("title")) {
+                    cursor.skipChildren();
+                }
+            }
+        }
+        assertFalse(cursor.next());
+        assertEquals(HxmlTree.NO_NODE, cursor.getNode());
+        assertEquals("[1book, 2title, 2br, 2p, 3b]", nodes.toString());
+
+        // Just the nodes in one element.
+        int p = tree.getFirstChild(tree.getFirstChild(tree.getRoot(), "book"), "p");
+        cursor = tree.cursor(p);
+        int count = 0;
+        while (cursor.next()) {
+            count++;
+        }
+        assertEquals(5, count);
+    }
+
+    @Test
+    public void testUnbalanced() throws Exception {
+        // </x> matches nothing, </a> closes the <b> and <c> left open.
+        HxmlTree tree = build("<a><b><c>t</x></a><d/></b>end");
+        int root = tree.getRoot();
+        int a = tree.getFirstChild(root);
+        assertEquals("a", tree.getName(a));
+        int d = tree.getNextSibling(a);
+        assertEquals("d", tree.getName(d));
+        assertEquals("end", tree.getValue(tree.getNextSibling(d)));
+        assertEquals("t", tree.getTextContent(a));
+        assertEquals(7, tree.getNodeCount());
+
+        // Without a SymbolTable, names are still found.
+        HxmlTokeniser tokeniser = new HxmlTokeniser(new StringReader("<a x='1'><b></a>"));
+        tokeniser.setSymbolTable(null);
+        tree = HxmlTree.build(tokeniser);
+        a = tree.getFirstChild(tree.getRoot());
+        assertEquals(SymbolTable.NO_ID, tree.getNameId(a));
+        assertEquals("a", tree.getName(a));
+        assertEquals("x", tree.getAttributeName(a, 0));
+        assertEquals("b", tree.getName(tree.getFirstChild(a, "b")));
+        assertFalse(tokeniser.isReturnText());
+    }
+}
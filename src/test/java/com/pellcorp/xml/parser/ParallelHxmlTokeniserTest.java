@@ -0,0 +1,185 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+ */
+
+package com.pellcorp.xml.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ParallelHxmlTokeniserTest {
+    private static final String[] PARTS = {
+        "<*Date Year=\"${year}\" Month=\"${month}\" Day=\"${day}\"/>",
+        "<year-to-date>*</year-to-date>", "<a href=\"<b\">", "</a>",
+        "<!-- <month>*</month> -->", "<![CDATA[ <day>*</day> ]]>", "<?pi <x> ?>",
+        "some text\n", "more text\r\n", "\r", "<p class='<q'>", "</p>", "<br/>"
+    };
+
+    private static String generate(Random random, int parts) {
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < parts; i++) {
+            template.append(PARTS[random.nextInt(PARTS.length)]);
+        }
+        return template.toString();
+    }
+
+    private static List<Token> sequential(String template) throws IOException {
+        List<Token> tokens = new ArrayList<Token>();
+        HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template));
+        while (parse.nextToken()) {
+            tokens.add(parse.getToken());
+        }
+        return tokens;
+    }
+
+    @Test
+    public void testSameAsSequential() throws Exception {
+        Random random = new Random(1);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < 50; i++) {
+                String template = generate(random, 200);
+                List<Token> expected = sequential(template);
+                for (int chunkSize : new int[] {16, 100, 1000}) {
+                    ParallelHxmlTokeniser parse = new ParallelHxmlTokeniser(pool, chunkSize);
+                    assertEquals(expected, parse.tokenise(template));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testIgnoreComments() throws Exception {
+        String template = generate(new Random(2), 500);
+        HxmlTokeniser expected = new HxmlTokeniser(new StringReader(template));
+        expected.ignoreComments(true);
+        expected.ignoreCData(true);
+
+        ParallelHxmlTokeniser parse = new ParallelHxmlTokeniser(ForkJoinPool.commonPool(), 64);
+        parse.ignoreComments(true);
+        parse.ignoreCData(true);
+        List<Token> tokens = parse.tokenise(template);
+        for (Token token : tokens) {
+            assertTrue(expected.nextToken());
+            assertEquals(expected.getToken(), token);
+        }
+        assertFalse(expected.nextToken());
+    }
+
+    @Test
+    public void testError() throws Exception {
+        String template = generate(new Random(3), 200) + "<a b=\"c\nd\">" + generate(new Random(4), 200);
+        String message = null;
+        try {
+            sequential(template);
+        } catch (IOException e) {
+            message = e.getMessage();
+        }
+        assertNotNull(message);
+
+        try {
+            new ParallelHxmlTokeniser(ForkJoinPool.commonPool(), 50).tokenise(template);
+            fail();
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        String template = generate(new Random(5), 300) + "<café>€</café>";
+        File file = File.createTempFile("hxml", ".xml");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(template.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            List<Token> tokens = new ParallelHxmlTokeniser(ForkJoinPool.commonPool(), 100)
+                .tokenise(file, Charset.forName("UTF-8"));
+            assertEquals(sequential(template), tokens);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSetTags() throws Exception {
+        String template = generate(new Random(5), 500);
+        String[] tags = {"a", "P", "br"};
+        HxmlTokeniser expected = new HxmlTokeniser(new StringReader(template));
+        expected.setTags(tags, true);
+        List<Token> tokens = new ArrayList<Token>();
+        while (expected.nextToken()) {
+            tokens.add(expected.getToken());
+        }
+
+        ParallelHxmlTokeniser parse = new ParallelHxmlTokeniser(ForkJoinPool.commonPool(), 100);
+        parse.setTags(tags, true);
+        assertEquals(tokens, parse.tokenise(template));
+    }
+
+    @Test
+    public void testParallelStream() throws Exception {
+        String template = generate(new Random(4), 20000);
+        assertTrue(template.length() > 2 * TokenSpliterator.MIN_SPLIT_SIZE);
+        List<Token> expected = sequential(template);
+
+        assertEquals(expected, new HxmlTokeniser(template).tokens().parallel()
+                .collect(Collectors.toList()));
+
+        int[] types = new int[expected.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = expected.get(i).getType();
+        }
+        assertArrayEquals(types, new HxmlTokeniser(template).tokenTypes().parallel().toArray());
+
+        // Not in memory, so just read one at a time.
+        assertEquals(expected, new HxmlTokeniser(new StringReader(template)).tokens()
+                .parallel().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testReturnText() throws Exception {
+        String template = generate(new Random(6), 500) + "trailing text";
+        HxmlTokeniser expected = new HxmlTokeniser(new StringReader(template));
+        expected.setReturnText(true);
+        List<Token> tokens = new ArrayList<Token>();
+        while (expected.nextToken()) {
+            tokens.add(expected.getToken());
+        }
+        assertEquals("trailing text", tokens.get(tokens.size() - 1).getContent());
+
+        ParallelHxmlTokeniser parse = new ParallelHxmlTokeniser(ForkJoinPool.commonPool(), 100);
+        parse.setReturnText(true);
+        assertEquals(tokens, parse.tokenise(template));
+    }
+}
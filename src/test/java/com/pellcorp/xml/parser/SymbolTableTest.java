@@ -0,0 +1,113 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+ */
+
+package com.pellcorp.xml.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SymbolTableTest {
+    @Test
+    public void testIntern() throws Exception {
+        SymbolTable table = new SymbolTable();
+        char[] buf = "xxDayxxDay".toCharArray();
+
+        String first = table.intern(buf, 2, 3);
+        assertEquals("Day", first);
+        assertSame(first, table.intern(buf, 7, 3));
+        assertEquals(0, table.getId(buf, 2, 3));
+        assertEquals(0, table.getId("Day"));
+        assertEquals(1, table.add("Month"));
+        assertEquals("Month", table.getName(1));
+        assertEquals(SymbolTable.NO_ID, table.getId("Year"));
+        assertNull(table.getName(2));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        SymbolTable table = new SymbolTable(2);
+        assertEquals(0, table.add("a"));
+        assertEquals(1, table.add("b"));
+        assertEquals(SymbolTable.NO_ID, table.add("c"));
+
+        char[] buf = "c".toCharArray();
+        assertEquals("c", table.intern(buf, 0, 1));
+        assertEquals(2, table.size());
+
+        // Names added before the table filled up are still found.
+        buf = "b".toCharArray();
+        assertEquals(1, table.getId(buf, 0, 1));
+        assertSame(table.getName(1), table.intern(buf, 0, 1));
+
+        assertEquals(SymbolTable.NO_ID, new SymbolTable(0).add("a"));
+    }
+
+    @Test
+    public void testGrow() throws Exception {
+        SymbolTable table = new SymbolTable();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.add("name" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.getId("name" + i));
+            assertEquals("name" + i, table.getName(i));
+        }
+    }
+
+    @Test
+    public void testShared() throws Exception {
+        final SymbolTable table = new SymbolTable();
+        final int yearId = table.add("Year");
+        final String template = "<*Date Year=\"${year}\" Month=\"${month}\" Day=\"${day}\"/>";
+        final List<Throwable> errors = new ArrayList<Throwable>();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 1000; i++) {
+                            HxmlTokeniser parse = new HxmlTokeniser(new StringReader(template));
+                            parse.setSymbolTable(table);
+                            assertTrue(parse.nextToken());
+                            assertSame(table.getName(parse.getTokenNameId()), parse.getTokenName());
+                            assertEquals(yearId, table.getId(parse.getAttributes().get(0).getName()));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(errors.toString(), 0, errors.size());
+        assertEquals(4, table.size());
+    }
+}
@@ -0,0 +1,231 @@
+/*      
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+    
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+    
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TemplateCacheTest {
+    private static final String TEMPLATE = "<?xml version=\"1.0\"?>\r\n<*Date Year=\"${year}\" Month='${month}'>\n"
+            + "<year-to-date>*</year-to-date><!-- a comment -->\n<![CDATA[ <x> ]]>"
+            + "&copy; 2001&#x2013;2012<br/></*Date>";
+
+    private static List<Token> tokenise(HxmlTokeniser parse) throws Exception {
+        List<Token> tokens = new ArrayList<Token>();
+        while (parse.nextToken()) {
+            tokens.add(parse.getToken());
+        }
+        return tokens;
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        HxmlTokeniser parse = new HxmlTokeniser(TEMPLATE);
+        parse.setEntityMode(HxmlTokeniser.RETURN_ENTITIES);
+        List<Token> expected = tokenise(parse);
+        assertEquals(10, expected.size());
+
+        parse = new HxmlTokeniser(TEMPLATE);
+        parse.setEntityMode(HxmlTokeniser.RETURN_ENTITIES);
+        CompiledDocument document = parse.compile();
+        assertEquals(10, document.getTokenCount());
+        assertEquals(HxmlTokeniser.PI, document.getTokenType(0));
+        assertNull(document.getError());
+
+        // Twice, to check nothing is used up.
+        HxmlTokeniser replay = new HxmlTokeniser(document);
+        assertEquals(expected, tokenise(replay));
+        replay.reset(document);
+        assertEquals(expected, tokenise(replay));
+        assertEquals(4, replay.getLineNumber());
+
+        // The views, ids and entity values as well.
+        replay.reset(document);
+        replay.setSymbolTable(parse.getSymbolTable());
+        assertTrue(replay.nextToken());
+        assertTrue(replay.nextToken());
+        assertEquals(HxmlTokeniser.START_TAG, replay.getTokenType());
+        assertEquals(parse.getSymbolTable().getId("*Date"), replay.getTokenNameId());
+        assertEquals("*Date", replay.getTokenNameRange().toString());
+        assertEquals("${month}", replay.getAttributeValueRange(1).toString());
+        assertEquals("${year}", replay.getAttribute("Year"));
+        assertSame(parse.getSymbolTable().intern("Year".toCharArray(), 0, 4), replay.getAttributeName(0));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(replay.nextToken());
+        }
+        assertEquals(HxmlTokeniser.ENTITY, replay.getTokenType());
+        assertEquals("\u00a9", replay.getEntityValue());
+
+        // And after going back to tokenising input.
+        replay.reset(TEMPLATE);
+        replay.setEntityMode(HxmlTokeniser.RETURN_ENTITIES);
+        assertEquals(expected, tokenise(replay));
+    }
+
+    @Test
+    public void testReplayError() throws Exception {
+        String template = "<a><b c=\"d/\"></a>";
+        CompiledDocument document = new HxmlTokeniser(template).compile();
+        assertEquals(1, document.getTokenCount());
+        assertNotNull(document.getError());
+
+        HxmlParseException live = null;
+        HxmlTokeniser parse = new HxmlTokeniser(template);
+        try {
+            while (parse.nextToken()) {
+            }
+            fail();
+        } catch (HxmlParseException e) {
+            live = e;
+        }
+        assertEquals(live.getCode(), document.getErrorCode());
+
+        HxmlTokeniser replay = new HxmlTokeniser(document);
+        assertTrue(replay.nextToken());
+        assertEquals("a", replay.getTokenName());
+        try {
+            replay.nextToken();
+            fail();
+        } catch (HxmlParseException e) {
+            // The same as it was when the document was compiled.
+            assertEquals(document.getError(), e.getMessage());
+            assertEquals(live.getCode(), e.getCode());
+            assertEquals(live.getLineNumber(), e.getLineNumber());
+            assertEquals(live.getOffset(), e.getOffset());
+        }
+        try {
+            replay.feed(new char[1], 0, 1);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testHandler() throws Exception {
+        final StringBuilder live = new StringBuilder();
+        HxmlTokeniser.tokenise(new StringReader(TEMPLATE), new DefaultHxmlHandler() {
+            @Override
+            public void text(char[] ch, int start, int length) {
+                live.append(ch, start, length).append('|');
+            }
+        });
+        final StringBuilder replayed = new StringBuilder();
+        new HxmlTokeniser(new TemplateCache().get(TEMPLATE)).tokenise(new DefaultHxmlHandler() {
+            @Override
+            public void text(char[] ch, int start, int length) {
+                replayed.append(ch, start, length).append('|');
+            }
+        });
+        assertEquals(live.toString(), replayed.toString());
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        TemplateCache cache = new TemplateCache();
+        CompiledDocument document = cache.get(TEMPLATE);
+        assertSame(document, cache.get(new StringBuilder(TEMPLATE)));
+        assertSame(document, cache.get(TEMPLATE, "ignored, as it is already there"));
+        assertSame(document, cache.getIfPresent(TEMPLATE));
+        assertEquals(1, cache.size());
+        // The content is the key, so it is counted as well.
+        long size = document.getSize() + 2L * TEMPLATE.length();
+        assertEquals(size, cache.getSize());
+
+        CompiledDocument keyed = cache.get("date", TEMPLATE);
+        assertNotSame(document, keyed);
+        assertEquals(2, cache.size());
+        cache.invalidate("date");
+        assertNull(cache.getIfPresent("date"));
+        assertEquals(size, cache.getSize());
+        cache.invalidate(TEMPLATE);
+        assertEquals(0, cache.getSize());
+
+        // Changing a setting starts again.
+        cache.setEntityMode(HxmlTokeniser.DECODE_ENTITIES);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getSize());
+        List<Token> tokens = tokenise(new HxmlTokeniser(cache.get(TEMPLATE)));
+        assertEquals("\u00a9 2001\u20132012", tokens.get(tokens.size() - 2).getText());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        long size = new TemplateCache().compile(TEMPLATE + 0).getSize();
+        // Room for about 4 documents in each segment.
+        TemplateCache cache = new TemplateCache(size * 16 * 4);
+        for (int i = 0; i < 1000; i++) {
+            cache.get(i, TEMPLATE + i);
+            // Keep using the first one, so it is never the least recently used.
+            assertNotNull(cache.get(0, TEMPLATE + 0));
+        }
+        assertTrue(cache.size() <= 16 * 4);
+        assertTrue(cache.getSize() <= size * 16 * 4);
+        assertNotNull(cache.getIfPresent(0));
+        assertNotNull(cache.getIfPresent(999));
+        assertNull(cache.getIfPresent(1));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final TemplateCache cache = new TemplateCache();
+        final List<List<Token>> expected = new ArrayList<List<Token>>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(tokenise(new HxmlTokeniser(TEMPLATE + i)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        HxmlTokeniser replay = null;
+                        for (int n = 0; n < 500; n++) {
+                            int i = n % 20;
+                            CompiledDocument document = cache.get(TEMPLATE + i);
+                            if (replay == null) {
+                                replay = new HxmlTokeniser(document);
+                            } else {
+                                replay.reset(document);
+                            }
+                            if (!expected.get(i).equals(tokenise(replay))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(20, cache.size());
+    }
+}
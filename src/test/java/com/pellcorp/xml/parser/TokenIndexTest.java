@@ -0,0 +1,200 @@
+/*
+    HXML Tokeniser
+    Copyright (C) 2001-2012 by Jason Pell
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  US
+*/
+
+package com.pellcorp.xml.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TokenIndexTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String DOCUMENT = "<?xml version=\"1.0\"?>\r\nh\u00e9llo <a x='1'>t&amp;</a>"
+            + "<!-- \u4e2d\ud83d\ude00 -->\n<b/>";
+
+    /**
+     * The characters of bytes[start..end), which are UTF-8.
+     */
+    private static String slice(byte[] bytes, long start, long end) {
+        return new String(bytes, (int) start, (int) (end - start), UTF8);
+    }
+
+    private static File write(String content) throws IOException {
+        File file = File.createTempFile("hxml", ".xml");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(UTF8));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testBuildAndOpen() throws Exception {
+        File source = write(DOCUMENT);
+        File indexFile = TokenIndex.getIndexFile(source);
+        try {
+            HxmlTokeniser tokeniser = new HxmlTokeniser(new StringReader(""));
+            tokeniser.setEntityMode(HxmlTokeniser.RETURN_ENTITIES);
+            TokenIndex.build(tokeniser, source, UTF8, indexFile);
+
+            HxmlTokeniser expected = new HxmlTokeniser(new StringReader(DOCUMENT));
+            expected.setEntityMode(HxmlTokeniser.RETURN_ENTITIES);
+            TokenIndex index = TokenIndex.open(indexFile);
+            // Offsets are in bytes, so the source can be sliced with them,
+            // whatever its line endings and characters.
+            byte[] bytes = DOCUMENT.getBytes(UTF8);
+            int n = 0;
+            while (expected.nextToken()) {
+                assertEquals(expected.getTokenType(), index.getTokenType(n));
+                assertEquals(expected.getTokenName(), index.getTokenName(n));
+                assertEquals(expected.getStartLine(), index.getLineNumber(n));
+                assertEquals(DOCUMENT.substring((int) expected.getTextStartOffset(),
+                        (int) expected.getTokenEndOffset()),
+                        slice(bytes, index.getTextStart(n), index.getTokenEnd(n)));
+                n++;
+            }
+            assertEquals(n, index.getTokenCount());
+            assertEquals(3, index.getEndLineNumber());
+
+            assertEquals("<a x='1'>", slice(bytes, index.getTokenStart(1), index.getTokenEnd(1)));
+            assertEquals("&amp;", slice(bytes, index.getTokenStart(2), index.getTokenEnd(2)));
+            assertEquals("\r\nh\u00e9llo ", slice(bytes, index.getTextStart(1), index.getTokenStart(1)));
+            assertEquals("<!-- \u4e2d\ud83d\ude00 -->", slice(bytes, index.getTokenStart(4),
+                    index.getTokenEnd(4)));
+            assertEquals(2, index.getLineNumber(1));
+            assertEquals(index.getSymbolTable().getId("a"), index.getTokenNameId(3));
+            assertEquals(SymbolTable.NO_ID, index.getTokenNameId(4));
+        } finally {
+            source.delete();
+            indexFile.delete();
+        }
+    }
+
+    @Test
+    public void testCharset() throws Exception {
+        Charset utf16 = Charset.forName("UTF-16BE");
+        File source = File.createTempFile("hxml", ".xml");
+        File indexFile = TokenIndex.getIndexFile(source);
+        try {
+            byte[] bytes = DOCUMENT.getBytes(utf16);
+            FileOutputStream out = new FileOutputStream(source);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            TokenIndex.build(new HxmlTokeniser(new StringReader("")), source, utf16, indexFile);
+            TokenIndex index = TokenIndex.open(indexFile);
+            long start = index.getTokenStart(1);
+            assertEquals("<a x='1'>", new String(bytes, (int) start,
+                    (int) (index.getTokenEnd(1) - start), utf16));
+            assertEquals(bytes.length, index.getTokenEnd(index.getTokenCount() - 1));
+        } finally {
+            source.delete();
+            indexFile.delete();
+        }
+    }
+
+    @Test
+    public void testFindToken() throws Exception {
+        File source = write(DOCUMENT);
+        File indexFile = TokenIndex.getIndexFile(source);
+        try {
+            TokenIndex.build(new HxmlTokeniser(new StringReader("")), source, UTF8, indexFile);
+            TokenIndex index = TokenIndex.open(indexFile);
+            assertEquals(0, index.findToken(0));
+            // In the text before <a x='1'>, and in the tag itself.
+            assertEquals(1, index.findToken(22));
+            assertEquals(1, index.findToken(index.getTokenStart(1) + 2));
+            assertEquals(2, index.findToken(index.getTokenEnd(1)));
+            assertEquals(-1, index.findToken(index.getTokenEnd(index.getTokenCount() - 1)));
+        } finally {
+            source.delete();
+            indexFile.delete();
+        }
+    }
+
+    @Test
+    public void testIsCurrent() throws Exception {
+        File source = write(DOCUMENT);
+        File indexFile = TokenIndex.getIndexFile(source);
+        try {
+            TokenIndex.build(new HxmlTokeniser(new StringReader("")), source, UTF8, indexFile);
+            TokenIndex index = TokenIndex.open(indexFile);
+            assertTrue(index.isCurrent(source));
+
+            // Touched, but the same content.
+            assertTrue(source.setLastModified(source.lastModified() - 100000));
+            assertTrue(index.isCurrent(source));
+
+            // Same length, different content.
+            FileOutputStream out = new FileOutputStream(source);
+            try {
+                out.write(DOCUMENT.replace('h', 'j').getBytes(UTF8));
+            } finally {
+                out.close();
+            }
+            assertTrue(source.setLastModified(source.lastModified() - 200000));
+            assertFalse(index.isCurrent(source));
+
+            out = new FileOutputStream(source, true);
+            try {
+                out.write('x');
+            } finally {
+                out.close();
+            }
+            assertFalse(index.isCurrent(source));
+        } finally {
+            source.delete();
+            indexFile.delete();
+        }
+    }
+
+    @Test
+    public void testErrorLeavesNoIndex() throws Exception {
+        File source = write("<a b=\"c\nd\">");
+        File indexFile = TokenIndex.getIndexFile(source);
+        try {
+            TokenIndex.build(new HxmlTokeniser(new StringReader("")), source, UTF8, indexFile);
+            fail();
+        } catch (IOException e) {
+            assertFalse(indexFile.exists());
+        } finally {
+            source.delete();
+            indexFile.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAnIndex() throws Exception {
+        File file = write(DOCUMENT + DOCUMENT + DOCUMENT);
+        try {
+            TokenIndex.open(file);
+        } finally {
+            file.delete();
+        }
+    }
+}